@@ -0,0 +1,168 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Splits a catalog into ranges of record IDs, so that the ranges can be requested and converted concurrently.
+ *
+ * The boundaries are found by bisecting on the number of records with an ID below a candidate boundary, so that the
+ * partitions holds roughly the same number of records, regardless of gaps in the IDs. The first and the last
+ * partitions are open ended, so that records added while exporting are not missed.
+ *
+ * Counting only requires Cumulus to evaluate the query, not to deliver any records, so the
+ * {@code partitions * log2(maxID)} counts are cheap compared to the export itself.
+ */
+public class CatalogPartitioner {
+    private static final Logger log = LoggerFactory.getLogger(CatalogPartitioner.class);
+
+    static final String GREATER_THAN = "is greater than";
+    static final String LESS_THAN = "is less than";
+    /** The first guess for the upper bound of the IDs, doubled until no IDs are above it. */
+    static final long INITIAL_MAX_ID = 1024;
+
+    private final String idField;
+    private final ToLongFunction<List<CumulusQueries.Condition>> counter;
+
+    /**
+     * @param idField a numeric Cumulus field with a unique value for each record, such as {@code ID}.
+     * @param counter counts the records in the catalog matching the given conditions, added to any conditions from
+     *                the configuration.
+     */
+    public CatalogPartitioner(String idField, ToLongFunction<List<CumulusQueries.Condition>> counter) {
+        this.idField = idField;
+        this.counter = counter;
+    }
+
+    /**
+     * Finds boundaries that split the catalog into the given number of partitions with roughly the same number of
+     * records. Fewer boundaries are returned if the catalog holds too few records or the IDs are too dense.
+     * @param partitions the wanted number of partitions.
+     * @return the ascending boundaries between the partitions. Empty if the catalog should not be partitioned.
+     */
+    public List<Long> findBounds(int partitions) {
+        final long total = counter.applyAsLong(List.of());
+        if (partitions <= 1 || total < partitions) {
+            return Collections.emptyList();
+        }
+
+        long maxID = INITIAL_MAX_ID;
+        while (maxID < Long.MAX_VALUE / 2 && count(null, maxID + 1) < total) {
+            maxID *= 2;
+        }
+
+        final List<Long> bounds = new ArrayList<>(partitions - 1);
+        long low = 0;
+        for (int i = 1 ; i < partitions ; i++) {
+            final long target = total * i / partitions;
+            // Smallest boundary with at least target records below it
+            long high = maxID + 1;
+            while (low < high) {
+                final long middle = low + (high - low) / 2;
+                if (count(null, middle) >= target) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            if (bounds.isEmpty() || bounds.get(bounds.size() - 1) < low) {
+                bounds.add(low);
+            }
+        }
+        log.debug("Found bounds {} for {} partitions of {} records with {} up to {}",
+                  bounds, partitions, total, idField, maxID);
+        return bounds;
+    }
+
+    /**
+     * Creates the partitions defined by the given boundaries.
+     * @param idField the numeric Cumulus field that the boundaries are for.
+     * @param bounds  ascending boundaries, as given by {@link #findBounds(int)}.
+     * @return bounds.size() + 1 partitions, covering all IDs.
+     */
+    public static List<Partition> getPartitions(String idField, List<Long> bounds) {
+        final List<Partition> partitions = new ArrayList<>(bounds.size() + 1);
+        for (int i = 0 ; i <= bounds.size() ; i++) {
+            partitions.add(new Partition(idField, i, i == 0 ? null : bounds.get(i - 1),
+                                         i == bounds.size() ? null : bounds.get(i)));
+        }
+        return partitions;
+    }
+
+    /**
+     * @return the number of records with from <= ID < to.
+     */
+    private long count(Long from, Long to) {
+        return counter.applyAsLong(getConditions(idField, from, to));
+    }
+
+    private static List<CumulusQueries.Condition> getConditions(String idField, Long from, Long to) {
+        final List<CumulusQueries.Condition> conditions = new ArrayList<>(2);
+        if (from != null) {
+            conditions.add(new CumulusQueries.Condition(
+                CumulusQueries.Condition.AND, idField, GREATER_THAN, Long.toString(from - 1)));
+        }
+        if (to != null) {
+            conditions.add(new CumulusQueries.Condition(
+                CumulusQueries.Condition.AND, idField, LESS_THAN, Long.toString(to)));
+        }
+        return conditions;
+    }
+
+    /**
+     * A range of record IDs, from inclusive to exclusive. A null boundary means that the range is open ended.
+     */
+    public static class Partition {
+        public final String idField;
+        public final int index;
+        public final Long from;
+        public final Long to;
+
+        Partition(String idField, int index, Long from, Long to) {
+            this.idField = idField;
+            this.index = index;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the conditions restricting a catalog query to the partition.
+         */
+        public List<CumulusQueries.Condition> getConditions() {
+            return CatalogPartitioner.getConditions(idField, from, to);
+        }
+
+        /**
+         * @param catalog the Cumulus catalog.
+         * @return a key for the partition of the catalog, used for checkpoints.
+         */
+        public String getKey(String catalog) {
+            return catalog + "#" + index;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + " " + idField + " [" + (from == null ? "" : from) + ", " +
+                   (to == null ? "" : to) + ")";
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import dk.kb.ds.cumulus.export.output.DocumentWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Progress for a single output file, making it possible to resume an export that was interrupted.
+ *
+ * For each catalog written to the output, the checkpoint holds the number of records that has been handled (written
+ * or rejected) and the ID of the last of them, together with the size of the output after the last complete
+ * {@code <doc>}. A resumed export truncates the output to that size and skips the handled records without converting
+ * them. The skipped records are still read from the source, as the position is a count of records.
+ *
+ * This relies on the source delivering the records in the same order when the export is resumed. If records has been
+ * added, removed or reordered before the position, the ID of the record at the position no longer matches and the
+ * resumed export fails instead of skipping or duplicating records. A new export must then be started.
+ *
+ * Partitioned catalogs (see {@link CatalogPartitioner}) are tracked per partition, with the partition as catalog.
+ * The bounds of the partitions are stored, so that a resumed export uses the same partitions.
+ *
+ * If records are also saved to a snapshot (see {@link #setSnapshot}), the snapshot is flushed before the checkpoint
+ * is stored, so that an appending resume does not lose the records handled before the checkpoint.
+ *
+ * The checkpoint is stored as a properties file next to the output file.
+ */
+public class Checkpoint {
+    private static final Logger log = LoggerFactory.getLogger(Checkpoint.class);
+
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private static final String KEY_OFFSET = "offset";
+    private static final String KEY_RUN_START = "runstart";
+    private static final String KEY_POSITION_PREFIX = "position.";
+    private static final String KEY_DONE_PREFIX = "done.";
+    private static final String KEY_LAST_PREFIX = "last.";
+    private static final String KEY_BOUNDS_PREFIX = "bounds.";
+
+    private final Path checkpointFile;
+    private final int interval;
+    private final Properties state = new Properties();
+    private long sinceStore = 0;
+    private Flushable snapshot = null;
+
+    /**
+     * Creates an empty checkpoint for the given output file. Use {@link #load()} to load an existing checkpoint.
+     * @param outputFile the output that the checkpoint tracks.
+     * @param interval   the number of records between storing the checkpoint.
+     */
+    public Checkpoint(Path outputFile, int interval) {
+        this.checkpointFile = outputFile.resolveSibling(outputFile.getFileName() + CHECKPOINT_SUFFIX);
+        this.interval = interval;
+    }
+
+    /**
+     * @param snapshot if not null, this is flushed every time the checkpoint is stored.
+     */
+    public synchronized void setSnapshot(Flushable snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Loads the checkpoint from storage.
+     * @return true if a checkpoint existed and was loaded, false if there was no stored checkpoint.
+     * @throws IOException if the checkpoint existed but could not be loaded.
+     */
+    public synchronized boolean load() throws IOException {
+        state.clear();
+        if (!Files.exists(checkpointFile)) {
+            return false;
+        }
+        try (Reader in = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+            state.load(in);
+        }
+        log.info("Loaded checkpoint {} with offset {}", checkpointFile, getOffset());
+        return true;
+    }
+
+    /**
+     * Removes the stored checkpoint, if any. Call this when the output is complete or when starting a new export.
+     * @throws IOException if the checkpoint could not be removed.
+     */
+    public synchronized void delete() throws IOException {
+        if (Files.deleteIfExists(checkpointFile)) {
+            log.debug("Deleted checkpoint {}", checkpointFile);
+        }
+    }
+
+    /**
+     * @return the size of the output after the last complete document at the time of the checkpoint.
+     */
+    public synchronized long getOffset() {
+        return Long.parseLong(state.getProperty(KEY_OFFSET, "0"));
+    }
+
+    /**
+     * @return the start time of the export that created the checkpoint, or null if it is unknown.
+     */
+    public synchronized Instant getRunStart() {
+        final String runStart = state.getProperty(KEY_RUN_START);
+        return runStart == null ? null : Instant.parse(runStart);
+    }
+
+    /**
+     * @param runStart the start time of the export. This is kept across resumes, so that delta export watermarks
+     *                 reflect the start of the original export.
+     */
+    public synchronized void setRunStart(Instant runStart) {
+        state.setProperty(KEY_RUN_START, runStart.toString());
+    }
+
+    /**
+     * @param catalog a Cumulus catalog.
+     * @return the number of records from the catalog that has been handled.
+     */
+    public synchronized long getPosition(String catalog) {
+        return Long.parseLong(state.getProperty(KEY_POSITION_PREFIX + catalog, "0"));
+    }
+
+    /**
+     * @param catalog a Cumulus catalog.
+     * @return the ID of the last handled record from the catalog, or null if it is unknown.
+     */
+    public synchronized String getLastHandled(String catalog) {
+        return state.getProperty(KEY_LAST_PREFIX + catalog);
+    }
+
+    /**
+     * @param catalog a Cumulus catalog.
+     * @return true if all records from the catalog has been handled.
+     */
+    public synchronized boolean isDone(String catalog) {
+        return Boolean.parseBoolean(state.getProperty(KEY_DONE_PREFIX + catalog, "false"));
+    }
+
+    /**
+     * @param catalog a Cumulus catalog.
+     * @return the bounds of the partitions of the catalog, or null if no bounds has been set.
+     */
+    public synchronized List<Long> getBounds(String catalog) {
+        final String bounds = state.getProperty(KEY_BOUNDS_PREFIX + catalog);
+        return bounds == null ? null : bounds.isEmpty() ? List.of() :
+            Arrays.stream(bounds.split(",")).map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * @param catalog a Cumulus catalog.
+     * @param bounds  the bounds of the partitions of the catalog. They are stored with the next checkpoint.
+     */
+    public synchronized void setBounds(String catalog, List<Long> bounds) {
+        state.setProperty(KEY_BOUNDS_PREFIX + catalog,
+                          bounds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * Marks the next record from the catalog as handled and stores the checkpoint if the interval has been reached.
+     * The caller must ensure that the record has been given to the writer before calling this method.
+     * @param catalog  the Cumulus catalog that the record came from.
+     * @param writer   the output that the checkpoint tracks.
+     * @param recordID the ID of the record, used to check the order of the records when resuming. Can be null.
+     * @throws IOException if the checkpoint could not be stored.
+     */
+    public void advance(String catalog, DocumentWriter writer, String recordID) throws IOException {
+        // The writer is locked first, so that the offset and the positions are consistent
+        synchronized (writer) {
+            synchronized (this) {
+                state.setProperty(KEY_POSITION_PREFIX + catalog, Long.toString(getPosition(catalog) + 1));
+                if (recordID == null) {
+                    state.remove(KEY_LAST_PREFIX + catalog);
+                } else {
+                    state.setProperty(KEY_LAST_PREFIX + catalog, recordID);
+                }
+                if (interval > 0 && ++sinceStore >= interval) {
+                    store(writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks all records from the catalog as handled and stores the checkpoint.
+     * @param catalog the Cumulus catalog.
+     * @param writer  the output that the checkpoint tracks.
+     * @throws IOException if the checkpoint could not be stored.
+     */
+    public void markDone(String catalog, DocumentWriter writer) throws IOException {
+        synchronized (writer) {
+            synchronized (this) {
+                state.setProperty(KEY_DONE_PREFIX + catalog, Boolean.TRUE.toString());
+                store(writer);
+            }
+        }
+    }
+
+    /**
+     * Flushes the writer and the snapshot and stores the checkpoint. The new checkpoint is written to a temporary file
+     * which then replaces the old checkpoint, so that a crash during store leaves the old checkpoint intact.
+     */
+    private void store(DocumentWriter writer) throws IOException {
+        state.setProperty(KEY_OFFSET, Long.toString(writer.flush()));
+        if (snapshot != null) {
+            snapshot.flush();
+        }
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            state.store(out, "Checkpoint for ds-cumulus-export");
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sinceStore = 0;
+        log.debug("Stored checkpoint {} with offset {}", checkpointFile, getOffset());
+    }
+}
@@ -17,10 +17,21 @@ package dk.kb.ds.cumulus.export;
 import dk.kb.cumulus.config.CumulusConfiguration;
 import dk.kb.cumulus.utils.ArgumentCheck;
 import dk.kb.ds.cumulus.export.converters.ConverterFactory;
+import dk.kb.ds.cumulus.export.output.AsyncFileOutputStream;
+import dk.kb.ds.cumulus.export.output.OutputFormat;
+import dk.kb.ds.cumulus.export.source.RecordSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Central configuration for the DS Cumulus Exporter.
@@ -63,6 +74,245 @@ public class Configuration {
     public static final String CONF_TYPE = "type";
     /** For testing purposes */
     public static final String MAXRECORDS = "maxrecords";
+    /** The number of threads used for converting records. */
+    public static final String CONF_THREADS = "threads";
+    public static final int DEFAULT_THREADS = 1;
+    /** The maximum number of records being converted or waiting to be written. Default is 4 * threads. */
+    public static final String CONF_QUEUE_SIZE = "queuesize";
+    /**
+     * The number of records read ahead of the conversion by a dedicated thread. 0 disables read-ahead.
+     * Default is {@link #CONF_QUEUE_SIZE}. See {@link ReadAhead}.
+     */
+    public static final String CONF_READ_AHEAD = "readahead";
+    /** If true, the documents are written in the same order as the records are read. */
+    public static final String CONF_ORDERED = "ordered";
+    public static final boolean DEFAULT_ORDERED = true;
+    /** The maximum number of catalogs being exported at the same time. */
+    public static final String CONF_CATALOG_THREADS = "catalogthreads";
+    public static final int DEFAULT_CATALOG_THREADS = 1;
+    /**
+     * Where to write the documents from the catalogs: {@code shared} writes all catalogs to {@link #CONF_OUTPUT_FILE},
+     * {@code separate} writes each catalog to its own file, derived from {@link #CONF_OUTPUT_FILE}.
+     */
+    public static final String CONF_CATALOG_OUTPUT = "catalogoutput";
+    public static final String CATALOG_OUTPUT_SHARED = "shared";
+    public static final String CATALOG_OUTPUT_SEPARATE = "separate";
+    public static final String DEFAULT_CATALOG_OUTPUT = CATALOG_OUTPUT_SHARED;
+    /** The format of the output: {@code xml}, {@code json}, {@code ndjson} or {@code javabin}. */
+    public static final String CONF_FORMAT = "format";
+    public static final String DEFAULT_FORMAT = "xml";
+    /**
+     * The number of handled records between storing checkpoints, used for resuming interrupted exports with
+     * {@code --resume}. 0 disables checkpoints.
+     */
+    public static final String CONF_CHECKPOINT = "checkpoint";
+    public static final int DEFAULT_CHECKPOINT = 0;
+
+    /**
+     * The file logging records that failed conversion, used by {@link CumulusExport#ARG_REPLAY}.
+     * Default is {@link #CONF_OUTPUT_FILE} + {@code .rejects}.
+     */
+    public static final String CONF_REJECT_FILE = "rejectfile";
+
+    /**
+     * Query node-element, restricting the records requested from Cumulus for each catalog. The conditions are
+     * combined left to right and the result is combined with the catalog condition using {@code and}, so that the
+     * filtering is done by Cumulus.
+     */
+    public static final String CONF_QUERY = "query";
+    /**
+     * The name of the preset in {@link #CONF_QUERY_PRESETS} to use. Default is
+     * {@link CumulusQueries#PRESET_ALL}, which has no conditions.
+     */
+    public static final String CONF_QUERY_PRESET = "preset";
+    /**
+     * Named lists of conditions. The names must not contain dots and {@link CumulusQueries#PRESET_ALL} is reserved.
+     */
+    public static final String CONF_QUERY_PRESETS = "presets";
+    /** Conditions added after the ones from the preset. */
+    public static final String CONF_QUERY_CONDITIONS = "conditions";
+    /** The Cumulus field for a condition. */
+    public static final String CONF_CONDITION_FIELD = "field";
+    /** The Cumulus operator for a condition, such as {@code is}, {@code contains} or {@code is after}. */
+    public static final String CONF_CONDITION_OPERATOR = "operator";
+    public static final String DEFAULT_CONDITION_OPERATOR = "is";
+    /** The value for a condition. */
+    public static final String CONF_CONDITION_VALUE = "value";
+    /** How a condition is combined with the ones before it: {@code and} or {@code or}. */
+    public static final String CONF_CONDITION_COMBINE = "combine";
+    public static final String DEFAULT_CONDITION_COMBINE = CumulusQueries.Condition.AND;
+
+    /** Delta export node-element. */
+    public static final String CONF_DELTA = "delta";
+    /** If true, only records modified since the last successful export are exported. */
+    public static final String CONF_DELTA_ENABLED = "enabled";
+    public static final boolean DEFAULT_DELTA_ENABLED = false;
+    /** The file holding the watermarks for delta export. Default is {@link #CONF_OUTPUT_FILE} + {@code .delta}. */
+    public static final String CONF_DELTA_STATE_FILE = "statefile";
+    /** The Cumulus field used for selecting modified records. */
+    public static final String CONF_DELTA_FIELD = "field";
+    public static final String DEFAULT_DELTA_FIELD = "Record Modification Date";
+    /**
+     * The number of seconds subtracted from the start time of an export when it is stored as watermark,
+     * to guard against clock differences between the exporter and the Cumulus server.
+     */
+    public static final String CONF_DELTA_OVERLAP = "overlap";
+    public static final int DEFAULT_DELTA_OVERLAP = 600;
+
+    /** Sharded output node-element. Sharding is enabled if either {@code documents} or {@code megabytes} is above 0. */
+    public static final String CONF_SHARD = "shard";
+    /** The maximum number of documents in a shard. 0 means no limit. */
+    public static final String CONF_SHARD_DOCUMENTS = "documents";
+    public static final int DEFAULT_SHARD_DOCUMENTS = 0;
+    /** The approximate maximum size of a shard in megabytes. 0 means no limit. */
+    public static final String CONF_SHARD_MEGABYTES = "megabytes";
+    public static final int DEFAULT_SHARD_MEGABYTES = 0;
+    /** The number of shards written in parallel. */
+    public static final String CONF_SHARD_WRITERS = "writers";
+    public static final int DEFAULT_SHARD_WRITERS = 1;
+
+    /** Direct sending to Solr node-element. */
+    public static final String CONF_SOLR = "solr";
+    /**
+     * The Solr update handler, e.g. {@code http://localhost:8983/solr/ds/update}. If defined, documents are sent to
+     * Solr instead of being written to {@link #CONF_OUTPUT_FILE}.
+     */
+    public static final String CONF_SOLR_URL = "url";
+    /** The maximum number of documents in a single request to Solr. */
+    public static final String CONF_SOLR_BATCH_DOCUMENTS = "batchdocuments";
+    public static final int DEFAULT_SOLR_BATCH_DOCUMENTS = 1000;
+    /** The approximate maximum size in megabytes of a single request to Solr. */
+    public static final String CONF_SOLR_BATCH_MEGABYTES = "batchmegabytes";
+    public static final int DEFAULT_SOLR_BATCH_MEGABYTES = 10;
+    /** The maximum number of requests being processed by Solr at any time. */
+    public static final String CONF_SOLR_IN_FLIGHT = "inflight";
+    public static final int DEFAULT_SOLR_IN_FLIGHT = 2;
+    /** If true, a commit is sent to Solr when all documents has been sent. */
+    public static final String CONF_SOLR_COMMIT = "commit";
+    public static final boolean DEFAULT_SOLR_COMMIT = true;
+    /** The maximum number of seconds to wait for Solr to process a single request. */
+    public static final String CONF_SOLR_TIMEOUT = "timeout";
+    public static final int DEFAULT_SOLR_TIMEOUT = 300;
+
+    /**
+     * Compressed output node-element. Compression is also enabled if {@link #CONF_OUTPUT_FILE} ends with {@code .gz}.
+     */
+    public static final String CONF_COMPRESSION = "compression";
+    /** If true, the output is gzip compressed and {@code .gz} is appended to the output file, if not present. */
+    public static final String CONF_COMPRESSION_ENABLED = "enabled";
+    /** The number of threads used for compression. Default is the number of processors. */
+    public static final String CONF_COMPRESSION_THREADS = "threads";
+    /** The number of kilobytes compressed independently by each thread. */
+    public static final String CONF_COMPRESSION_BLOCKSIZE = "blocksize";
+    public static final int DEFAULT_COMPRESSION_BLOCKSIZE = 128;
+    /** The compression level from 1 (fastest) to 9 (best). */
+    public static final String CONF_COMPRESSION_LEVEL = "level";
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    public static final String COMPRESSED_EXTENSION = ".gz";
+
+    /** Output file I/O node-element. */
+    public static final String CONF_IO = "io";
+    /** If true, output files are written by a dedicated I/O thread, so that slow storage does not stall conversion. */
+    public static final String CONF_IO_ASYNC = "async";
+    public static final boolean DEFAULT_IO_ASYNC = true;
+    /** The number of buffers waiting to be written by the I/O thread, at least 2. */
+    public static final String CONF_IO_BUFFERS = "buffers";
+    public static final int DEFAULT_IO_BUFFERS = 4;
+    /** The size of each buffer in kilobytes. */
+    public static final String CONF_IO_BUFFERSIZE = "buffersize";
+    public static final int DEFAULT_IO_BUFFERSIZE = 1024;
+    /** When to force output to the storage device: {@code none}, {@code close}, {@code flush} or {@code always}. */
+    public static final String CONF_IO_FSYNC = "fsync";
+    public static final String DEFAULT_IO_FSYNC = "close";
+
+    /**
+     * Snapshot node-element. Records can be saved to a local snapshot while exporting and later exported from the
+     * snapshot instead of Cumulus, e.g. when adjusting the mapping. See
+     * {@link dk.kb.ds.cumulus.export.snapshot.RecordSnapshotWriter}.
+     */
+    public static final String CONF_SNAPSHOT = "snapshot";
+    /** If defined, the raw field values of all exported records are saved to this file. */
+    public static final String CONF_SNAPSHOT_WRITE = "write";
+    /** If defined, records are read from this snapshot instead of requested from Cumulus. */
+    public static final String CONF_SNAPSHOT_READ = "read";
+
+    /**
+     * URL verification node-element. See {@link dk.kb.ds.cumulus.export.converters.URLVerifier}.
+     */
+    public static final String CONF_URLVERIFY = "urlverification";
+    /** The maximum number of verification requests in flight, shared by all converters. */
+    public static final String CONF_URLVERIFY_CONCURRENCY = "concurrency";
+    public static final int DEFAULT_URLVERIFY_CONCURRENCY = 16;
+    /**
+     * If defined, the outcome of verifications are stored in this file and reused by later runs.
+     * See {@link dk.kb.ds.cumulus.export.converters.URLCache}.
+     */
+    public static final String CONF_URLVERIFY_CACHE = "cache";
+    /** The number of hours before a passed verification in the cache expires. */
+    public static final String CONF_URLVERIFY_POSITIVE_TTL = "positivettl";
+    public static final int DEFAULT_URLVERIFY_POSITIVE_TTL = 168;
+    /** The number of hours before a failed verification in the cache expires. */
+    public static final String CONF_URLVERIFY_NEGATIVE_TTL = "negativettl";
+    public static final int DEFAULT_URLVERIFY_NEGATIVE_TTL = 24;
+    /** The number of milliseconds to wait for a connection to the server. */
+    public static final String CONF_URLVERIFY_CONNECT_TIMEOUT = "connecttimeout";
+    public static final int DEFAULT_URLVERIFY_CONNECT_TIMEOUT = 5000;
+    /** The number of milliseconds to wait for the response after the request has been sent. */
+    public static final String CONF_URLVERIFY_TIMEOUT = "timeout";
+    public static final int DEFAULT_URLVERIFY_TIMEOUT = 10000;
+    /**
+     * The number of milliseconds before a second, hedged request for the same URL is sent if the first has not
+     * completed. The first response is used. 0 disables hedging.
+     */
+    public static final String CONF_URLVERIFY_HEDGE_DELAY = "hedgedelay";
+    public static final int DEFAULT_URLVERIFY_HEDGE_DELAY = 0;
+    /**
+     * The number of consecutive failed requests to a host before its circuit breaker opens and further URLs on the
+     * host fail without a request. 0 disables the circuit breakers.
+     */
+    public static final String CONF_URLVERIFY_BREAKER_FAILURES = "breakerfailures";
+    public static final int DEFAULT_URLVERIFY_BREAKER_FAILURES = 5;
+    /** The number of seconds an open circuit breaker waits before trying the host again. */
+    public static final String CONF_URLVERIFY_BREAKER_PAUSE = "breakerpause";
+    public static final int DEFAULT_URLVERIFY_BREAKER_PAUSE = 30;
+
+    /**
+     * Where records come from: {@code cumulus}, {@code snapshot} or {@code synthetic}.
+     * Default is {@code snapshot} if {@link #CONF_SNAPSHOT_READ} is defined, else {@code cumulus}.
+     * See {@link dk.kb.ds.cumulus.export.source.RecordSource}.
+     */
+    public static final String CONF_SOURCE = "source";
+    /**
+     * Setup for generated records, used when {@link #CONF_SOURCE} is {@code synthetic}.
+     * See {@link dk.kb.ds.cumulus.export.source.SyntheticRecordSource}.
+     */
+    public static final String CONF_SYNTHETIC = "synthetic";
+
+    /**
+     * Partitioning node-element. Each catalog is split into ranges of record IDs, which are requested and converted
+     * concurrently. See {@link CatalogPartitioner}.
+     */
+    public static final String CONF_PARTITIONS = "partitions";
+    /** The number of partitions per catalog. 1 disables partitioning. */
+    public static final String CONF_PARTITIONS_COUNT = "count";
+    public static final int DEFAULT_PARTITIONS_COUNT = 1;
+    /** The numeric Cumulus field used for the ranges. */
+    public static final String CONF_PARTITIONS_FIELD = "field";
+    public static final String DEFAULT_PARTITIONS_FIELD = "ID";
+
+    /** Cumulus session pool node-element. */
+    public static final String CONF_SESSIONS = "sessions";
+    /**
+     * The maximum number of logged in Cumulus sessions.
+     * Default is {@link #CONF_CATALOG_THREADS} * {@link #CONF_PARTITIONS_COUNT}.
+     */
+    public static final String CONF_SESSIONS_SIZE = "size";
+    /** Sessions idle for more than this number of seconds are replaced by a new login before use. */
+    public static final String CONF_SESSIONS_MAXIDLE = "maxidle";
+    public static final int DEFAULT_SESSIONS_MAXIDLE = 1800;
+    /** The number of times a failed Cumulus request is retried with a new login. */
+    public static final String CONF_SESSIONS_RETRIES = "retries";
+    public static final int DEFAULT_SESSIONS_RETRIES = 1;
 
     /**
      * The name of the conversion setup used by {@link dk.kb.ds.cumulus.export.converters.ConverterFactory}.
@@ -89,6 +339,27 @@ public class Configuration {
     private final String outputFile;
     private final String collection;
     private final String type;
+    private final int threads;
+    private final int queueSize;
+    private final int readAhead;
+    private final boolean ordered;
+    private final int catalogThreads;
+    private final boolean sharedCatalogOutput;
+    private final YAML deltaConf;
+    private final List<CumulusQueries.Condition> queryConditions;
+    private final YAML shardConf;
+    private final YAML compressionConf;
+    private final YAML solrConf;
+    private final YAML ioConf;
+    private final YAML sessionsConf;
+    private final YAML partitionsConf;
+    private final YAML snapshotConf;
+    private final YAML urlVerifyConf;
+    private final AsyncFileOutputStream.FsyncPolicy fsyncPolicy;
+    private final boolean compressed;
+    private final int checkpointInterval;
+    private final OutputFormat format;
+
     /**
      * Loads the DS Cumulus Export YAML configuration file from classpath or user home.
      * @throws IOException is the configuration could not be located or retrieved.
@@ -99,9 +370,99 @@ public class Configuration {
         this.cumulusConf = loadCumulusConfiguration(confMap.getSubMap(CONF_CUMULUS));
 
         this.collection = getString(confMap, CONF_CUMULUS_COLLECTION);
-        this.outputFile = getString(confMap, CONF_OUTPUT_FILE);
+        this.solrConf = confMap.containsKey(CONF_SOLR) ? confMap.getSubMap(CONF_SOLR) : new YAML(Map.of());
+        this.compressionConf = confMap.containsKey(CONF_COMPRESSION) ?
+            confMap.getSubMap(CONF_COMPRESSION) : new YAML(Map.of());
+        final String plainOutputFile = getString(confMap, CONF_OUTPUT_FILE);
+        this.compressed = compressionConf.getBoolean(
+            CONF_COMPRESSION_ENABLED, plainOutputFile.endsWith(COMPRESSED_EXTENSION));
+        this.outputFile = compressed && !plainOutputFile.endsWith(COMPRESSED_EXTENSION) ?
+            plainOutputFile + COMPRESSED_EXTENSION :
+            plainOutputFile;
+        final Integer level = compressionConf.getInteger(CONF_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+        ArgumentCheck.checkTrue(level != null && level >= 1 && level <= 9,
+                                "The configuration element '" + CONF_COMPRESSION + "." + CONF_COMPRESSION_LEVEL +
+                                "' must be from 1 to 9");
+        this.ioConf = confMap.containsKey(CONF_IO) ? confMap.getSubMap(CONF_IO) : new YAML(Map.of());
+        final Integer buffers = ioConf.getInteger(CONF_IO_BUFFERS, DEFAULT_IO_BUFFERS);
+        ArgumentCheck.checkTrue(buffers != null && buffers >= 2,
+                                "The configuration element '" + CONF_IO + "." + CONF_IO_BUFFERS +
+                                "' must be at least 2");
+        try {
+            this.fsyncPolicy = AsyncFileOutputStream.FsyncPolicy.fromName(
+                ioConf.getString(CONF_IO_FSYNC, DEFAULT_IO_FSYNC));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "The configuration element '" + CONF_IO + "." + CONF_IO_FSYNC + "' must be one of " +
+                Arrays.toString(AsyncFileOutputStream.FsyncPolicy.values()), e);
+        }
+        this.snapshotConf = confMap.containsKey(CONF_SNAPSHOT) ?
+            confMap.getSubMap(CONF_SNAPSHOT) : new YAML(Map.of());
+        ArgumentCheck.checkTrue(!(snapshotConf.containsKey(CONF_SNAPSHOT_WRITE) &&
+                                  snapshotConf.containsKey(CONF_SNAPSHOT_READ)),
+                                "The configuration elements '" + CONF_SNAPSHOT + "." + CONF_SNAPSHOT_WRITE +
+                                "' and '" + CONF_SNAPSHOT + "." + CONF_SNAPSHOT_READ + "' cannot both be defined");
+        final String source = confMap.getString(CONF_SOURCE, null);
+        ArgumentCheck.checkTrue(source == null || RecordSource.CUMULUS.equals(source) ||
+                                RecordSource.SNAPSHOT.equals(source) || RecordSource.SYNTHETIC.equals(source),
+                                "The configuration element '" + CONF_SOURCE + "' must be '" + RecordSource.CUMULUS +
+                                "', '" + RecordSource.SNAPSHOT + "' or '" + RecordSource.SYNTHETIC + "'");
+        ArgumentCheck.checkTrue(!RecordSource.SNAPSHOT.equals(source) || snapshotConf.containsKey(CONF_SNAPSHOT_READ),
+                                "The configuration element '" + CONF_SNAPSHOT + "." + CONF_SNAPSHOT_READ +
+                                "' must be defined when '" + CONF_SOURCE + "' is '" + RecordSource.SNAPSHOT + "'");
+        this.urlVerifyConf = confMap.containsKey(CONF_URLVERIFY) ?
+            confMap.getSubMap(CONF_URLVERIFY) : new YAML(Map.of());
+        for (String element: new String[]{CONF_URLVERIFY_HEDGE_DELAY, CONF_URLVERIFY_BREAKER_FAILURES}) {
+            final Integer value = urlVerifyConf.getInteger(element, 0);
+            ArgumentCheck.checkTrue(value != null && value >= 0,
+                                    "The configuration element '" + CONF_URLVERIFY + "." + element +
+                                    "' must be 0 or more");
+        }
+        this.partitionsConf = confMap.containsKey(CONF_PARTITIONS) ?
+            confMap.getSubMap(CONF_PARTITIONS) : new YAML(Map.of());
+        this.sessionsConf = confMap.containsKey(CONF_SESSIONS) ?
+            confMap.getSubMap(CONF_SESSIONS) : new YAML(Map.of());
+        final Integer retries = sessionsConf.getInteger(CONF_SESSIONS_RETRIES, DEFAULT_SESSIONS_RETRIES);
+        ArgumentCheck.checkTrue(retries != null && retries >= 0,
+                                "The configuration element '" + CONF_SESSIONS + "." + CONF_SESSIONS_RETRIES +
+                                "' must not be negative");
         this.type = getString(confMap, CONF_TYPE);
         this.maxRecords = getString(confMap, MAXRECORDS);
+        this.threads = getPositiveInteger(confMap, CONF_THREADS, DEFAULT_THREADS);
+        this.queueSize = getPositiveInteger(confMap, CONF_QUEUE_SIZE, 4 * threads);
+        final Integer readAhead = confMap.getInteger(CONF_READ_AHEAD, queueSize);
+        ArgumentCheck.checkTrue(readAhead != null && readAhead >= 0,
+                                "The configuration element '" + CONF_READ_AHEAD + "' must not be negative");
+        this.readAhead = readAhead;
+        this.ordered = confMap.getBoolean(CONF_ORDERED, DEFAULT_ORDERED);
+        this.catalogThreads = getPositiveInteger(confMap, CONF_CATALOG_THREADS, DEFAULT_CATALOG_THREADS);
+        final String catalogOutput = confMap.getString(CONF_CATALOG_OUTPUT, DEFAULT_CATALOG_OUTPUT);
+        ArgumentCheck.checkTrue(CATALOG_OUTPUT_SHARED.equals(catalogOutput) ||
+                                CATALOG_OUTPUT_SEPARATE.equals(catalogOutput),
+                                "The configuration element '" + CONF_CATALOG_OUTPUT + "' must be '" +
+                                CATALOG_OUTPUT_SHARED + "' or '" + CATALOG_OUTPUT_SEPARATE + "'");
+        this.sharedCatalogOutput = CATALOG_OUTPUT_SHARED.equals(catalogOutput);
+        this.format = OutputFormat.fromName(confMap.getString(CONF_FORMAT, DEFAULT_FORMAT));
+        final Integer checkpoint = confMap.getInteger(CONF_CHECKPOINT, DEFAULT_CHECKPOINT);
+        ArgumentCheck.checkTrue(checkpoint != null && checkpoint >= 0,
+                                "The configuration element '" + CONF_CHECKPOINT + "' must be 0 or a positive integer");
+        this.checkpointInterval = checkpoint;
+        this.queryConditions = loadQueryConditions(
+            confMap.containsKey(CONF_QUERY) ? confMap.getSubMap(CONF_QUERY) : new YAML(Map.of()));
+        this.deltaConf = confMap.containsKey(CONF_DELTA) ? confMap.getSubMap(CONF_DELTA) : new YAML(Map.of());
+        this.shardConf = confMap.containsKey(CONF_SHARD) ? confMap.getSubMap(CONF_SHARD) : new YAML(Map.of());
+        for (String limit: new String[]{CONF_SHARD_DOCUMENTS, CONF_SHARD_MEGABYTES}) {
+            final Integer value = shardConf.getInteger(limit, 0);
+            ArgumentCheck.checkTrue(value != null && value >= 0,
+                                    "The configuration element '" + CONF_SHARD + "." + limit + "' must be 0 or more");
+        }
+    }
+
+    private int getPositiveInteger(YAML map, String confElement, int defaultValue) {
+        Integer value = map.getInteger(confElement, defaultValue);
+        ArgumentCheck.checkTrue(value != null && value > 0,
+                                "The configuration element '" + confElement + "' must be a positive integer");
+        return value;
     }
 
     private String getString(YAML map, String confElement) {
@@ -132,6 +493,432 @@ public class Configuration {
             throw new Exception(m, e);
         }
     }
+
+    /**
+     * @return the number of threads to use for converting records.
+     */
+    public static int getThreads() {
+        return instance().threads;
+    }
+
+    /**
+     * @return the maximum number of records being converted or waiting to be written.
+     */
+    public static int getQueueSize() {
+        return instance().queueSize;
+    }
+
+    /**
+     * @return the number of records to read ahead of the conversion. 0 means no read-ahead.
+     */
+    public static int getReadAhead() {
+        return instance().readAhead;
+    }
+
+    /**
+     * @return true if the documents must be written in the order the records are read.
+     */
+    public static boolean isOrdered() {
+        return instance().ordered;
+    }
+
+    /**
+     * @return the maximum number of catalogs to export at the same time.
+     */
+    public static int getCatalogThreads() {
+        return instance().catalogThreads;
+    }
+
+    /**
+     * @return true if all catalogs are written to {@link #getOutputFile()}, false if each catalog has its own file.
+     */
+    public static boolean isSharedCatalogOutput() {
+        return instance().sharedCatalogOutput;
+    }
+
+    /**
+     * @return the number of handled records between storing checkpoints. 0 means no checkpoints.
+     */
+    public static int getCheckpointInterval() {
+        return instance().checkpointInterval;
+    }
+
+    /**
+     * @return true if only records modified since the last successful export should be exported.
+     */
+    public static boolean isDeltaEnabled() {
+        return instance().deltaConf.getBoolean(CONF_DELTA_ENABLED, DEFAULT_DELTA_ENABLED);
+    }
+
+    /**
+     * @return the file holding the watermarks for delta export.
+     */
+    public static Path getDeltaStateFile() {
+        return Path.of(instance().deltaConf.getString(CONF_DELTA_STATE_FILE, getOutputFile() + ".delta"));
+    }
+
+    /**
+     * @return the conditions restricting the records requested from Cumulus for each catalog. Empty if all records
+     *         in the catalogs should be requested.
+     */
+    public static List<CumulusQueries.Condition> getQueryConditions() {
+        return instance().queryConditions;
+    }
+
+    /**
+     * @return the file logging records that failed conversion.
+     */
+    public static Path getRejectFile() {
+        return Path.of(instance().confMap.getString(CONF_REJECT_FILE, getOutputFile() + ".rejects"));
+    }
+
+    /**
+     * @return the Cumulus date field used for selecting modified records.
+     */
+    public static String getDeltaField() {
+        return instance().deltaConf.getString(CONF_DELTA_FIELD, DEFAULT_DELTA_FIELD);
+    }
+
+    /**
+     * @return the time subtracted from the start of an export when storing it as watermark.
+     */
+    public static Duration getDeltaOverlap() {
+        return Duration.ofSeconds(instance().getPositiveInteger(
+            instance().deltaConf, CONF_DELTA_OVERLAP, DEFAULT_DELTA_OVERLAP));
+    }
+
+    /**
+     * @return true if the output should be split into multiple files.
+     */
+    public static boolean isSharded() {
+        return getShardDocuments() > 0 || getShardBytes() > 0;
+    }
+
+    /**
+     * @return the maximum number of documents in a shard, 0 meaning no limit.
+     */
+    public static long getShardDocuments() {
+        return instance().shardConf.getInteger(CONF_SHARD_DOCUMENTS, DEFAULT_SHARD_DOCUMENTS);
+    }
+
+    /**
+     * @return the approximate maximum number of bytes in a shard, 0 meaning no limit.
+     */
+    public static long getShardBytes() {
+        return instance().shardConf.getInteger(CONF_SHARD_MEGABYTES, DEFAULT_SHARD_MEGABYTES) * 1024L * 1024L;
+    }
+
+    /**
+     * @return the number of shards written in parallel.
+     */
+    public static int getShardWriters() {
+        return instance().getPositiveInteger(instance().shardConf, CONF_SHARD_WRITERS, DEFAULT_SHARD_WRITERS);
+    }
+
+    /**
+     * @return the format of the output.
+     */
+    public static OutputFormat getFormat() {
+        return instance().format;
+    }
+
+    /**
+     * @return the Solr update handler to send documents to, or null if documents should be written to file.
+     */
+    public static URI getSolrURL() {
+        final String url = instance().solrConf.getString(CONF_SOLR_URL, null);
+        return url == null || url.isBlank() ? null : URI.create(url);
+    }
+
+    /**
+     * @return the maximum number of documents in a single request to Solr.
+     */
+    public static int getSolrBatchDocuments() {
+        return instance().getPositiveInteger(
+            instance().solrConf, CONF_SOLR_BATCH_DOCUMENTS, DEFAULT_SOLR_BATCH_DOCUMENTS);
+    }
+
+    /**
+     * @return the approximate maximum number of bytes in a single request to Solr.
+     */
+    public static long getSolrBatchBytes() {
+        return instance().getPositiveInteger(
+            instance().solrConf, CONF_SOLR_BATCH_MEGABYTES, DEFAULT_SOLR_BATCH_MEGABYTES) * 1024L * 1024L;
+    }
+
+    /**
+     * @return the maximum number of requests being processed by Solr at any time.
+     */
+    public static int getSolrInFlight() {
+        return instance().getPositiveInteger(instance().solrConf, CONF_SOLR_IN_FLIGHT, DEFAULT_SOLR_IN_FLIGHT);
+    }
+
+    /**
+     * @return true if a commit should be sent to Solr when all documents has been sent.
+     */
+    public static boolean isSolrCommit() {
+        return instance().solrConf.getBoolean(CONF_SOLR_COMMIT, DEFAULT_SOLR_COMMIT);
+    }
+
+    /**
+     * @return the maximum time to wait for Solr to process a single request.
+     */
+    public static Duration getSolrTimeout() {
+        return Duration.ofSeconds(
+            instance().getPositiveInteger(instance().solrConf, CONF_SOLR_TIMEOUT, DEFAULT_SOLR_TIMEOUT));
+    }
+
+    /**
+     * @return true if the output should be gzip compressed.
+     */
+    public static boolean isCompressed() {
+        return instance().compressed;
+    }
+
+    /**
+     * @return the number of threads used for compression.
+     */
+    public static int getCompressionThreads() {
+        return instance().getPositiveInteger(
+            instance().compressionConf, CONF_COMPRESSION_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the number of bytes compressed independently by each compression thread.
+     */
+    public static int getCompressionBlockSize() {
+        return instance().getPositiveInteger(
+            instance().compressionConf, CONF_COMPRESSION_BLOCKSIZE, DEFAULT_COMPRESSION_BLOCKSIZE) * 1024;
+    }
+
+    /**
+     * @return the compression level from 1 (fastest) to 9 (best).
+     */
+    public static int getCompressionLevel() {
+        return instance().compressionConf.getInteger(CONF_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * @return true if output files should be written by a dedicated I/O thread.
+     */
+    public static boolean isAsyncIO() {
+        return instance().ioConf.getBoolean(CONF_IO_ASYNC, DEFAULT_IO_ASYNC);
+    }
+
+    /**
+     * @return the number of buffers used by the I/O thread.
+     */
+    public static int getIOBuffers() {
+        return instance().ioConf.getInteger(CONF_IO_BUFFERS, DEFAULT_IO_BUFFERS);
+    }
+
+    /**
+     * @return the size of each buffer used by the I/O thread, in bytes.
+     */
+    public static int getIOBufferSize() {
+        return instance().getPositiveInteger(instance().ioConf, CONF_IO_BUFFERSIZE, DEFAULT_IO_BUFFERSIZE) * 1024;
+    }
+
+    /**
+     * @return when to force output to the storage device.
+     */
+    public static AsyncFileOutputStream.FsyncPolicy getFsyncPolicy() {
+        return instance().fsyncPolicy;
+    }
+
+    /**
+     * @return the file to save the raw field values of exported records to, or null if no snapshot is written.
+     */
+    public static Path getSnapshotWriteFile() {
+        final String file = instance().snapshotConf.getString(CONF_SNAPSHOT_WRITE, null);
+        return file == null ? null : Path.of(file);
+    }
+
+    /**
+     * @return the snapshot to read records from instead of Cumulus, or null if records are requested from Cumulus.
+     */
+    public static Path getSnapshotReadFile() {
+        final String file = instance().snapshotConf.getString(CONF_SNAPSHOT_READ, null);
+        return file == null ? null : Path.of(file);
+    }
+
+    /**
+     * @return the maximum number of URL verification requests in flight.
+     */
+    public static int getURLVerifyConcurrency() {
+        return instance().getPositiveInteger(instance().urlVerifyConf, CONF_URLVERIFY_CONCURRENCY,
+                                             DEFAULT_URLVERIFY_CONCURRENCY);
+    }
+
+    /**
+     * @return the file for caching URL verifications across runs, or null if verifications are not cached.
+     */
+    public static Path getURLCacheFile() {
+        final String file = instance().urlVerifyConf.getString(CONF_URLVERIFY_CACHE, null);
+        return file == null ? null : Path.of(file);
+    }
+
+    /**
+     * @return how long a passed URL verification is reused from the cache.
+     */
+    public static Duration getURLCachePositiveTTL() {
+        return Duration.ofHours(instance().getPositiveInteger(
+            instance().urlVerifyConf, CONF_URLVERIFY_POSITIVE_TTL, DEFAULT_URLVERIFY_POSITIVE_TTL));
+    }
+
+    /**
+     * @return how long a failed URL verification is reused from the cache.
+     */
+    public static Duration getURLCacheNegativeTTL() {
+        return Duration.ofHours(instance().getPositiveInteger(
+            instance().urlVerifyConf, CONF_URLVERIFY_NEGATIVE_TTL, DEFAULT_URLVERIFY_NEGATIVE_TTL));
+    }
+
+    /**
+     * @return how long to wait for a connection when verifying a URL.
+     */
+    public static Duration getURLVerifyConnectTimeout() {
+        return Duration.ofMillis(instance().getPositiveInteger(
+            instance().urlVerifyConf, CONF_URLVERIFY_CONNECT_TIMEOUT, DEFAULT_URLVERIFY_CONNECT_TIMEOUT));
+    }
+
+    /**
+     * @return how long to wait for the response to a URL verification request.
+     */
+    public static Duration getURLVerifyTimeout() {
+        return Duration.ofMillis(instance().getPositiveInteger(
+            instance().urlVerifyConf, CONF_URLVERIFY_TIMEOUT, DEFAULT_URLVERIFY_TIMEOUT));
+    }
+
+    /**
+     * @return how long to wait before sending a hedged request for a URL, or null if hedging is disabled.
+     */
+    public static Duration getURLVerifyHedgeDelay() {
+        final int delay = instance().urlVerifyConf.getInteger(
+            CONF_URLVERIFY_HEDGE_DELAY, DEFAULT_URLVERIFY_HEDGE_DELAY);
+        return delay == 0 ? null : Duration.ofMillis(delay);
+    }
+
+    /**
+     * @return the number of consecutive failures before the circuit breaker for a host opens. 0 means disabled.
+     */
+    public static int getURLVerifyBreakerFailures() {
+        return instance().urlVerifyConf.getInteger(
+            CONF_URLVERIFY_BREAKER_FAILURES, DEFAULT_URLVERIFY_BREAKER_FAILURES);
+    }
+
+    /**
+     * @return how long an open circuit breaker waits before trying the host again.
+     */
+    public static Duration getURLVerifyBreakerPause() {
+        return Duration.ofSeconds(instance().getPositiveInteger(
+            instance().urlVerifyConf, CONF_URLVERIFY_BREAKER_PAUSE, DEFAULT_URLVERIFY_BREAKER_PAUSE));
+    }
+
+    /**
+     * @return where records come from: {@link RecordSource#CUMULUS}, {@link RecordSource#SNAPSHOT} or
+     *         {@link RecordSource#SYNTHETIC}.
+     */
+    public static String getSource() {
+        return instance().confMap.getString(
+            CONF_SOURCE, getSnapshotReadFile() == null ? RecordSource.CUMULUS : RecordSource.SNAPSHOT);
+    }
+
+    /**
+     * @return the setup for generated records. Empty if not defined.
+     */
+    public static YAML getSyntheticConf() {
+        return instance().confMap.containsKey(CONF_SYNTHETIC) ?
+            instance().confMap.getSubMap(CONF_SYNTHETIC) : new YAML(Map.of());
+    }
+
+    /**
+     * @return the number of partitions per catalog. 1 means no partitioning.
+     */
+    public static int getPartitions() {
+        return instance().getPositiveInteger(instance().partitionsConf, CONF_PARTITIONS_COUNT,
+                                             DEFAULT_PARTITIONS_COUNT);
+    }
+
+    /**
+     * @return the numeric Cumulus field used for partitioning.
+     */
+    public static String getPartitionField() {
+        return instance().partitionsConf.getString(CONF_PARTITIONS_FIELD, DEFAULT_PARTITIONS_FIELD);
+    }
+
+    /**
+     * @return the maximum number of logged in Cumulus sessions.
+     */
+    public static int getSessionPoolSize() {
+        return instance().getPositiveInteger(
+            instance().sessionsConf, CONF_SESSIONS_SIZE, getCatalogThreads() * getPartitions());
+    }
+
+    /**
+     * @return the time after which an idle Cumulus session is replaced by a new login.
+     */
+    public static Duration getSessionMaxIdle() {
+        return Duration.ofSeconds(instance().getPositiveInteger(
+            instance().sessionsConf, CONF_SESSIONS_MAXIDLE, DEFAULT_SESSIONS_MAXIDLE));
+    }
+
+    /**
+     * @return the number of times a failed Cumulus request is retried with a new login.
+     */
+    public static int getSessionRetries() {
+        return instance().sessionsConf.getInteger(CONF_SESSIONS_RETRIES, DEFAULT_SESSIONS_RETRIES);
+    }
+
+    /**
+     * Resolves the query preset and conditions.
+     * @param queryConf the {@link #CONF_QUERY} element.
+     * @return the conditions from the preset followed by the explicit conditions.
+     * @throws IllegalArgumentException if the preset is unknown, a preset name is not valid or a condition is not
+     *                                  valid.
+     */
+    static List<CumulusQueries.Condition> loadQueryConditions(YAML queryConf) {
+        final String preset = queryConf.getString(CONF_QUERY_PRESET, CumulusQueries.PRESET_ALL);
+        final YAML presets = queryConf.getSubMap(CONF_QUERY_PRESETS);
+        // Presets are looked up by YAML path, where dots separate the elements
+        ArgumentCheck.checkTrue(!preset.contains("."),
+                                "The query preset name '" + preset + "' must not contain dots");
+        if (presets != null) {
+            for (String name: presets.keySet()) {
+                ArgumentCheck.checkTrue(!name.contains("."),
+                                        "The query preset name '" + name + "' in '" + CONF_QUERY + "." +
+                                        CONF_QUERY_PRESETS + "' must not contain dots");
+                ArgumentCheck.checkTrue(!CumulusQueries.PRESET_ALL.equals(name),
+                                        "The query preset name '" + name + "' in '" + CONF_QUERY + "." +
+                                        CONF_QUERY_PRESETS + "' is reserved for the preset without conditions");
+            }
+        }
+        final List<CumulusQueries.Condition> conditions = new ArrayList<>();
+        if (!CumulusQueries.PRESET_ALL.equals(preset)) {
+            ArgumentCheck.checkTrue(presets != null && presets.getYAMLList(preset) != null,
+                                    "The query preset '" + preset + "' is not defined in '" + CONF_QUERY + "." +
+                                    CONF_QUERY_PRESETS + "'. Available presets are " +
+                                    (presets == null ? "[]" : presets.keySet()) + " and " +
+                                    CumulusQueries.PRESET_ALL);
+            presets.getYAMLList(preset).forEach(condition -> conditions.add(toCondition(condition)));
+        }
+        if (queryConf.containsKey(CONF_QUERY_CONDITIONS)) {
+            queryConf.getYAMLList(CONF_QUERY_CONDITIONS).forEach(condition -> conditions.add(toCondition(condition)));
+        }
+        if (!conditions.isEmpty()) {
+            log.info("Cumulus queries will have the conditions {} from preset '{}'", conditions, preset);
+        }
+        return Collections.unmodifiableList(conditions);
+    }
+
+    private static CumulusQueries.Condition toCondition(YAML condition) {
+        return new CumulusQueries.Condition(
+            condition.getString(CONF_CONDITION_COMBINE, DEFAULT_CONDITION_COMBINE),
+            condition.getString(CONF_CONDITION_FIELD),
+            condition.getString(CONF_CONDITION_OPERATOR, DEFAULT_CONDITION_OPERATOR),
+            condition.getString(CONF_CONDITION_VALUE));
+    }
+
     /**
      * @return the underlying map holding the configuration.
      */
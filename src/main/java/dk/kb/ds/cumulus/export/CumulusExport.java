@@ -1,69 +1,667 @@
 package dk.kb.ds.cumulus.export;
 
-import dk.kb.cumulus.CumulusQuery;
-import dk.kb.cumulus.CumulusRecordCollection;
-import dk.kb.cumulus.CumulusServer;
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.converters.URLVerifier;
+import dk.kb.ds.cumulus.export.output.AsyncFileOutputStream;
+import dk.kb.ds.cumulus.export.output.DocumentWriter;
+import dk.kb.ds.cumulus.export.output.OutputFormat;
+import dk.kb.ds.cumulus.export.output.ParallelGzipOutputStream;
+import dk.kb.ds.cumulus.export.output.ShardedDocumentWriter;
+import dk.kb.ds.cumulus.export.output.SolrUpdateWriter;
+import dk.kb.ds.cumulus.export.snapshot.RecordSnapshotWriter;
+import dk.kb.ds.cumulus.export.source.RecordSource;
+import dk.kb.ds.cumulus.export.source.Records;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
-import java.io.File;
+import java.io.Closeable;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.StreamSupport;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 public class CumulusExport {
     // List of valid types
     private static List<String> listOfType = Arrays.asList("image", "moving_image", "sound", "text", "other");
 
     private static final Logger log = LoggerFactory.getLogger(CumulusExport.class);
-    private static final XMLOutputFactory xmlOutput = XMLOutputFactory.newFactory();
 
-    static final String INDENTATION = "    ";
-    static final String NEWLINE = "\n";
+    /** Command line argument for continuing an interrupted export from its checkpoints. */
+    public static final String ARG_RESUME = "--resume";
+    /** Command line argument for exporting only the records in the reject log to a supplementary output. */
+    public static final String ARG_REPLAY = "--replay";
+    /** Inserted before the extension of the output file for the supplementary output of a replay. */
+    static final String REPLAY_SUFFIX = "replay";
+
+    private final RecordSource source;
+    private final FieldMapper fieldMapper;
+    private final DeltaState deltaState;
+    private final boolean resume;
+    private final boolean replay;
+    private RejectLog rejectLog = null;
+    private RecordSnapshotWriter snapshot = null; // Flushed with the checkpoints
+    private Instant runStart = Instant.now();
 
     public static void main(String[] args) throws Exception {
+        final boolean resume = Arrays.asList(args).contains(ARG_RESUME);
+        final boolean replay = Arrays.asList(args).contains(ARG_REPLAY);
+        if (resume && replay) {
+            throw new IllegalArgumentException(ARG_RESUME + " and " + ARG_REPLAY + " cannot be used together");
+        }
+
+        try (RecordSource source = RecordSource.fromConfiguration()) {
+            // collection and type are mandatory fields in the Digisam Solr setup
+            final FieldMapper fieldMapper = new FieldMapper();
+            fieldMapper.putStatic("collection", convertCollectionToSolrFormat(Configuration.getCollection()));
+            fieldMapper.putStatic("type", getConfigurationType());
+
+            new CumulusExport(source, fieldMapper, resume, replay).export(Configuration.getCumulusConf().getCatalogs());
+        } finally {
+            URLVerifier.closeShared();
+        }
+    }
+
+    /**
+     * @param source      delivers the records to export, e.g. from Cumulus.
+     * @param fieldMapper the mapping from Cumulus records to Solr documents.
+     * @param resume      if true, the export continues from the stored checkpoints, if any.
+     * @param replay      if true, only the records in the reject log are exported. See {@link #replay()}.
+     * @throws IOException if delta export is enabled and the delta state could not be loaded.
+     */
+    CumulusExport(RecordSource source, FieldMapper fieldMapper, boolean resume, boolean replay)
+        throws IOException {
+        this.source = source;
+        this.fieldMapper = fieldMapper;
+        this.resume = resume;
+        this.replay = replay;
+        this.deltaState = Configuration.isDeltaEnabled() ? new DeltaState(Configuration.getDeltaStateFile()) : null;
+        if (Configuration.getCheckpointInterval() > 0 && !Configuration.isOrdered()) {
+            log.warn("Checkpoints requires ordered output. Documents will be written in the order they are read");
+        }
+    }
+
+    /**
+     * Exports the given catalogs to the configured output and updates the delta state, if delta export is enabled.
+     * Records that fail conversion are logged to {@link Configuration#getRejectFile()}.
+     * In replay mode, only the records in the reject log are exported and the catalogs are ignored.
+     * If a snapshot file to write is configured, the records are saved to it. Replays do not touch the snapshot, as
+     * the replayed records were saved to it by the export that rejected them. Delta exports do not touch it either,
+     * as the few modified records would replace the full snapshot.
+     * @param catalogs the Cumulus catalogs to export.
+     * @throws Exception if the export of any catalog failed.
+     */
+    void export(List<String> catalogs) throws Exception {
+        final Path writeFile = Configuration.getSnapshotWriteFile();
+        if (replay && writeFile != null) {
+            log.info("Not saving the replayed records to the snapshot {}", writeFile);
+        } else if (deltaState != null && writeFile != null) {
+            log.warn("Not saving records to the snapshot {} as delta export is enabled. Disable delta export to " +
+                     "save a full snapshot", writeFile);
+        }
+        try (RecordSnapshotWriter writer = writeFile == null || replay || deltaState != null ? null :
+                                           new RecordSnapshotWriter(writeFile, resume)) {
+            fieldMapper.setSnapshot(writer);
+            snapshot = writer;
+            if (replay) {
+                replay();
+            } else {
+                exportAll(catalogs);
+            }
+        } finally {
+            fieldMapper.setSnapshot(null);
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Exports the given catalogs to the configured output and updates the delta state, if delta export is enabled.
+     * @param catalogs the Cumulus catalogs to export.
+     * @throws Exception if the export of any catalog failed.
+     */
+    private void exportAll(List<String> catalogs) throws Exception {
+        try (RejectLog rejects = new RejectLog(Configuration.getRejectFile(), resume)) {
+            rejectLog = rejects;
+            if (Configuration.isSharedCatalogOutput()) {
+                try (Output output = openOutput(Path.of(Configuration.getOutputFile()))) {
+                    exportCatalogs(catalogs, output);
+                    output.finish();
+                    log.info("Wrote " + output.writer.getDocumentCount() + " documents from " + catalogs.size() +
+                             " catalogs to " + output.destination + " as input for solr.");
+                }
+            } else {
+                exportCatalogs(catalogs, null);
+            }
+        }
+
+        // The state is only updated when all output has been successfully written
+        if (deltaState != null && source.isQueryable()) {
+            if (Configuration.getMaxRecords() != -1) {
+                log.warn("Not updating the delta state in {} as maxrecords={} means that the export might not " +
+                         "be complete", deltaState.getStateFile(), Configuration.getMaxRecords());
+                return;
+            }
+            Instant watermark = runStart.minus(Configuration.getDeltaOverlap());
+            catalogs.forEach(catalog -> deltaState.setWatermark(catalog, watermark));
+            deltaState.store();
+        }
+    }
+
+    /**
+     * Exports the given catalogs, with up to {@link Configuration#getCatalogThreads()} catalogs being exported
+     * at the same time.
+     * @param catalogs the Cumulus catalogs to export.
+     * @param output   if not null, all catalogs will be written here. If null, each catalog is written to its
+     *                 own file as given by {@link #getCatalogOutputFile(String, String)}.
+     * @throws Exception if the export of any catalog failed.
+     */
+    private void exportCatalogs(List<String> catalogs, Output output) throws Exception {
+        final int catalogThreads = Math.min(Configuration.getCatalogThreads(), catalogs.size());
+        if (catalogThreads <= 1) {
+            for (String catalog: catalogs) {
+                exportCatalog(catalog, output);
+            }
+            return;
+        }
+
+        log.info("Exporting {} catalogs with up to {} catalogs at a time", catalogs.size(), catalogThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(catalogThreads);
+        try {
+            List<Future<Void>> exports = new ArrayList<>(catalogs.size());
+            for (String catalog: catalogs) {
+                exports.add(executor.submit(() -> {
+                    exportCatalog(catalog, output);
+                    return null;
+                }));
+            }
+            for (Future<Void> export: exports) {
+                try {
+                    export.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests the records in the given catalog, converts them and writes the result.
+     * If delta export is enabled and the catalog has been exported before, only records modified since the last
+     * export are requested.
+     * @param catalog the Cumulus catalog to export.
+     * @param output  if not null, the documents are written here. If null, the documents are written to the
+     *                file given by {@link #getCatalogOutputFile(String, String)}.
+     * @throws Exception if the export failed.
+     */
+    private void exportCatalog(String catalog, Output output) throws Exception {
+        if (output == null) {
+            try (Output catalogOutput = openOutput(
+                Path.of(getCatalogOutputFile(Configuration.getOutputFile(), catalog)))) {
+                exportCatalog(catalog, catalogOutput);
+                catalogOutput.finish();
+                log.info("Wrote " + catalogOutput.writer.getDocumentCount() + " documents to " +
+                         catalogOutput.destination + " as input for solr.");
+            }
+            return;
+        }
+
+        final Checkpoint checkpoint = output.checkpoint;
+        if (checkpoint != null && checkpoint.isDone(catalog)) {
+            log.info("Skipping catalog '{}' as it was fully exported before the export was interrupted", catalog);
+            return;
+        }
+
+        final Integer maxRecords = Configuration.getMaxRecords();
+        final Instant watermark = deltaState == null ? null : deltaState.getWatermark(catalog);
+        final AtomicLong failed = new AtomicLong(0);
+        final long processed;
+        // A resumed export must continue the way it was started, as the positions are stored per partition
+        final boolean partitionable = maxRecords == -1 && source.isQueryable();
+        final boolean resumedPartitioned = checkpoint != null && checkpoint.getBounds(catalog) != null;
+        final boolean resumedUnpartitioned = checkpoint != null && !resumedPartitioned &&
+                                             checkpoint.getPosition(catalog) > 0;
+        if (resumedPartitioned && !partitionable) {
+            throw new IllegalStateException(
+                "The checkpoint for catalog '" + catalog + "' is from a partitioned export, which cannot be " +
+                "resumed with maxrecords=" + maxRecords + " and the " + Configuration.getSource() + " source. " +
+                "Resume with the original configuration or delete the checkpoint and the output");
+        }
+        if (resumedPartitioned || Configuration.getPartitions() > 1 && partitionable && !resumedUnpartitioned) {
+            processed = exportPartitions(catalog, watermark, output, failed);
+        } else {
+            if (resumedUnpartitioned && Configuration.getPartitions() > 1) {
+                log.info("Not partitioning catalog '{}' as the checkpoint is from an export without partitions",
+                         catalog);
+            } else if (Configuration.getPartitions() > 1) {
+                log.info("Not partitioning catalog '{}' as maxrecords={} or the {} source cannot be queried",
+                         catalog, maxRecords, Configuration.getSource());
+            }
+            processed = exportRange(catalog, catalog, List.of(), watermark, maxRecords, output, failed);
+        }
+        if (checkpoint != null) {
+            checkpoint.markDone(catalog, output.writer);
+        }
+        log.info("Finished catalog '{}': Processed {} records, of which {} failed conversion",
+                 catalog, processed, failed.get());
+    }
+
+    /**
+     * Splits the catalog into {@link Configuration#getPartitions()} ranges of record IDs with roughly the same number
+     * of records and exports the ranges concurrently, each with its own Cumulus session. If the output has a
+     * checkpoint, the ranges are stored in it, so that a resumed export uses the same ranges, no matter the current
+     * number of partitions.
+     * @param catalog   the Cumulus catalog to export.
+     * @param watermark if not null, only records modified after this are exported.
+     * @param output    the destination for the documents.
+     * @param failed    incremented for every record that failed conversion.
+     * @return the number of processed records.
+     * @throws Exception if the export of any partition failed.
+     */
+    private long exportPartitions(String catalog, Instant watermark, Output output, AtomicLong failed)
+        throws Exception {
+        final Checkpoint checkpoint = output.checkpoint;
+        final String idField = Configuration.getPartitionField();
+        List<Long> bounds = checkpoint == null ? null : checkpoint.getBounds(catalog);
+        if (bounds == null) {
+            final long startNS = System.nanoTime();
+            bounds = new CatalogPartitioner(idField, range -> {
+                try {
+                    return source.count(catalog, getConditions(range), watermark);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to count records in catalog '" + catalog + "'", e);
+                }
+            }).findBounds(Configuration.getPartitions());
+            log.debug("Partitioned catalog '{}' in {} ms", catalog, (System.nanoTime() - startNS) / 1000000);
+            if (checkpoint != null) {
+                checkpoint.setBounds(catalog, bounds);
+            }
+        } else {
+            log.info("Resuming catalog '{}' with the partitions from the checkpoint", catalog);
+        }
+        final List<CatalogPartitioner.Partition> partitions = CatalogPartitioner.getPartitions(idField, bounds);
+        log.info("Exporting catalog '{}' as {} partitions: {}", catalog, partitions.size(), partitions);
+
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+        try {
+            List<Future<Long>> exports = new ArrayList<>(partitions.size());
+            for (CatalogPartitioner.Partition partition: partitions) {
+                final String key = partition.getKey(catalog);
+                exports.add(executor.submit(() -> {
+                    if (checkpoint != null && checkpoint.isDone(key)) {
+                        log.info("Skipping partition {} of catalog '{}' as it was fully exported before the " +
+                                 "export was interrupted", partition, catalog);
+                        return 0L;
+                    }
+                    final long processed = exportRange(
+                        catalog, key, partition.getConditions(), watermark, -1, output, failed);
+                    if (checkpoint != null) {
+                        checkpoint.markDone(key, output.writer);
+                    }
+                    return processed;
+                }));
+            }
+            long processed = 0;
+            for (Future<Long> export: exports) {
+                try {
+                    processed += export.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+            }
+            return processed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests the records in the catalog matching the range conditions, converts them and writes the result.
+     * @param catalog    the Cumulus catalog to export.
+     * @param key        the key for the position in the checkpoint: The catalog or a partition of it.
+     * @param range      conditions restricting the records, added to the configured conditions.
+     * @param watermark  if not null, only records modified after this are exported.
+     * @param maxRecords the maximum number of records to export. -1 means all.
+     * @param output     the destination for the documents.
+     * @param failed     incremented for every record that failed conversion.
+     * @return the number of processed records.
+     * @throws IOException if the records could not be requested.
+     */
+    private long exportRange(String catalog, String key, List<CumulusQueries.Condition> range, Instant watermark,
+                             int maxRecords, Output output, AtomicLong failed) throws IOException {
+        final long skip = output.checkpoint == null ? 0 : output.checkpoint.getPosition(key);
+        if (skip > 0) {
+            log.info("Resuming '{}' by reading past the {} records handled before the export was interrupted",
+                     key, skip);
+        }
+        log.info("Requesting '{}' from {} source", key, Configuration.getSource());
+        // The records may be bound to resources such as a Cumulus session, so they are kept until converted
+        try (Records records = source.getRecords(catalog, getConditions(range), watermark)) {
+            final Stream<CumulusRecord> limited = records.stream().
+                limit(maxRecords == -1 ? Long.MAX_VALUE : maxRecords); // For testing purposes
+            return convert(
+                catalog, key,
+                skip == 0 ? limited : skipHandled(limited, key, skip, output.checkpoint.getLastHandled(key)),
+                output, failed);
+        }
+    }
 
-        try (CumulusServer server = new CumulusServer(Configuration.getCumulusConf())) {
-            Integer maxRecords = Configuration.getMaxRecords();
-
-            //Select the first Cumulus catalog from the configuration
-            String myCatalog = Configuration.getCumulusConf().getCatalogs().get(0);
-            CumulusQuery query = CumulusQuery.getQueryForAllInCatalog(myCatalog);
-            log.info("Requesting catalog '{}' with query '{}' from server", myCatalog, query);
-            CumulusRecordCollection recordCollection = server.getItems(myCatalog, query);
-
-            // Create output file and stream for XML
-            File outputFile = new File(Configuration.getOutputFile());
-            try (FileOutputStream fos = new FileOutputStream(outputFile)){
-                // Initializing XML
-                XMLStreamWriter xmlWriter = xmlOutput.createXMLStreamWriter(fos, "utf-8");
-                xmlWriter.writeStartDocument("UTF-8", "1.0");
-                xmlWriter.writeCharacters(NEWLINE);
-                xmlWriter.writeStartElement("add");
-                xmlWriter.writeCharacters(NEWLINE);
-
-                // collection and type are mandatory fields in the Digisam Solr setup
-                final FieldMapper fieldMapper = new FieldMapper();
-                fieldMapper.putStatic("collection", convertCollectionToSolrFormat(Configuration.getCollection()));
-                fieldMapper.putStatic("type", getConfigurationType());
-
-                StreamSupport.stream(recordCollection.spliterator(), false).
-                    limit(maxRecords == -1 ? Long.MAX_VALUE : maxRecords). // For testing purposes
-                    map(fieldMapper).                          // Cumulus record -> FieldValues object
-                    filter(Objects::nonNull).                  // Records that failed conversion are propagated as null
-                    forEach(fv -> fv.toXML(xmlWriter));        // Populating XML
-
-                // Ending XML
-                xmlWriter.writeEndDocument(); // add
-                xmlWriter.writeCharacters(NEWLINE);
-                xmlWriter.flush();
-                log.debug("Created " + outputFile + " as input for solr.");
+    /**
+     * Skips the records handled before an interruption. The position is a count of records, so this checks that the
+     * last skipped record is the last handled record, as the source might deliver the records in another order.
+     * @param records     the records, in the order of the interrupted export.
+     * @param key         the key for the position in the checkpoint.
+     * @param skip        the number of handled records.
+     * @param lastHandled the ID of the last handled record or null if it is unknown.
+     * @return the records after the handled ones.
+     * @throws IllegalStateException if the last skipped record is not the last handled one.
+     */
+    static Stream<CumulusRecord> skipHandled(Stream<CumulusRecord> records, String key, long skip,
+                                             String lastHandled) {
+        final AtomicLong seen = new AtomicLong(0);
+        return records.filter(record -> {
+            final long position = seen.incrementAndGet();
+            if (position == skip && lastHandled != null && !lastHandled.equals(record.getUUID())) {
+                throw new IllegalStateException(
+                    "Unable to resume '" + key + "': Record " + position + " is '" + record.getUUID() +
+                    "', but the checkpoint was stored after '" + lastHandled + "'. The records has changed " +
+                    "since the export was interrupted, so resuming would skip or repeat records. " +
+                    "Start a new export instead");
             }
+            return position > skip;
+        });
+    }
+
+    /**
+     * @param range conditions added to the configured conditions.
+     * @return the configured conditions followed by the range conditions.
+     */
+    private static List<CumulusQueries.Condition> getConditions(List<CumulusQueries.Condition> range) {
+        final List<CumulusQueries.Condition> conditions = new ArrayList<>(Configuration.getQueryConditions());
+        conditions.addAll(range);
+        return conditions;
+    }
+
+    /**
+     * Exports the records in the reject log to a supplementary output, as given by
+     * {@link #getReplayOutputFile(String)}. The reject log is renamed with the suffix {@code .replayed} and records
+     * that fail conversion again are logged to a new reject log.
+     * @throws Exception if the export failed.
+     */
+    private void replay() throws Exception {
+        final Path rejectFile = Configuration.getRejectFile();
+        if (!Files.exists(rejectFile)) {
+            throw new IOException("Unable to replay as there is no reject log at " + rejectFile);
         }
+        final Map<String, Set<String>> rejected = RejectLog.load(rejectFile);
+        final Path replayedFile = rejectFile.resolveSibling(rejectFile.getFileName() + ".replayed");
+        Files.move(rejectFile, replayedFile, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Replaying {} rejected records from {} catalogs in {}",
+                 rejected.values().stream().mapToInt(Set::size).sum(), rejected.size(), replayedFile);
+
+        try (RejectLog rejects = new RejectLog(rejectFile, false);
+             Output output = openOutput(Path.of(getReplayOutputFile(Configuration.getOutputFile())))) {
+            rejectLog = rejects;
+            for (Map.Entry<String, Set<String>> entry: rejected.entrySet()) {
+                final String catalog = entry.getKey();
+                final Set<String> guids = entry.getValue();
+                final AtomicLong failed = new AtomicLong(0);
+                final long processed;
+                try (Records records = source.getRecords(catalog, guids)) {
+                    processed = convert(catalog, catalog, records.stream(), output, failed);
+                }
+                final long missing = guids.size() - processed;
+                log.info("Replayed catalog '{}': Processed {} records, of which {} failed conversion again. " +
+                         "{} records were no longer in the catalog", catalog, processed, failed.get(), missing);
+            }
+            output.finish();
+            log.info("Wrote " + output.writer.getDocumentCount() + " replayed documents to " + output.destination +
+                     " as input for solr.");
+        }
+    }
+
+    /**
+     * Converts the records and writes the result to the output. If the output has a checkpoint, it is advanced for
+     * every record. Records that fail conversion are added to the reject log.
+     * @param catalog the Cumulus catalog holding the records.
+     * @param key     the key for the position in the checkpoint: The catalog or a partition of it.
+     * @param records the records to convert.
+     * @param output  the destination for the documents.
+     * @param failed  incremented for every record that failed conversion.
+     * @return the number of processed records.
+     */
+    private long convert(String catalog, String key, Stream<CumulusRecord> records, Output output,
+                         AtomicLong failed) {
+        final Checkpoint checkpoint = output.checkpoint;
+        final FieldMapper.RejectListener rejectListener = (record, converter, cause) ->
+            rejectLog.add(catalog, record.getUUID(), converter.toString(), cause.getMessage());
+
+        // Conversion is done by worker threads, while all XML is written from this thread
+        ParallelProcessor<CumulusRecord, FieldMapper.FieldValues> processor = new ParallelProcessor<>(
+            Configuration.getThreads(), Configuration.getQueueSize(),
+            Configuration.isOrdered() || checkpoint != null); // Checkpoints are positions in read order
+        // The IDs in read order, so that the checkpoint can store the ID of the last handled record
+        final Queue<String> handledIDs = checkpoint == null ? null : new ConcurrentLinkedQueue<>();
+        if (handledIDs != null) {
+            records = records.peek(record -> handledIDs.add(record.getUUID()));
+        }
+        final long startNS = System.nanoTime();
+        final long processed;
+        final int readAheadSize = Configuration.getReadAhead();
+        // Records are fetched by their own thread, so that the round-trips to Cumulus overlap with conversion
+        try (ReadAhead<CumulusRecord> readAhead =
+                 readAheadSize == 0 ? null : new ReadAhead<>(records.iterator(), readAheadSize)) {
+            // A record is finished when its URL verifications complete, without holding a conversion thread
+            processed = processor.processAsync(
+                readAhead == null ? records : readAhead.stream(),
+                record -> fieldMapper.applyAsync(record, catalog, rejectListener), // Cumulus record -> FieldValues
+                fv -> {
+                    // The writer is shared between catalogs, so document and checkpoint position are updated together
+                    synchronized (output.writer) {
+                        if (fv == null) {                      // Records that failed conversion are propagated as null
+                            failed.incrementAndGet();
+                        } else {
+                            output.writer.write(fv);           // Populating XML
+                        }
+                        if (checkpoint != null) {
+                            try {
+                                checkpoint.advance(key, output.writer, handledIDs.poll());
+                            } catch (IOException e) {
+                                throw new UncheckedIOException("Unable to store checkpoint for " + key, e);
+                            }
+                        }
+                    }
+                });
+            final double seconds = (System.nanoTime() - startNS) / 1.0e9;
+            log.info(String.format(
+                Locale.ROOT, "Converted %d records from '%s' in %.1f seconds (%.1f records/second). " +
+                             "Source values for all catalogs so far: %d requested from the records, %d reused",
+                processed, key, seconds, seconds == 0 ? 0.0 : processed / seconds,
+                fieldMapper.getSourceFetches(), fieldMapper.getSourceReuses()));
+            if (readAhead != null) {
+                log.info("Read-ahead for '{}': The converters waited {} times for records, for {} ms in total",
+                         key, readAhead.getWaits(), readAhead.getWaitNanos() / 1000000);
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * Opens the given file for output. If a Solr URL is configured, documents are sent to Solr instead and the file
+     * is ignored. If sharding is enabled, the file is the base for the names of the shards.
+     * If checkpoints are enabled and this is not a replay, a checkpoint is attached. If the export is resumed and a
+     * checkpoint exists for the file, the file is truncated to the last checkpoint and appended to.
+     * @param outputFile the file to write to.
+     * @return the output, ready for use.
+     * @throws IOException if the output could not be opened.
+     */
+    private Output openOutput(Path outputFile) throws IOException {
+        final OutputFormat format = Configuration.getFormat();
+        final int checkpointInterval = replay ? 0 : Configuration.getCheckpointInterval(); // Replays are short
+        if (Configuration.getSolrURL() != null) {
+            if (checkpointInterval > 0) {
+                log.warn("Checkpoints are not supported when sending to Solr. The export cannot be resumed");
+            }
+            return new Output(Configuration.getSolrURL().toString(), new SolrUpdateWriter(
+                Configuration.getSolrURL(), format,
+                Configuration.getSolrBatchDocuments(), Configuration.getSolrBatchBytes(),
+                Configuration.getSolrInFlight(), Configuration.isSolrCommit(), Configuration.getSolrTimeout()), null);
+        }
+        if (Configuration.isSharded()) {
+            if (checkpointInterval > 0) {
+                log.warn("Checkpoints are not supported for sharded output. The export of {} cannot be resumed",
+                         outputFile);
+            }
+            return new Output(outputFile, new ShardedDocumentWriter(
+                outputFile, Configuration.getShardWriters(),
+                Configuration.getShardDocuments(), Configuration.getShardBytes(),
+                shardFile -> format.open(openStream(shardFile), 0)), null);
+        }
+        final boolean resumable = format.isResumable() && !Configuration.isCompressed();
+        if (!resumable && checkpointInterval > 0) {
+            log.warn("Checkpoints are not supported for compressed or {} output. The export of {} cannot be resumed",
+                     format, outputFile);
+        }
+        if (checkpointInterval <= 0 || !resumable) {
+            return new Output(outputFile, format.open(openStream(outputFile), 0), null);
+        }
+
+        Checkpoint checkpoint = new Checkpoint(outputFile, checkpointInterval);
+        checkpoint.setSnapshot(snapshot);
+        if (resume && checkpoint.load()) {
+            final long offset = checkpoint.getOffset();
+            try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+                if (channel.size() < offset) {
+                    throw new IOException(
+                        "The output " + outputFile + " is " + channel.size() + " bytes, which is less than the " +
+                        offset + " bytes stated in the checkpoint. Unable to resume, please restart the export");
+                }
+                channel.truncate(offset);
+            }
+            synchronized (this) {
+                if (checkpoint.getRunStart() != null && checkpoint.getRunStart().isBefore(runStart)) {
+                    runStart = checkpoint.getRunStart();
+                }
+            }
+            log.info("Resuming output {} at offset {}", outputFile, offset);
+            return new Output(outputFile, format.open(openFileStream(outputFile, true), offset), checkpoint);
+        }
+
+        if (resume) {
+            log.info("No checkpoint for {}. Starting from the beginning", outputFile);
+        }
+        checkpoint.delete(); // Any old checkpoint does not match the new output
+        checkpoint.setRunStart(runStart);
+        return new Output(outputFile, format.open(openFileStream(outputFile, false), 0), checkpoint);
+    }
+
+    /**
+     * Opens the given file for writing, with gzip compression if enabled.
+     * @param file the file to write to. Any existing file is overwritten.
+     * @return a stream to the file.
+     * @throws IOException if the file could not be opened.
+     */
+    private static OutputStream openStream(Path file) throws IOException {
+        final OutputStream out = openFileStream(file, false);
+        return Configuration.isCompressed() ?
+            new ParallelGzipOutputStream(out, Configuration.getCompressionThreads(),
+                                         Configuration.getCompressionBlockSize(), Configuration.getCompressionLevel()) :
+            out;
+    }
+
+    /**
+     * Opens the given file for writing, using a dedicated I/O thread if enabled.
+     * @param file   the file to write to.
+     * @param append if true, the existing content of the file is kept, else it is overwritten.
+     * @return a stream to the file.
+     * @throws IOException if the file could not be opened.
+     */
+    private static OutputStream openFileStream(Path file, boolean append) throws IOException {
+        return Configuration.isAsyncIO() ?
+            new AsyncFileOutputStream(file, append, Configuration.getIOBuffers(), Configuration.getIOBufferSize(),
+                                      Configuration.getFsyncPolicy()) :
+            new FileOutputStream(file.toFile(), append);
+    }
+
+    /**
+     * An output file or Solr with its writer and optional checkpoint.
+     */
+    private static class Output implements Closeable {
+        final String destination;
+        final DocumentWriter writer;
+        final Checkpoint checkpoint;
+
+        Output(Path file, DocumentWriter writer, Checkpoint checkpoint) {
+            this(file.toString(), writer, checkpoint);
+        }
+
+        Output(String destination, DocumentWriter writer, Checkpoint checkpoint) {
+            this.destination = destination;
+            this.writer = writer;
+            this.checkpoint = checkpoint;
+        }
+
+        /**
+         * Marks the output as complete by removing the checkpoint. Call this before {@link #close()} when all
+         * documents has been written.
+         */
+        void finish() throws IOException {
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Derives the output file for a single catalog, by inserting the catalog name before the extension.
+     * {@code indexThisInSolr.xml} and catalog {@code Samlingsbilleder} becomes
+     * {@code indexThisInSolr-Samlingsbilleder.xml}.
+     * @param outputFile the general output file.
+     * @param catalog    the Cumulus catalog.
+     * @return the output file for the catalog.
+     */
+    static String getCatalogOutputFile(String outputFile, String catalog) {
+        final String safeCatalog = catalog.replaceAll("[^\\p{L}\\p{N}_-]", "_");
+        final int nameStart = outputFile.lastIndexOf('/') + 1;
+        final int dot = ShardedDocumentWriter.getExtensionStart(outputFile.substring(nameStart));
+        return dot == -1 ?
+            outputFile + "-" + safeCatalog :
+            outputFile.substring(0, nameStart + dot) + "-" + safeCatalog + outputFile.substring(nameStart + dot);
+    }
+
+    /**
+     * Derives the supplementary output file for {@link #ARG_REPLAY}, by inserting {@link #REPLAY_SUFFIX} before
+     * the extension. {@code indexThisInSolr.xml} becomes {@code indexThisInSolr-replay.xml}.
+     * @param outputFile the general output file.
+     * @return the output file for replayed records.
+     */
+    static String getReplayOutputFile(String outputFile) {
+        return getCatalogOutputFile(outputFile, REPLAY_SUFFIX);
     }
 
     // Check for valid type
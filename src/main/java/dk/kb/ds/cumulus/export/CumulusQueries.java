@@ -0,0 +1,171 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import com.canto.cumulus.constants.CombineMode;
+import com.canto.cumulus.constants.FindFlag;
+import dk.kb.cumulus.CumulusQuery;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builders for the {@link CumulusQuery}s used by the exporter, beyond the ones provided by {@link CumulusQuery}.
+ *
+ * Cumulus queries are lines of tab-separated {@code field operator value}, where all lines but the first are
+ * prefixed with {@code and} or {@code or}. The lines are combined strictly left to right, without precedence, so
+ * {@code a or b and c} means {@code (a or b) and c}.
+ *
+ * The records requested for a catalog can be restricted with {@link Condition}s, so that Cumulus does the filtering
+ * instead of the exporter. Named sets of conditions are configured as presets, see {@link Configuration#CONF_QUERY}.
+ */
+public class CumulusQueries {
+    /** The Cumulus field holding the catalog name. */
+    public static final String CATALOG_NAME_FIELD = "Catalog Name";
+    /** The Cumulus field holding the unique id of a record. */
+    public static final String GUID_FIELD = "GUID";
+
+    /** Dates in queries are stated in the time zone of the Cumulus server. */
+    private static final DateTimeFormatter QUERY_DATE_FORMATTER = DateTimeFormatter.
+        ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT).
+        withZone(ZoneId.of("Europe/Copenhagen"));
+
+    /** The preset without conditions, matching all records in the catalog. */
+    public static final String PRESET_ALL = "all";
+
+    /**
+     * Creates a query for the records in the catalog matching the conditions.
+     * The catalog condition is placed after the conditions, so that it applies to all of them: The conditions
+     * {@code a or b} gives the query {@code (a or b) and catalog}.
+     * @param catalog    the Cumulus catalog.
+     * @param conditions the conditions for the records, combined left to right. The combine of the first
+     *                   condition is ignored.
+     * @return a query for the matching records in the catalog.
+     */
+    public static CumulusQuery getQueryForCatalog(String catalog, List<Condition> conditions) {
+        final StringBuilder query = new StringBuilder();
+        for (Condition condition: conditions) {
+            query.append(query.length() == 0 ?
+                             String.join("\t", condition.field, condition.operator, condition.value) :
+                             "\n" + condition);
+        }
+        final String catalogCondition = String.join("\t", CATALOG_NAME_FIELD, "is", catalog);
+        query.append(query.length() == 0 ? catalogCondition : "\n" + Condition.AND + "\t" + catalogCondition);
+        return createQuery(query.toString());
+    }
+
+    /**
+     * Creates a query for all records in the catalog where the date in the given field is after the given point
+     * in time.
+     * @param catalog   the Cumulus catalog.
+     * @param dateField a date field in Cumulus, such as {@code Record Modification Date}.
+     * @param since     only records with a value in dateField after this are matched.
+     * @return a query for records in catalog modified after since.
+     */
+    public static CumulusQuery getQueryForModifiedSince(String catalog, String dateField, Instant since) {
+        return getQueryForModifiedSince(catalog, List.of(), dateField, since);
+    }
+
+    /**
+     * Creates a query for the records in the catalog matching the conditions, where the date in the given field is
+     * after the given point in time.
+     * @param catalog    the Cumulus catalog.
+     * @param conditions the conditions for the records, combined left to right. The date condition is combined
+     *                   with the result using {@code and}.
+     * @param dateField  a date field in Cumulus, such as {@code Record Modification Date}.
+     * @param since      only records with a value in dateField after this are matched.
+     * @return a query for matching records in catalog modified after since.
+     */
+    public static CumulusQuery getQueryForModifiedSince(
+        String catalog, List<Condition> conditions, String dateField, Instant since) {
+        final List<Condition> all = new ArrayList<>(conditions);
+        all.add(new Condition(Condition.AND, dateField, "is after", QUERY_DATE_FORMATTER.format(since)));
+        return getQueryForCatalog(catalog, all);
+    }
+
+    /**
+     * Creates a query for a single record in the catalog.
+     * @param catalog the Cumulus catalog.
+     * @param guid    the GUID of the record, as given by {@link dk.kb.cumulus.CumulusRecord#getUUID()}.
+     * @return a query for the record with the given GUID.
+     */
+    public static CumulusQuery getQueryForGUID(String catalog, String guid) {
+        return createQuery(
+            String.join("\t", CATALOG_NAME_FIELD, "is", catalog) + "\n" +
+            String.join("\t", "and", GUID_FIELD, "is", guid));
+    }
+
+    /**
+     * Wraps the given query string with the same find flags and combine mode as
+     * {@link CumulusQuery#getQueryForAllInCatalog(String)}.
+     * @param query a Cumulus query string.
+     * @return a query ready for use with {@link dk.kb.cumulus.CumulusServer#getItems}.
+     */
+    public static CumulusQuery createQuery(String query) {
+        return new CumulusQuery(
+            query,
+            EnumSet.of(FindFlag.FIND_MISSING_FIELDS_ARE_ERROR, FindFlag.FIND_MISSING_STRING_LIST_VALUES_ARE_ERROR),
+            CombineMode.FIND_NEW);
+    }
+
+    /**
+     * A single line in a Cumulus query, such as {@code and Publiceret is true}.
+     */
+    public static class Condition {
+        public static final String AND = "and";
+        public static final String OR = "or";
+
+        public final String combine;
+        public final String field;
+        public final String operator;
+        public final String value;
+
+        /**
+         * @param combine  how the condition is combined with the ones before it: {@link #AND} or {@link #OR}.
+         * @param field    a Cumulus field, such as {@code Categories}.
+         * @param operator a Cumulus operator, such as {@code is}, {@code contains} or {@code is after}.
+         * @param value    the value to compare the content of the field to.
+         * @throws IllegalArgumentException if any of the arguments are missing or combine is not valid.
+         */
+        public Condition(String combine, String field, String operator, String value) {
+            if (!AND.equals(combine) && !OR.equals(combine)) {
+                throw new IllegalArgumentException(
+                    "A condition must be combined with '" + AND + "' or '" + OR + "', but was '" + combine + "'");
+            }
+            if (field == null || field.isEmpty() || operator == null || operator.isEmpty() || value == null) {
+                throw new IllegalArgumentException(
+                    "A condition must have field, operator and value, but had field='" + field + "', operator='" +
+                    operator + "' and value='" + value + "'");
+            }
+            this.combine = combine;
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        /**
+         * @return the condition as a line in a Cumulus query.
+         */
+        @Override
+        public String toString() {
+            return String.join("\t", combine, field, operator, value);
+        }
+    }
+}
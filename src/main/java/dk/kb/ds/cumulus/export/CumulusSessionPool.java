@@ -0,0 +1,261 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import dk.kb.cumulus.CumulusQuery;
+import dk.kb.cumulus.CumulusRecordCollection;
+import dk.kb.cumulus.CumulusServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * A pool of logged in {@link CumulusServer} sessions, so that catalogs can be requested and read concurrently
+ * instead of through a single session.
+ *
+ * Sessions are created when needed, up to the size of the pool. A session that has been idle for longer than
+ * {@code maxIdle} is assumed to have expired and is replaced by a new login when borrowed. If a request fails,
+ * the session is replaced by a new login and the request is retried. A session where the last request or login
+ * failed is closed instead of being returned to the pool, so that a new one is created in its place.
+ *
+ * Records are bound to the session that requested them, so a {@link Session} should be kept until the records
+ * has been read.
+ *
+ * Only the requests are retried: If a session expires while its records are being read, reading fails and the
+ * records must be requested again. Cumulus does not guarantee the order of the records, so there is no position to
+ * continue from. Keep {@code maxIdle} below the session timeout of the server and use partitions to limit how long
+ * a single collection is read.
+ */
+public class CumulusSessionPool implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CumulusSessionPool.class);
+
+    private final int size;
+    private final Supplier<CumulusServer> login;
+    private final Duration maxIdle;
+    private final int retries;
+    private final Deque<Session> idle = new ArrayDeque<>();
+    private int created = 0;
+    private long logins = 0;
+    private boolean closed = false;
+
+    /**
+     * @param size    the maximum number of sessions.
+     * @param login   creates a new logged in session.
+     * @param maxIdle sessions idle for longer than this are replaced by a new login when borrowed.
+     * @param retries the number of times a failed request is retried with a new login.
+     */
+    public CumulusSessionPool(int size, Supplier<CumulusServer> login, Duration maxIdle, int retries) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The pool size must be at least 1, but was " + size);
+        }
+        this.size = size;
+        this.login = login;
+        this.maxIdle = maxIdle;
+        this.retries = retries;
+        log.info("Created pool of up to {} Cumulus sessions with max idle time {} and {} retries",
+                 size, maxIdle, retries);
+    }
+
+    /**
+     * Borrows a session, waiting for one to be released if all sessions are in use.
+     * @return a session, which must be closed to return it to the pool.
+     * @throws InterruptedException if interrupted while waiting for a session.
+     */
+    public Session borrow() throws InterruptedException {
+        Session session;
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("The session pool has been closed");
+                }
+                session = idle.pollFirst();
+                if (session != null || created < size) {
+                    break;
+                }
+                wait();
+            }
+            if (session == null) {
+                created++;
+            }
+        }
+        try {
+            if (session == null) {
+                session = new Session();
+            } else if (session.isExpired()) {
+                log.debug("Replacing Cumulus session idle since {} ms ago", session.getIdleMS());
+                session.relogin();
+            }
+        } catch (RuntimeException e) {
+            discard();
+            throw e;
+        }
+        session.returned = false;
+        return session;
+    }
+
+    /**
+     * @return the number of logins, including re-logins for expired or failed sessions.
+     */
+    public synchronized long getLogins() {
+        return logins;
+    }
+
+    /**
+     * Closes all idle sessions. Borrowed sessions are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        Session session;
+        while ((session = pollIdle()) != null) {
+            session.closeServer();
+        }
+        log.info("Closed Cumulus session pool after {} logins", getLogins());
+    }
+
+    /**
+     * Gives up a session that could not be logged in, so that a new one can be created in its place.
+     */
+    private synchronized void discard() {
+        created--;
+        notifyAll();
+    }
+
+    private synchronized Session pollIdle() {
+        return idle.pollFirst();
+    }
+
+    private synchronized void release(Session session) {
+        if (closed) {
+            session.closeServer();
+            return;
+        }
+        if (session.broken) {
+            log.debug("Closing failed Cumulus session instead of returning it to the pool");
+            session.closeServer();
+            discard();
+            return;
+        }
+        idle.addFirst(session); // Most recently used first, so that surplus sessions expire
+        notifyAll();
+    }
+
+    /**
+     * A borrowed session. Closing it returns it to the pool.
+     */
+    public class Session implements AutoCloseable {
+        private CumulusServer server;
+        private long lastUsed;
+        private boolean returned = false;
+        private boolean broken = false;
+
+        private Session() {
+            this.server = newLogin();
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Requests records from Cumulus. If the request fails, the session is replaced by a new login and the
+         * request is retried.
+         * @param catalog the Cumulus catalog.
+         * @param query   the query for the records.
+         * @return the matching records, which must be read before the session is closed.
+         */
+        public CumulusRecordCollection getItems(String catalog, CumulusQuery query) {
+            for (int attempt = 0 ; ; attempt++) {
+                try {
+                    final CumulusRecordCollection records = server.getItems(catalog, query);
+                    lastUsed = System.currentTimeMillis();
+                    return records;
+                } catch (RuntimeException e) {
+                    if (attempt >= retries) {
+                        broken = true;
+                        throw e;
+                    }
+                    log.warn("Request for catalog '" + catalog + "' failed. Logging in again and retrying", e);
+                    relogin();
+                }
+            }
+        }
+
+        /**
+         * @return the underlying server, for requests not covered by the session.
+         */
+        public CumulusServer getServer() {
+            lastUsed = System.currentTimeMillis();
+            return server;
+        }
+
+        /**
+         * Returns the session to the pool. Closing a session that has already been returned does nothing.
+         */
+        @Override
+        public void close() {
+            synchronized (CumulusSessionPool.this) {
+                if (returned) {
+                    return;
+                }
+                returned = true;
+            }
+            lastUsed = System.currentTimeMillis();
+            release(this);
+        }
+
+        private boolean isExpired() {
+            return getIdleMS() > maxIdle.toMillis();
+        }
+
+        private long getIdleMS() {
+            return System.currentTimeMillis() - lastUsed;
+        }
+
+        /**
+         * Replaces the server with a new login. If the login fails, the session is broken.
+         */
+        private void relogin() {
+            broken = true;
+            closeServer();
+            server = null;
+            server = newLogin();
+            broken = false;
+            lastUsed = System.currentTimeMillis();
+        }
+
+        private void closeServer() {
+            if (server == null) { // A failed re-login
+                return;
+            }
+            try {
+                server.close();
+            } catch (Exception e) {
+                log.debug("Exception closing Cumulus session", e);
+            }
+        }
+
+        private CumulusServer newLogin() {
+            synchronized (CumulusSessionPool.this) {
+                logins++;
+            }
+            return login.get();
+        }
+    }
+}
@@ -14,10 +14,9 @@
  */
 package dk.kb.ds.cumulus.export;
 
-import dk.kb.cumulus.CumulusQuery;
 import dk.kb.cumulus.CumulusRecord;
-import dk.kb.cumulus.CumulusRecordCollection;
-import dk.kb.cumulus.CumulusServer;
+import dk.kb.ds.cumulus.export.source.RecordSource;
+import dk.kb.ds.cumulus.export.source.Records;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,10 +26,10 @@ import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.StreamSupport;
 
 /**
- * Extracts field- and content-statistics from the configured Cumulus collection.
+ * Extracts field- and content-statistics from the configured catalogs, with the records delivered by the configured
+ * {@link RecordSource}: Cumulus, a record snapshot or generated records. See {@link Configuration#CONF_SOURCE}.
  */
 public class CumulusStats {
     private static final Logger log = LoggerFactory.getLogger(CumulusStats.class);
@@ -50,21 +49,32 @@ public class CumulusStats {
         new CumulusStats();
     }
     private CumulusStats() throws Exception {
-        try (CumulusServer server = new CumulusServer(Configuration.getCumulusConf())) {
-            int maxRecords = Configuration.getMaxRecords();
-
-            String myCatalog = Configuration.getCumulusConf().getCatalogs().get(0);
-            CumulusQuery query = CumulusQuery.getQueryForAllInCatalog(myCatalog);
-            log.info("Requesting catalog '{}' with query '{}' from server for statistics", myCatalog, query);
-            CumulusRecordCollection records = server.getItems(myCatalog, query);
-            totalRecords = records.getCount();
+        try (RecordSource source = RecordSource.fromConfiguration()) {
+            final int maxRecords = Configuration.getMaxRecords();
+            final List<String> catalogs = Configuration.getCumulusConf().getCatalogs();
+            final List<CumulusQueries.Condition> conditions = Configuration.getQueryConditions();
+
+            // The catalogs are analyzed one after the other, as the statistics are shared
+            long total = 0;
+            for (String catalog: catalogs) {
+                total += source.count(catalog, conditions, null);
+            }
+            totalRecords = (int) total;
             analyzeRecords = (-1 == maxRecords) ? totalRecords : Math.min(maxRecords, totalRecords);
-            log.info("Got {} records out of which {} will be analyzed. Extracting statistics... ",
-                     totalRecords, analyzeRecords);
+            log.info("Got {} records from {} catalogs from {} source out of which {} will be analyzed. " +
+                     "Extracting statistics... ", totalRecords, catalogs.size(), Configuration.getSource(),
+                     analyzeRecords);
             startNS = System.nanoTime();
-            StreamSupport.stream(records.spliterator(), false).
-                limit(-1 == maxRecords ? Long.MAX_VALUE : maxRecords).
-                forEach(this::collect);
+            for (String catalog: catalogs) {
+                if (recordCounter >= analyzeRecords) {
+                    break;
+                }
+                try (Records records = source.getRecords(catalog, conditions, null)) {
+                    records.stream().
+                        limit(analyzeRecords - recordCounter).
+                        forEach(this::collect);
+                }
+            }
             System.out.println("-------------------------------- Final stats @ record " + recordCounter);
             printStats();
         }
@@ -79,6 +89,13 @@ public class CumulusStats {
     private void collect(CumulusRecord record) {
         recordCounter++;
 
+        if (record instanceof MapRecord) { // Records from a snapshot or generated records have their fields at hand
+            final MapRecord mapRecord = (MapRecord) record;
+            mapRecord.getValues().forEach((field, value) -> collectStat(field, mapRecord.getDataType(field), value));
+            logProgress();
+            return;
+        }
+
         // We really need to bend backwards here to get all the fields.
         // A simple "record.getAllFieldNames()" would help tremendously!
         try (ByteArrayOutputStream recordContent = new ByteArrayOutputStream()) {
@@ -96,6 +113,10 @@ public class CumulusStats {
             log.warn("Exception while processing Cumulus record");
             problematicRecords++;
         }
+        logProgress();
+    }
+
+    private void logProgress() {
         if (recordCounter % LOG_EVERY == 0) {
             double spendMin = (System.nanoTime()-startNS)/1_000_000_000.0/60;
             String recordsPerMin = String.format(Locale.ROOT,"%.1f", recordCounter/spendMin);
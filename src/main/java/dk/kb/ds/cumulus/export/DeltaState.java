@@ -0,0 +1,107 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Properties;
+
+/**
+ * Persistent high-water marks for delta export: For each catalog, the point in time up to which all modified records
+ * has been exported. The state is stored as a properties file with {@code catalog=ISO-8601 instant}.
+ */
+public class DeltaState {
+    private static final Logger log = LoggerFactory.getLogger(DeltaState.class);
+
+    private final Path stateFile;
+    private final Properties watermarks = new Properties();
+
+    /**
+     * Loads the delta state from the given file. If the file does not exist, the state is empty, meaning that all
+     * catalogs will be fully exported.
+     * @param stateFile the file holding the state.
+     * @throws IOException if the file existed but could not be read.
+     */
+    public DeltaState(Path stateFile) throws IOException {
+        this.stateFile = stateFile;
+        if (Files.exists(stateFile)) {
+            try (Reader in = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                watermarks.load(in);
+            }
+            log.info("Loaded delta state for {} catalogs from {}", watermarks.size(), stateFile);
+        } else {
+            log.info("No delta state at {}. All catalogs will be fully exported", stateFile);
+        }
+    }
+
+    /**
+     * @param catalog a Cumulus catalog.
+     * @return the point in time up to which all modified records in the catalog has been exported or null if
+     *         the catalog has not been exported before.
+     */
+    public synchronized Instant getWatermark(String catalog) {
+        final String watermark = watermarks.getProperty(catalog);
+        if (watermark == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(watermark);
+        } catch (DateTimeParseException e) {
+            log.warn("Unable to parse the watermark '{}' for catalog '{}' in {}. The catalog will be fully exported",
+                     watermark, catalog, stateFile);
+            return null;
+        }
+    }
+
+    /**
+     * Sets the watermark for the catalog. Call {@link #store()} to persist the change.
+     * @param catalog   a Cumulus catalog.
+     * @param watermark the point in time up to which all modified records in the catalog has been exported.
+     */
+    public synchronized void setWatermark(String catalog, Instant watermark) {
+        watermarks.setProperty(catalog, watermark.toString());
+    }
+
+    /**
+     * Writes the state to a temporary file, then replaces the state file with it, so that a crash during store
+     * leaves the old state intact.
+     * @throws IOException if the state could not be stored.
+     */
+    public synchronized void store() throws IOException {
+        Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            watermarks.store(out, "Delta export watermarks for ds-cumulus-export");
+        }
+        Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Stored delta state for {} catalogs in {}", watermarks.size(), stateFile);
+    }
+
+    /**
+     * @return the file holding the state.
+     */
+    public Path getStateFile() {
+        return stateFile;
+    }
+}
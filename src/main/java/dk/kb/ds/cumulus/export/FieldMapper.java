@@ -14,24 +14,31 @@
  */
 package dk.kb.ds.cumulus.export;
 
+import com.canto.cumulus.GUID;
+import com.canto.cumulus.fieldvalue.AssetReference;
 import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.converters.CatalogLayout;
+import dk.kb.ds.cumulus.export.converters.ConversionPlan;
 import dk.kb.ds.cumulus.export.converters.Converter;
 import dk.kb.ds.cumulus.export.converters.ConverterFactory;
+import dk.kb.ds.cumulus.export.converters.RecordContext;
+import dk.kb.ds.cumulus.export.snapshot.RecordSnapshotWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
-import static dk.kb.ds.cumulus.export.CumulusExport.INDENTATION;
-import static dk.kb.ds.cumulus.export.CumulusExport.NEWLINE;
-
 /**
  * Extracts selected fields from {@link CumulusRecord}s and provides a list of {@link FieldValue}s with the
  * content of these fields. Depending on setup, the content will be modified during this process.
@@ -39,8 +46,13 @@ import static dk.kb.ds.cumulus.export.CumulusExport.NEWLINE;
 public class FieldMapper implements Function<CumulusRecord, FieldMapper.FieldValues> {
     private static final Logger log = LoggerFactory.getLogger(FieldMapper.class);
 
-    private final Map<String, String> staticFields = new LinkedHashMap<>();
+    private final Map<String, FieldValue> staticFields = new LinkedHashMap<>();
     private final List<Converter> converters;
+    private final ConversionPlan plan;
+    private final Map<String, CatalogLayout> layouts = new ConcurrentHashMap<>();
+    private final LongAdder sourceFetches = new LongAdder();
+    private final LongAdder sourceReuses = new LongAdder();
+    private volatile RecordSnapshotWriter snapshot = null;
 
     /**
      * Loads a {@link ConverterFactory} setup, as specified in the base configuration, and constructs a field mapper.
@@ -54,6 +66,8 @@ public class FieldMapper implements Function<CumulusRecord, FieldMapper.FieldVal
         log.info("Loading conversion setup from resource " + convResource + " with map " + convMap);
         converters = ConverterFactory.build(convResource, convMap);
         log.debug("Loading successful for conversion setup from resource " + convResource + " with map " + convMap);
+        plan = new ConversionPlan(converters);
+        log.info(plan.describe());
     }
 
     /**
@@ -62,7 +76,15 @@ public class FieldMapper implements Function<CumulusRecord, FieldMapper.FieldVal
      * @param value a static value, such as {@code Samlingsbilleder}-
      */
     public void putStatic(String field, String value) {
-       staticFields.put(field, value);
+       staticFields.put(field, new FieldValue(field, value, true));
+    }
+
+    /**
+     * @param snapshot if not null, all records given to {@link #apply} are added to the snapshot before conversion,
+     *                 including the ones that fail conversion. Records read from a snapshot are not added.
+     */
+    public void setSnapshot(RecordSnapshotWriter snapshot) {
+        this.snapshot = snapshot;
     }
 
     /**
@@ -71,48 +93,223 @@ public class FieldMapper implements Function<CumulusRecord, FieldMapper.FieldVal
      * If a record cannot be processed by any reason, processing errors will be logged and null returned.
      * @param record a Cumulus record.
      * @return a list of field-value pairs or null if processing errors occured.
-     * @throws IllegalArgumentException if a combination of input and processing was not valid.
-     * @throws IllegalStateException if a required field was not present in the record.
      */
     @Override
     public FieldValues apply(CumulusRecord record) {
-        FieldValues fieldValues = new FieldValues();
+        return apply(record, null);
+    }
+
+    /**
+     * Applies the configured {@link Converter}s to the given record.
+     * Note: Field-values added with {@link #putStatic(String, String)} will also be added.
+     * If a record cannot be processed by any reason, processing errors will be logged, the rejectListener will be
+     * notified and null returned. Sources are looked up by name for every record.
+     * @param record         a Cumulus record.
+     * @param rejectListener if not null, this is called if the record could not be processed.
+     * @return a list of field-value pairs or null if processing errors occured.
+     */
+    public FieldValues apply(CumulusRecord record, RejectListener rejectListener) {
+        return apply(record, null, rejectListener);
+    }
+
+    /**
+     * Applies the configured {@link Converter}s to the given record from the given catalog.
+     * The first time a catalog is encountered, the sources of the converters are resolved against the layout of the
+     * catalog and unknown sources are logged. If resolving fails, it is retried for the next record. See
+     * {@link CatalogLayout}. {@link MapRecord}s have no layout and their sources are looked up by name.
+     * @param record         a Cumulus record.
+     * @param catalog        the catalog holding the record. If null, sources are looked up by name for every record.
+     * @param rejectListener if not null, this is called if the record could not be processed.
+     * @return a list of field-value pairs or null if processing errors occured.
+     */
+    public FieldValues apply(CumulusRecord record, String catalog, RejectListener rejectListener) {
         try {
-            converters.forEach(c -> c.convert(record, fieldValues));
-        } catch (IllegalArgumentException|IllegalStateException e) {
-            log.warn("Unable to process Cumulus record. Extracted so far: " + fieldValues, e);
-            return null;
+            return applyAsync(record, catalog, rejectListener).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
         }
+    }
+
+    /**
+     * Applies the configured {@link Converter}s to the given record from the given catalog, as
+     * {@link #apply(CumulusRecord, String, RejectListener)}, but does not wait for checks registered by the
+     * converters, such as URL verifications. See {@link RecordContext#addCheck}.
+     * The converters are run in the order of the {@link ConversionPlan}, so costly converters are skipped for records
+     * rejected by cheaper ones. The values are still produced in setup order.
+     * @param record         a Cumulus record.
+     * @param catalog        the catalog holding the record. If null, sources are looked up by name for every record.
+     * @param rejectListener if not null, this is called if the record could not be processed.
+     * @return a future with a list of field-value pairs or null if processing errors occured. The future completes
+     *         when all checks for the record has completed.
+     */
+    public CompletableFuture<FieldValues> applyAsync(
+        CumulusRecord record, String catalog, RejectListener rejectListener) {
+        final boolean offline = record instanceof MapRecord;
+        final CatalogLayout layout = catalog == null || offline ? null : getLayout(catalog, record);
+        final RecordContext context = new RecordContext(record, layout); // Shared lookups for all converters
+        final RecordSnapshotWriter snapshot = this.snapshot;
+        if (snapshot != null && !offline) {
+            try {
+                snapshot.add(catalog, record, getRenditions(context));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to add record " + record.getUUID() + " to snapshot", e);
+            }
+        }
+        // The converters are run in plan order, but their values are kept in setup order
+        final FieldValues[] outputs = new FieldValues[plan.size()];
+        try {
+            for (ConversionPlan.Step step: plan.getSteps()) {
+                outputs[step.position] = new FieldValues();
+                try {
+                    step.converter.convert(context, outputs[step.position]);
+                } catch (IllegalArgumentException|IllegalStateException e) {
+                    reject(record, step.converter, e, merge(outputs), rejectListener);
+                    return CompletableFuture.completedFuture(null);
+                }
+            }
+        } finally {
+            sourceFetches.add(context.getFetches());
+            sourceReuses.add(context.getReuses());
+        }
+        final FieldValues fieldValues = merge(outputs);
+        if (context.getChecks().isEmpty()) {
+            return CompletableFuture.completedFuture(finish(fieldValues));
+        }
+        // The checks are applied in order when all has completed, so only one thread changes the fieldValues
+        return context.whenChecked().thenApply(done -> {
+            for (RecordContext.Check check: context.getChecks()) {
+                try {
+                    check.apply(fieldValues);
+                } catch (IllegalArgumentException|IllegalStateException e) {
+                    reject(record, check.converter, e, fieldValues, rejectListener);
+                    return null;
+                }
+            }
+            return finish(fieldValues);
+        });
+    }
+
+    /**
+     * @return the cached layout for the catalog or, if there is none, the layout resolved using the record. The layout
+     *         is only cached if it is complete, so that failed sources are resolved again for the next record.
+     */
+    private CatalogLayout getLayout(String catalog, CumulusRecord record) {
+        final CatalogLayout cached = layouts.get(catalog);
+        if (cached != null) {
+            return cached;
+        }
+        final CatalogLayout layout = CatalogLayout.resolve(catalog, record, converters);
+        if (!layout.isComplete()) {
+            return layout;
+        }
+        final CatalogLayout existing = layouts.putIfAbsent(catalog, layout);
+        return existing == null ? layout : existing;
+    }
+
+    private void reject(CumulusRecord record, Converter converter, RuntimeException cause, FieldValues fieldValues,
+                        RejectListener rejectListener) {
+        log.warn("Unable to process Cumulus record. Extracted so far: " + fieldValues, cause);
+        if (rejectListener != null) {
+            rejectListener.rejected(record, converter, cause);
+        }
+    }
+
+    /**
+     * @return the values produced by the converters that has run, in setup order.
+     */
+    private static FieldValues merge(FieldValues[] outputs) {
+        final FieldValues merged = new FieldValues();
+        for (FieldValues output: outputs) {
+            if (output != null) {
+                merged.addAll(output);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Adds the static field-values.
+     */
+    private FieldValues finish(FieldValues fieldValues) {
         log.trace("Produced {} fieldValues for the given record", fieldValues.size());
-        staticFields.forEach((f, v) -> fieldValues.add(new FieldValue(f, v)));
+        fieldValues.addAll(staticFields.values());
         log.trace("Added {} static fieldValues to the given record", staticFields.size());
         return fieldValues;
     }
 
+    /**
+     * Resolves the renditions for the asset reference sources, as they cannot be resolved from a snapshot. The
+     * renditions are cached in the context, so the converters do not resolve them again.
+     * @return source field to the display string of the rendition, for the sources with a rendition.
+     */
+    private Map<String, String> getRenditions(RecordContext context) {
+        final Map<String, String> renditions = new HashMap<>();
+        for (Converter converter: converters) {
+            if (converter.sourceType != Converter.SOURCE_TYPE.assetReference ||
+                renditions.containsKey(converter.source)) {
+                continue;
+            }
+            final CatalogLayout layout = context.getLayout();
+            if (layout != null && layout.isUnknown(converter.source)) {
+                continue;
+            }
+            final GUID guid = layout == null ?
+                context.getRecord().getGUID(converter.source) : layout.getGUID(converter.source);
+            final AssetReference rendition = guid == null ? null : context.getRenditionAssetReference(guid);
+            if (rendition != null && rendition.getDisplayString() != null) {
+                renditions.put(converter.source, rendition.getDisplayString());
+            }
+        }
+        return renditions;
+    }
+
+    /**
+     * @return the order in which the converters are run.
+     */
+    public ConversionPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the number of source values requested from Cumulus records by {@link #apply}.
+     */
+    public long getSourceFetches() {
+        return sourceFetches.sum();
+    }
+
+    /**
+     * @return the number of source values reused for other converters on the same record, saving a request to
+     *         Cumulus each.
+     */
+    public long getSourceReuses() {
+        return sourceReuses.sum();
+    }
+
+    /**
+     * Receives the records that could not be processed by {@link #apply(CumulusRecord, RejectListener)}.
+     */
+    @FunctionalInterface
+    public interface RejectListener {
+        /**
+         * @param record    the record that could not be processed.
+         * @param converter the converter that failed.
+         * @param cause     the reason for the failure.
+         */
+        void rejected(CumulusRecord record, Converter converter, RuntimeException cause);
+    }
+
     /**
      * Representation of all field value pairs for a document.
      */
     public static class FieldValues extends ArrayList<FieldValue> {
         /**
-         * Created a {@code <stream>} and fills it with the {@link FieldValue}s
-         * {@code <field name="field">value</field>}.
-         * @param xml the XML stream.
+         * Groups the values by field, for formats where a field can only be stated once per document.
+         * @return the values for each field, with fields in order of first occurrence.
          */
-
-
-        public void toXML(XMLStreamWriter xml){
-            try {
-                xml.writeCharacters(INDENTATION);
-                xml.writeStartElement("doc");
-                xml.writeCharacters(NEWLINE);
-                forEach(fv -> fv.toXML(xml));
-                xml.writeCharacters(INDENTATION);
-                xml.writeEndElement(); // doc
-                xml.writeCharacters(NEWLINE);
-            } catch (XMLStreamException e) {
-                log.error("Error during XML building", e);
-                throw new RuntimeException(e);
-            }
+        public Map<String, List<String>> getGroupedValues() {
+            Map<String, List<String>> grouped = new LinkedHashMap<>();
+            forEach(fv -> grouped.computeIfAbsent(fv.field, f -> new ArrayList<>(1)).add(fv.value));
+            return grouped;
         }
     }
 
@@ -122,8 +319,22 @@ public class FieldMapper implements Function<CumulusRecord, FieldMapper.FieldVal
     public static class FieldValue {
         public final String field;
         public final String value;
+        /**
+         * True if the field value is the same instance for all documents, as added with {@link FieldMapper#putStatic}.
+         * Serializers can use this to cache the serialized form.
+         */
+        public final boolean isStatic;
 
         public FieldValue(String field, String value) {
+            this(field, value, false);
+        }
+
+        /**
+         * @param field    the name of the field.
+         * @param value    the value for the field.
+         * @param isStatic true if this instance is added to all documents.
+         */
+        public FieldValue(String field, String value, boolean isStatic) {
             if (field == null) {
                 throw new IllegalArgumentException("field was null (with value '" + value + "'), which is not allowed");
             }
@@ -132,26 +343,7 @@ public class FieldMapper implements Function<CumulusRecord, FieldMapper.FieldVal
             }
             this.field = field;
             this.value = value;
+            this.isStatic = isStatic;
         }
-
-        /**
-         * Adds the contained field and value to the xml stream {@code <field name="field">value</field>}.
-         * @param xml the xml stream where the field and value goes.
-         */
-           public void toXML(XMLStreamWriter xml) {
-
-               try {
-                   xml.writeCharacters(INDENTATION);
-                   xml.writeCharacters(INDENTATION);
-                   xml.writeStartElement("field");
-                   xml.writeAttribute("name", field);
-                   xml.writeCharacters(value);
-                   xml.writeEndElement(); // field
-                   xml.writeCharacters(NEWLINE);
-               } catch (XMLStreamException e) {
-                   log.error("Error during XML building, Field: {}, Value: {}, Exception: {}",field,value,e);
-                   throw new RuntimeException(e);
-               }
-           }
-        }
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import dk.kb.cumulus.CumulusRecord;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A {@link CumulusRecord} with values held in memory instead of requested from a Cumulus server, such as records
+ * read from a {@link dk.kb.ds.cumulus.export.snapshot.RecordSnapshotReader}.
+ *
+ * All values are stored as the String given by {@link CumulusRecord#getFieldValueForNonStringField(String)} and
+ * parsed when requested as numbers. Renditions cannot be resolved without a server, so the display string of the
+ * rendition for each asset reference source is stored separately, see {@link #getRendition(String)}.
+ */
+public class MapRecord extends CumulusRecord {
+    private final String uuid;
+    private final Map<String, String> values;
+    private final Map<String, String> dataTypes;
+    private final Map<String, String> renditions;
+
+    /**
+     * @param uuid       the GUID of the record.
+     * @param values     field name to value.
+     * @param dataTypes  field name to Cumulus data type, used for statistics. Fields without a type are allowed.
+     * @param renditions asset reference source field name to the display string of the rendition.
+     */
+    public MapRecord(String uuid, Map<String, String> values, Map<String, String> dataTypes,
+                     Map<String, String> renditions) {
+        super(null, null);
+        this.uuid = uuid;
+        this.values = values;
+        this.dataTypes = dataTypes;
+        this.renditions = renditions;
+    }
+
+    /**
+     * @return field name to value for all fields in the record.
+     */
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @param fieldname a field in the record.
+     * @return the Cumulus data type of the field or null if it is unknown.
+     */
+    public String getDataType(String fieldname) {
+        return dataTypes.get(fieldname);
+    }
+
+    /**
+     * @return asset reference source field name to the display string of the rendition.
+     */
+    public Map<String, String> getRenditions() {
+        return Collections.unmodifiableMap(renditions);
+    }
+
+    /**
+     * @param fieldname the source field for a Renditions Manager, as used for asset references.
+     * @return the display string for the rendition or null if the record had no finished rendition.
+     */
+    public String getRendition(String fieldname) {
+        return renditions.get(fieldname);
+    }
+
+    @Override
+    public String getUUID() {
+        return uuid;
+    }
+
+    @Override
+    public String getFieldValue(String fieldname) {
+        return values.get(fieldname);
+    }
+
+    @Override
+    public String getFieldValueOrNull(String fieldname) {
+        return values.get(fieldname);
+    }
+
+    @Override
+    public String getFieldValueForNonStringField(String fieldname) {
+        return values.get(fieldname);
+    }
+
+    @Override
+    public Integer getFieldIntValue(String fieldname) {
+        final String value = values.get(fieldname);
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    @Override
+    public Long getFieldLongValue(String fieldname) {
+        final String value = values.get(fieldname);
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    @Override
+    public String toString() {
+        return "MapRecord(" + uuid + ", " + values.size() + " fields)";
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Applies a mapping function to a stream of elements using a pool of worker threads and delivers the results to a
+ * single consumer, which is always called from the thread calling {@link #process}.
+ *
+ * At most {@code queueSize} elements are in flight (submitted but not yet delivered) at any time, so a slow consumer
+ * or slow workers will hold back the reading of the source.
+ *
+ * If {@code ordered} is true, results are delivered in source order. If false, results are delivered as soon as they
+ * are ready, which keeps the workers busy when processing time varies between elements.
+ *
+ * With {@link #processAsync}, the mapping returns a future, so that an element can wait for e.g. network requests
+ * without occupying a worker. The in-flight limit still applies until the future completes.
+ * @param <S> the type of the source elements.
+ * @param <T> the type of the mapped elements.
+ */
+public class ParallelProcessor<S, T> {
+    private static final Logger log = LoggerFactory.getLogger(ParallelProcessor.class);
+
+    private static final AtomicInteger poolCounter = new AtomicInteger(0);
+
+    private final int threads;
+    private final int queueSize;
+    private final boolean ordered;
+
+    /**
+     * @param threads   the number of worker threads. If this is 1, processing is done sequentially on the calling
+     *                  thread.
+     * @param queueSize the maximum number of elements in flight. Must be at least {@code threads}.
+     * @param ordered   if true, results are delivered in source order, else in completion order.
+     */
+    public ParallelProcessor(int threads, int queueSize, boolean ordered) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1, but was " + threads);
+        }
+        if (queueSize < threads) {
+            throw new IllegalArgumentException(
+                "The queueSize (" + queueSize + ") must be at least the number of threads (" + threads + ")");
+        }
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Maps all elements from source and delivers the results to sink. Results are delivered even if they are null.
+     * @param source the elements to process.
+     * @param mapper the mapping to apply to each element. This must be thread safe.
+     * @param sink   receives the mapped elements. This is always called from the thread calling this method.
+     * @return the number of processed elements.
+     * @throws RuntimeException if the mapper threw an exception for any element.
+     */
+    public long process(Stream<S> source, Function<S, T> mapper, Consumer<T> sink) {
+        if (threads == 1) {
+            AtomicLong processed = new AtomicLong(0);
+            source.map(mapper).forEach(result -> {
+                sink.accept(result);
+                processed.incrementAndGet();
+            });
+            return processed.get();
+        }
+
+        return processAsync(source, element -> CompletableFuture.completedFuture(mapper.apply(element)), sink);
+    }
+
+    /**
+     * Maps all elements from source and delivers the results to sink when the futures from the mapper complete.
+     * Results are delivered even if they are null. If the number of threads is 1, the mapper is called from the
+     * calling thread, but the futures can still complete concurrently.
+     * @param source the elements to process.
+     * @param mapper the mapping to apply to each element. This must be thread safe.
+     * @param sink   receives the mapped elements. This is always called from the thread calling this method.
+     * @return the number of processed elements.
+     * @throws RuntimeException if the mapper or a future from it threw an exception for any element.
+     */
+    public long processAsync(Stream<S> source, Function<S, CompletableFuture<T>> mapper, Consumer<T> sink) {
+        log.debug("Processing with {} threads, queueSize={}, ordered={}", threads, queueSize, ordered);
+        final ExecutorService executor = threads == 1 ? null :
+            Executors.newFixedThreadPool(threads, new WorkerFactory());
+        final Function<S, CompletableFuture<T>> submitter = executor == null ?
+            element -> mapper.apply(element) :
+            element -> CompletableFuture.supplyAsync(() -> mapper.apply(element), executor).
+                thenCompose(Function.identity());
+        try {
+            return ordered ?
+                processOrdered(source.iterator(), submitter, sink) :
+                processUnordered(source.iterator(), submitter, sink);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private long processOrdered(Iterator<S> source, Function<S, CompletableFuture<T>> submitter, Consumer<T> sink) {
+        final Deque<Future<T>> pending = new ArrayDeque<>(queueSize);
+        long processed = 0;
+        while (source.hasNext()) {
+            pending.addLast(submit(submitter, source.next()));
+            // Deliver everything that is ready at the head, then block on the head if the queue is full
+            while (!pending.isEmpty() && (pending.size() >= queueSize || pending.peekFirst().isDone())) {
+                sink.accept(getResult(pending.removeFirst()));
+                processed++;
+            }
+        }
+        while (!pending.isEmpty()) {
+            sink.accept(getResult(pending.removeFirst()));
+            processed++;
+        }
+        return processed;
+    }
+
+    private long processUnordered(Iterator<S> source, Function<S, CompletableFuture<T>> submitter, Consumer<T> sink) {
+        final BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        long processed = 0;
+        while (source.hasNext()) {
+            final CompletableFuture<T> future = submit(submitter, source.next());
+            future.whenComplete((result, exception) -> completed.add(future));
+            inFlight++;
+            Future<T> done;
+            // Block if the queue is full, else just deliver what is ready
+            while ((done = inFlight >= queueSize ? take(completed) : completed.poll()) != null) {
+                inFlight--;
+                sink.accept(getResult(done));
+                processed++;
+            }
+        }
+        for ( ; inFlight > 0 ; inFlight--) {
+            sink.accept(getResult(take(completed)));
+            processed++;
+        }
+        return processed;
+    }
+
+    /**
+     * Applies the submitter, turning exceptions thrown directly into failed futures, so that they are delivered in
+     * the same way regardless of the number of threads.
+     */
+    private CompletableFuture<T> submit(Function<S, CompletableFuture<T>> submitter, S element) {
+        try {
+            return submitter.apply(element);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Future<T> take(BlockingQueue<Future<T>> completed) {
+        try {
+            return completed.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a worker to finish", e);
+        }
+    }
+
+    private T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a worker to finish", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException("Exception while processing element", e.getCause());
+        }
+    }
+
+    /**
+     * Creates daemon threads with telling names, to ease debugging of thread dumps.
+     */
+    private static class WorkerFactory implements ThreadFactory {
+        private final int pool = poolCounter.incrementAndGet();
+        private final AtomicInteger workerCounter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "converter-" + pool + "-" + workerCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
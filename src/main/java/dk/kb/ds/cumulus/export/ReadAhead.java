@@ -0,0 +1,193 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads elements from a source iterator on a dedicated thread, keeping up to {@code size} elements ready for the
+ * consumer. With a Cumulus record collection as source, the server round-trips for the next records overlap with the
+ * conversion of the current ones.
+ *
+ * The consumer only waits if no element is ready. The number of waits and the time spent waiting are measured, so
+ * that it can be seen whether reading is the bottleneck.
+ *
+ * An exception from the source is thrown to the consumer after the elements read before the exception.
+ * {@link #close()} stops the reading thread and waits for it to finish, so that the source can safely be closed
+ * afterwards.
+ * @param <T> the type of the elements.
+ */
+public class ReadAhead<T> implements Iterator<T>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ReadAhead.class);
+
+    /** Marks the end of the source. Compared by identity. */
+    private static final Object END = new Object();
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+
+    private final Iterator<T> source;
+    private final BlockingQueue<Object> ready;
+    private final Thread reader;
+    private volatile boolean closed = false;
+    private volatile RuntimeException failure = null;
+
+    // Only used by the consumer
+    private Object next = null;
+    private long delivered = 0;
+    private long waits = 0;
+    private long waitNanos = 0;
+
+    /**
+     * Creates the read-ahead and starts reading from the source.
+     * @param source the elements to read ahead. Only used by the reading thread after this.
+     * @param size   the maximum number of elements read ahead, at least 1.
+     */
+    public ReadAhead(Iterator<T> source, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The read-ahead size must be at least 1, but was " + size);
+        }
+        this.source = source;
+        this.ready = new ArrayBlockingQueue<>(size);
+        this.reader = new Thread(this::read, "read-ahead-" + threadCounter.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return the remaining elements as a sequential stream. Closing the stream closes the read-ahead.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false).
+            onClose(this::close);
+    }
+
+    /**
+     * Waits for the next element to be read, if it is not ready.
+     * @return true if there are more elements.
+     * @throws RuntimeException if the source threw an exception.
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = ready.poll();
+            if (next == null) {
+                waits++;
+                final long start = System.nanoTime();
+                try {
+                    next = ready.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the next element", e);
+                } finally {
+                    waitNanos += System.nanoTime() - start;
+                }
+            }
+        }
+        if (next == END && failure != null) {
+            throw failure;
+        }
+        return next != END;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final T element = (T) next;
+        next = null;
+        delivered++;
+        return element;
+    }
+
+    /**
+     * @return the number of times the consumer had to wait for an element to be read.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return the time the consumer has spent waiting for elements to be read, in nanoseconds.
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return the number of elements delivered to the consumer.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Stops reading and waits for the reading thread to finish its current element.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ready.clear(); // Unblocks the reader if it waits for room
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the read-ahead thread to finish");
+        }
+        log.debug("Delivered {} elements. The consumer waited {} times, for {} ms in total",
+                  delivered, waits, waitNanos / 1000000);
+    }
+
+    /**
+     * The loop of the reading thread. The end marker is always delivered, so that the consumer is not blocked.
+     */
+    private void read() {
+        try {
+            try {
+                while (!closed && source.hasNext()) {
+                    put(source.next());
+                }
+            } catch (RuntimeException e) {
+                failure = e; // Thrown when the consumer reaches the end marker
+            }
+            put(END);
+        } catch (InterruptedException e) {
+            failure = new RuntimeException("The read-ahead thread was interrupted", e);
+            ready.clear(); // Makes room for the end marker
+            ready.offer(END);
+        }
+    }
+
+    private void put(Object element) throws InterruptedException {
+        while (!closed && !ready.offer(element, 100, TimeUnit.MILLISECONDS)) {
+            // Wait for the consumer to make room or close
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records that failed conversion, so that they can be exported again with {@link CumulusExport#ARG_REPLAY} when the
+ * cause has been fixed. The log is a tab-separated file with the columns {@code catalog}, {@code id} (the Cumulus
+ * GUID of the record), {@code converter} and {@code reason}. Tabs and line breaks in the values are replaced with
+ * spaces.
+ */
+public class RejectLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(RejectLog.class);
+
+    static final String HEADER = "#catalog\tid\tconverter\treason";
+
+    private final Path rejectFile;
+    private final Writer out;
+    private long rejects = 0;
+
+    /**
+     * Opens a reject log for writing.
+     * @param rejectFile the file to write the rejected records to.
+     * @param append     if true, rejected records are added to any existing log, as when resuming an interrupted
+     *                   export. If false, any existing log is overwritten.
+     * @throws IOException if the file could not be opened.
+     */
+    public RejectLog(Path rejectFile, boolean append) throws IOException {
+        this.rejectFile = rejectFile;
+        final boolean existing = append && Files.exists(rejectFile) && Files.size(rejectFile) > 0;
+        this.out = append ?
+            Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8,
+                                    StandardOpenOption.CREATE, StandardOpenOption.APPEND) :
+            Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8);
+        if (!existing) {
+            out.write(HEADER + "\n");
+            out.flush();
+        }
+    }
+
+    /**
+     * Adds a rejected record to the log. The entry is flushed immediately, so that it survives a crash.
+     * @param catalog   the Cumulus catalog holding the record.
+     * @param id        the Cumulus GUID of the record. If null, the record cannot be replayed.
+     * @param converter the converter that failed.
+     * @param reason    a description of the problem.
+     */
+    public synchronized void add(String catalog, String id, String converter, String reason) {
+        try {
+            out.write(String.join("\t", clean(catalog), clean(id), clean(converter), clean(reason)) + "\n");
+            out.flush();
+        } catch (IOException e) {
+            // Losing a reject entry should not stop the export, but the log is no longer complete
+            log.error("Unable to log rejected record '" + id + "' from catalog '" + catalog + "' to " + rejectFile,
+                      e);
+        }
+        rejects++;
+    }
+
+    /**
+     * @return the number of rejected records added to the log.
+     */
+    public synchronized long getRejectCount() {
+        return rejects;
+    }
+
+    /**
+     * @return the file holding the rejected records.
+     */
+    public Path getRejectFile() {
+        return rejectFile;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        log.info("Logged {} rejected records to {}", rejects, rejectFile);
+    }
+
+    /**
+     * Loads the ids of the rejected records from a reject log. Entries without id are skipped.
+     * @param rejectFile a reject log written by this class.
+     * @return the ids of the rejected records for each catalog, in order of appearance and without duplicates.
+     * @throws IOException if the log could not be read.
+     */
+    public static Map<String, Set<String>> load(Path rejectFile) throws IOException {
+        final Map<String, Set<String>> ids = new LinkedHashMap<>();
+        long skipped = 0;
+        try (BufferedReader in = Files.newBufferedReader(rejectFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] tokens = line.split("\t", -1);
+                if (tokens.length < 2 || tokens[1].isEmpty()) {
+                    skipped++;
+                    continue;
+                }
+                ids.computeIfAbsent(tokens[0], c -> new LinkedHashSet<>()).add(tokens[1]);
+            }
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} entries without id in {}", skipped, rejectFile);
+        }
+        return ids;
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replaceAll("[\t\r\n]+", " ");
+    }
+}
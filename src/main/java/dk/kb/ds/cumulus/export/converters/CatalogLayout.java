@@ -0,0 +1,189 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import com.canto.cumulus.FieldDefinition;
+import com.canto.cumulus.FieldNotFoundException;
+import com.canto.cumulus.GUID;
+import com.canto.cumulus.ItemCollection;
+import dk.kb.cumulus.CumulusRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link Converter#source} fields of a conversion setup, resolved once against the field layout of a catalog.
+ *
+ * Converters use the layout to skip sources that are not in the catalog without asking the record and to access
+ * table fields, such as the Renditions Manager, directly by GUID. The query for the finished JPEG2000 rendition is
+ * derived from the first rendition table and reused for the rest of the catalog.
+ *
+ * A source is only marked unknown when Cumulus reports that the field does not exist. If resolving a source fails
+ * for other reasons, such as a lost connection, the layout is not {@link #isComplete() complete}: The source is
+ * looked up in each record instead and the layout should not be reused.
+ *
+ * A layout is thread safe.
+ */
+public class CatalogLayout {
+    private static final Logger log = LoggerFactory.getLogger(CatalogLayout.class);
+
+    static final String RENDITION_NAME_FIELD = "Rendition Name";
+    static final String RENDITION_STATE_FIELD = "State";
+    static final String RENDITION_NAME = "JPEG2000";
+    static final int FINISHED_STATE_ID = 3;
+
+    private final String catalog;
+    private final Map<String, GUID> guids;
+    private final Set<String> unknown;
+    private final boolean complete;
+    private volatile String renditionQuery = null;
+
+    private CatalogLayout(String catalog, Map<String, GUID> guids, Set<String> unknown, boolean complete) {
+        this.catalog = catalog;
+        this.guids = Collections.unmodifiableMap(guids);
+        this.unknown = Collections.unmodifiableSet(unknown);
+        this.complete = complete;
+    }
+
+    /**
+     * Resolves the sources of the converters using the layout of a record from the catalog. Sources that are not
+     * in the catalog are logged, as an error if the source is required.
+     * @param catalog    the Cumulus catalog.
+     * @param sample     any record from the catalog.
+     * @param converters the converters to resolve the sources for.
+     * @return the resolved layout.
+     */
+    public static CatalogLayout resolve(String catalog, CumulusRecord sample, Collection<Converter> converters) {
+        final Map<String, GUID> guids = new HashMap<>();
+        final Set<String> unknown = new LinkedHashSet<>();
+        final Set<String> failed = new LinkedHashSet<>();
+        for (Converter converter: converters) {
+            if (guids.containsKey(converter.source) || unknown.contains(converter.source) ||
+                failed.contains(converter.source)) {
+                continue;
+            }
+            GUID guid;
+            try {
+                guid = sample.getGUID(converter.source);
+            } catch (FieldNotFoundException e) {
+                log.debug("The field '" + converter.source + "' was not found in catalog '" + catalog + "'", e);
+                guid = null;
+            } catch (RuntimeException e) {
+                log.warn("Unable to resolve the field '" + converter.source + "' in catalog '" + catalog +
+                         "'. The layout will be resolved again for the next record", e);
+                failed.add(converter.source);
+                continue;
+            }
+            if (guid == null) {
+                unknown.add(converter.source);
+            } else {
+                guids.put(converter.source, guid);
+            }
+        }
+
+        for (Converter converter: converters) {
+            if (!unknown.contains(converter.source)) {
+                continue;
+            }
+            if (converter.required) {
+                log.error("The required source field '{}' for {} is not in the layout of catalog '{}'. " +
+                          "All records from the catalog will fail conversion", converter.source, converter, catalog);
+            } else {
+                log.warn("The source field '{}' for {} is not in the layout of catalog '{}' and will be skipped",
+                         converter.source, converter, catalog);
+            }
+        }
+        log.info("Resolved {} source fields for catalog '{}', of which {} were unknown and {} failed",
+                 guids.size() + unknown.size() + failed.size(), catalog, unknown.size(), failed.size());
+        return new CatalogLayout(catalog, guids, unknown, failed.isEmpty());
+    }
+
+    /**
+     * @param source a source field name.
+     * @return the GUID for the field or null if it is not in the catalog.
+     */
+    public GUID getGUID(String source) {
+        return guids.get(source);
+    }
+
+    /**
+     * @param source a source field name.
+     * @return true if the field was resolved and found not to be in the catalog.
+     */
+    public boolean isUnknown(String source) {
+        return unknown.contains(source);
+    }
+
+    /**
+     * @return true if all sources were resolved, so that the layout can be reused for the rest of the catalog.
+     *         If false, the sources that failed to resolve are neither known nor unknown.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the source fields that are not in the catalog.
+     */
+    public Set<String> getUnknown() {
+        return unknown;
+    }
+
+    /**
+     * @param renditions a rendition table from the catalog, used for resolving the query the first time.
+     * @return the query for the finished JPEG2000 rendition in the rendition tables of the catalog.
+     */
+    public String getRenditionQuery(ItemCollection renditions) {
+        String query = renditionQuery;
+        if (query == null) {
+            // Two threads resolving at the same time is harmless as the result is the same
+            query = createRenditionQuery(renditions);
+            renditionQuery = query;
+            log.debug("Resolved rendition query '{}' for catalog '{}'", query, catalog);
+        }
+        return query;
+    }
+
+    /**
+     * Finds the field UIDs for {@code Rendition Name} and {@code State} in the layout of the rendition table and
+     * creates a query for the rendition {@code JPEG2000} in the finished state.
+     * @param renditions a rendition table, as stored in the Renditions Manager field.
+     * @return the query for the finished JPEG2000 rendition.
+     */
+    static String createRenditionQuery(ItemCollection renditions) {
+        GUID renditionNameGUID = null;
+        GUID renditionStateGUID = null;
+        for (FieldDefinition fd : renditions.getLayout()) {
+            if (RENDITION_NAME_FIELD.equals(fd.getName())) renditionNameGUID = fd.getFieldUID();
+            if (RENDITION_STATE_FIELD.equals(fd.getName())) renditionStateGUID = fd.getFieldUID();
+        }
+        return String.format(Locale.ROOT, "%s == \"%s\" && %s == \":ID:%d\"",
+                             renditionNameGUID, RENDITION_NAME, renditionStateGUID, FINISHED_STATE_ID);
+    }
+
+    /**
+     * @return the catalog the layout was resolved for.
+     */
+    public String getCatalog() {
+        return catalog;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The order in which the {@link Converter}s for a record are run, compiled once from the converters in setup order.
+ *
+ * The converters are split into {@link Phase}s by cost: Plain field conversions first, then converters that look up
+ * renditions and finally converters that register checks, such as URL verification. A record that fails a cheap
+ * {@code required} converter is thereby rejected before any rendition lookup or verification request is made.
+ * Within a phase, converters with the same source and source type are grouped, so that the value fetched by the
+ * first converter in the group is reused by the rest through {@link RecordContext}.
+ *
+ * The values produced by the converters should still be presented in setup order. Each {@link Step} knows the
+ * position of its converter in the setup for that purpose.
+ */
+public class ConversionPlan {
+
+    /**
+     * The phases of the plan in the order they are run.
+     */
+    public enum Phase {
+        /** Converters working on plain field values. */
+        FIELDS,
+        /** Converters with {@link Converter.SOURCE_TYPE#assetReference} sources, which search the renditions. */
+        RENDITIONS,
+        /** Converters registering checks with the {@link RecordContext}, see {@link Converter#registersChecks()}. */
+        CHECKS;
+
+        /**
+         * @param converter a converter.
+         * @return the phase the converter belongs to.
+         */
+        public static Phase of(Converter converter) {
+            return converter.registersChecks() ? CHECKS :
+                converter.sourceType == Converter.SOURCE_TYPE.assetReference ? RENDITIONS : FIELDS;
+        }
+    }
+
+    private final List<Converter> converters;
+    private final List<Step> steps;
+    private final Map<Phase, Map<String, List<Step>>> groups = new EnumMap<>(Phase.class);
+
+    /**
+     * @param converters the converters in setup order.
+     */
+    public ConversionPlan(List<Converter> converters) {
+        this.converters = Collections.unmodifiableList(new ArrayList<>(converters));
+        for (Phase phase: Phase.values()) {
+            groups.put(phase, new LinkedHashMap<>());
+        }
+        for (int position = 0 ; position < converters.size() ; position++) {
+            final Converter converter = converters.get(position);
+            final Phase phase = Phase.of(converter);
+            groups.get(phase).computeIfAbsent(converter.source + " (" + converter.sourceType + ")",
+                                              key -> new ArrayList<>()).
+                add(new Step(converter, position, phase));
+        }
+        final List<Step> steps = new ArrayList<>(converters.size());
+        groups.values().forEach(phaseGroups -> phaseGroups.values().forEach(steps::addAll));
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return the converters in setup order.
+     */
+    public List<Converter> getConverters() {
+        return converters;
+    }
+
+    /**
+     * @return the steps in the order they should be run.
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of converters in the plan.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * @return a multi line description of the plan, with the source groups and their converters for each phase.
+     */
+    public String describe() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Conversion plan with %d converters:", steps.size()));
+        for (Map.Entry<Phase, Map<String, List<Step>>> phase: groups.entrySet()) {
+            if (phase.getValue().isEmpty()) {
+                continue;
+            }
+            sb.append(String.format(Locale.ROOT, "%n  %s, %d sources:", phase.getKey(), phase.getValue().size()));
+            for (Map.Entry<String, List<Step>> group: phase.getValue().entrySet()) {
+                sb.append(String.format(Locale.ROOT, "%n    %s:", group.getKey()));
+                for (Step step: group.getValue()) {
+                    sb.append(String.format(Locale.ROOT, "%n      #%d %s%s", step.position + 1, step.converter,
+                                            step.converter.required ? " required" : ""));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ConversionPlan(converters=" + steps.size() + ", sources=" +
+               groups.values().stream().mapToInt(Map::size).sum() + ")";
+    }
+
+    /**
+     * A converter in the plan.
+     */
+    public static class Step {
+        public final Converter converter;
+        /** The position of the converter in the setup, starting at 0. */
+        public final int position;
+        public final Phase phase;
+
+        Step(Converter converter, int position, Phase phase) {
+            this.converter = converter;
+            this.position = position;
+            this.phase = phase;
+        }
+
+        @Override
+        public String toString() {
+            return phase + " #" + (position + 1) + " " + converter;
+        }
+    }
+}
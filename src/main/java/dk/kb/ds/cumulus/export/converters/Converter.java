@@ -15,11 +15,10 @@
 package dk.kb.ds.cumulus.export.converters;
 
 import com.canto.cumulus.GUID;
-import com.canto.cumulus.Item;
-import com.canto.cumulus.ItemCollection;
 import com.canto.cumulus.fieldvalue.AssetReference;
 import dk.kb.cumulus.CumulusRecord;
 import dk.kb.ds.cumulus.export.FieldMapper;
+import dk.kb.ds.cumulus.export.MapRecord;
 import dk.kb.ds.cumulus.export.YAML;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,6 +117,20 @@ public abstract class Converter {
         this.linebreakIsMulti = lineBreakIsMulti == null ? DEFAULT_LINE_BREAK_IS_MULTI : lineBreakIsMulti;
     }
 
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + source + " -> " + destination + ")";
+    }
+
+    /**
+     * Override this in implementing classes that register checks, such as URL verification, with the
+     * {@link RecordContext}. Such converters are run after all others, see {@link ConversionPlan}.
+     * @return true if the converter registers checks for its values.
+     */
+    public boolean registersChecks() {
+        return false;
+    }
+
     /**
      * Override this in implementing classes if needed.
      * @return the sourceType to use if none is given in the setup.
@@ -130,33 +143,61 @@ public abstract class Converter {
      * Extract the content of the {@link #source} field from the record, process it and add the result(s) to
      * fieldValues. The use of {@link #fallbackDestination} is handled by the abstract {@Converter}: Implementations
      * should simply do nothing if the value could not be added.
-     * @param record     a Cumulus record.
+     * @param context    the Cumulus record with its catalog layout.
      * @param resultList the destination for the processed values.
      * @throws IllegalArgumentException if the combination of input and processing was not valid.
      */
-    abstract void convertImpl(CumulusRecord record, List<FieldMapper.FieldValue> resultList)
+    abstract void convertImpl(RecordContext context, List<FieldMapper.FieldValue> resultList)
         throws IllegalArgumentException;
 
     /**
      * Extract the content of the {@link #source} field from the record, process it and
-     * add the result(s) to fieldValues.
+     * add the result(s) to fieldValues. Checks registered by the converter, see {@link RecordContext#addCheck},
+     * are waited for and applied before returning.
      * @param record     a Cumulus record.
      * @param fieldValues the destination for the processed values.
      * @throws IllegalArgumentException if the combination of input and processing was not valid.
      * @throws IllegalStateException if the {@link #source} was required but not present in the record.
      */
     public void convert(CumulusRecord record, FieldMapper.FieldValues fieldValues)
+        throws IllegalArgumentException, IllegalStateException {
+        final RecordContext context = new RecordContext(record, null);
+        convert(context, fieldValues);
+        for (RecordContext.Check check: context.getChecks()) {
+            check.apply(fieldValues);
+        }
+    }
+
+    /**
+     * Extract the content of the {@link #source} field from the record, process it and
+     * add the result(s) to fieldValues.
+     * @param context     the Cumulus record with its catalog layout, shared by all converters for the record.
+     * @param fieldValues the destination for the processed values.
+     * @throws IllegalArgumentException if the combination of input and processing was not valid.
+     * @throws IllegalStateException if the {@link #source} was required but not present in the record.
+     */
+    public void convert(RecordContext context, FieldMapper.FieldValues fieldValues)
         throws IllegalArgumentException, IllegalStateException {
         final int beforeSize = fieldValues.size();
-        convertImpl(record, fieldValues);
-        if (beforeSize != fieldValues.size()) {
-            return;
+        convertImpl(context, fieldValues);
+        if (beforeSize == fieldValues.size()) {
+            handleMissing(context, fieldValues);
         }
+    }
+
+    /**
+     * Called when the converter did not produce any values for the record: Fails if the {@link #source} is required,
+     * else copies the source value to the {@link #fallbackDestination}, if defined.
+     * @param context     the Cumulus record with its catalog layout.
+     * @param fieldValues the destination for the fallback value.
+     * @throws IllegalStateException if the {@link #source} was required.
+     */
+    protected void handleMissing(RecordContext context, FieldMapper.FieldValues fieldValues) {
         if (required) {
             throw new IllegalStateException(
                 "The required field '" + source + "' should result in at least 1 output field, but did not");
         }
-        String sourceValue = getAsString(record);
+        String sourceValue = getAsString(context);
         if (fallbackDestination != null && !fallbackDestination.isEmpty() &&
             sourceValue != null && !sourceValue.isEmpty()) {
             log.debug("Could not derive a value for primary destination field '{}' for value '{}' " +
@@ -169,11 +210,29 @@ public abstract class Converter {
     /**
      * Helper method for implementing classes.
      * Extract the content of the {@link #source} field from the record as a String, regardless of actual type.
-     * @param record a Cumulus record.
+     * @param context the Cumulus record with its catalog layout.
      * @return the content of {@link #source} as a String.
      * @throws IllegalStateException if the {@link #source} was required but not present in the record.
      */
-    protected String getAsString(CumulusRecord record) {
+    protected String getAsString(RecordContext context) {
+        final CatalogLayout layout = context.getLayout();
+        if (layout != null && layout.isUnknown(source)) {
+            return checkUnknown(layout);
+        }
+        final String value = context.getMemoized(source, sourceType, true, () -> fetchAsString(context));
+        if (required && value == null) {
+            throw new IllegalStateException(
+                "The required field '" + source + "' was not present in the record");
+        }
+        return value;
+    }
+
+    /**
+     * Requests the content of the {@link #source} field from the record as a String. Use {@link #getAsString}
+     * instead, as it reuses values already requested for the record.
+     */
+    private String fetchAsString(RecordContext context) {
+        final CumulusRecord record = context.getRecord();
         String value = null;
         switch (sourceType) {
             case string: {
@@ -191,12 +250,16 @@ public abstract class Converter {
                 break;
             }
             case assetReference: {
-                GUID guid = record.getGUID(source);
+                if (record instanceof MapRecord) { // The rendition was resolved when the record was captured
+                    value = ((MapRecord) record).getRendition(source);
+                    break;
+                }
+                GUID guid = getGUID(context);
                 if (guid == null) {
                     // value = null
                     break;
                 }
-                AssetReference assetReference = getRenditionAssetReference(record, guid);
+                AssetReference assetReference = context.getRenditionAssetReference(guid);
                 value = assetReference == null ? null : assetReference.getDisplayString();
                 if (value == null){
                     log.warn("Record Name: {} is not on picture server and is thus not included", record.getFieldValueOrNull("Record Name"));
@@ -205,22 +268,36 @@ public abstract class Converter {
             }
             default: value = null;
         }
-        if (required && value == null) {
-            throw new IllegalStateException(
-                "The required field '" + source + "' was not present in the record");
-        }
         return value;
     }
 
     /**
      * Helper method for implementing classes.
      * Extract the content of the {@link #source} field from the record as the stated {@link #CONF_SOURCE_TYPE}.
-     * @param record a Cumulus record.
+     * @param context the Cumulus record with its catalog layout.
      * @return the content of {@link #source}.
      * @throws IllegalStateException if the {@link #source} was required but not present in the record as the
      * stated type.
      */
-    protected Object getValue(CumulusRecord record) {
+    protected Object getValue(RecordContext context) {
+        final CatalogLayout layout = context.getLayout();
+        if (layout != null && layout.isUnknown(source)) {
+            return checkUnknown(layout);
+        }
+        final Object value = context.getMemoized(source, sourceType, false, () -> fetchValue(context));
+        if (required && value == null) {
+            throw new IllegalStateException(
+                "The required field '" + source + "' was not present in the record");
+        }
+        return value;
+    }
+
+    /**
+     * Requests the content of the {@link #source} field from the record as the stated {@link #CONF_SOURCE_TYPE}.
+     * Use {@link #getValue} instead, as it reuses values already requested for the record.
+     */
+    private Object fetchValue(RecordContext context) {
+        final CumulusRecord record = context.getRecord();
         Object value;
         switch (sourceType) {
             case string: {
@@ -236,21 +313,40 @@ public abstract class Converter {
                 break;
             }
             case assetReference: {
-                GUID guid = record.getGUID(source);
+                GUID guid = record instanceof MapRecord ? null : getGUID(context); // No Asset Reference offline
                 if (guid == null) {
                     value = null;
                     break;
                 }
-                value = getRenditionAssetReference(record, guid);
+                value = context.getRenditionAssetReference(guid);
                 break;
             }
             default: value = null;
         }
-        if (required && value == null) {
+        return value;
+    }
+
+    /**
+     * @return null, as the {@link #source} is not in the layout.
+     * @throws IllegalStateException if the {@link #source} is required.
+     */
+    private <T> T checkUnknown(CatalogLayout layout) {
+        if (required) {
             throw new IllegalStateException(
-                "The required field '" + source + "' was not present in the record");
+                "The required field '" + source + "' is not in the layout of catalog '" + layout.getCatalog() + "'");
         }
-        return value;
+        return null;
+    }
+
+    /**
+     * @return the GUID for {@link #source} from the layout or, if there is no layout or the layout failed to resolve
+     *         the source, from the record.
+     */
+    private GUID getGUID(RecordContext context) {
+        final CatalogLayout layout = context.getLayout();
+        final GUID guid = layout == null ? null : layout.getGUID(source);
+        return guid != null || layout != null && layout.isUnknown(source) ?
+            guid : context.getRecord().getGUID(source);
     }
 
     /**
@@ -286,40 +382,6 @@ public abstract class Converter {
         }
     }
 
-    /**
-     * Extracts the Asset Reference for the Renditions Manager part of the record. This is used to
-     * find the path to the picture server for the record.
-     * @param record The record to extract from
-     * @param guid The guid of the Renditions Manager
-     * @return The unix path of the record's Renditions Manager Asset Reference
-     */
-    protected AssetReference getRenditionAssetReference(CumulusRecord record, GUID guid) {
-        GUID rendition_name_guid = null;
-        GUID rendition_state_guid = null;
-        final int FINISHED_STATE_ID = 3;
-        AssetReference ar = null;
-
-        ItemCollection renditions = record.getTableValue(guid);
-        if (renditions != null) {
-            for (com.canto.cumulus.FieldDefinition fd : renditions.getLayout()) {
-                if ("Rendition Name".equals(fd.getName())) rendition_name_guid = fd.getFieldUID();
-                if ("State".equals(fd.getName())) rendition_state_guid = fd.getFieldUID();
-            }
-            String query = String.format(Locale.ROOT, "%s == \"%s\" && %s == \":ID:%d\"",
-                rendition_name_guid, "JPEG2000",
-                rendition_state_guid, FINISHED_STATE_ID);
-            renditions.find(query, null, null, null);
-            if (renditions.getItemCount() == 1) {
-                Item rendition = renditions.iterator().next();
-                if (rendition.hasValue(GUID.UID_REC_ASSET_REFERENCE)) {
-                    ar = rendition.getAssetReferenceValue(GUID.UID_REC_ASSET_REFERENCE);
-                }
-            }
-        }
-        return ar;
-    }
-
-
     /**
      * "Override" this in implementing classes and call something like
      * {@code ConverterFactory.registerCreator("string", StringConverter::new);}
@@ -14,7 +14,6 @@
  */
 package dk.kb.ds.cumulus.export.converters;
 
-import dk.kb.cumulus.CumulusRecord;
 import dk.kb.ds.cumulus.export.CalendarUtils;
 import dk.kb.ds.cumulus.export.FieldMapper;
 import dk.kb.ds.cumulus.export.YAML;
@@ -37,8 +36,8 @@ public class DatetimeRangeConverter extends Converter {
     }
 
     @Override
-    public void convertImpl(CumulusRecord record, List<FieldMapper.FieldValue> resultList) throws IllegalStateException {
-        convertImpl(getAsString(record), resultList);
+    public void convertImpl(RecordContext context, List<FieldMapper.FieldValue> resultList) throws IllegalStateException {
+        convertImpl(getAsString(context), resultList);
     }
 
     private void convertImpl(String datetimeStr, List<FieldMapper.FieldValue> resultList) {
@@ -0,0 +1,66 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 64 bit FNV-1a over bytes, followed by the MurmurHash3 finalizer to spread the bits. Used for the slots in
+ * {@link URLCache} and the Bloom filter in {@link PathManifest}.
+ */
+final class Hashing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    /**
+     * @param bytes the bytes to hash.
+     * @return the hash of all the bytes.
+     */
+    static long hash(byte[] bytes) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b: bytes) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @param bytes the bytes to hash, read with absolute positions.
+     * @param start the position of the first byte to hash (inclusive).
+     * @param end   the position after the last byte to hash (exclusive).
+     * @return the hash of the bytes, the same as {@link #hash(byte[])} for the same bytes.
+     */
+    static long hash(ByteBuffer bytes, int start, int end) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = start ; i < end ; i++) {
+            hash ^= bytes.get(i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
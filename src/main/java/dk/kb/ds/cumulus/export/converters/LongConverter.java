@@ -14,7 +14,6 @@
  */
 package dk.kb.ds.cumulus.export.converters;
 
-import dk.kb.cumulus.CumulusRecord;
 import dk.kb.ds.cumulus.export.FieldMapper;
 import dk.kb.ds.cumulus.export.YAML;
 
@@ -35,8 +34,8 @@ public class LongConverter extends Converter {
     }
 
     @Override
-    public void convertImpl(CumulusRecord record, List<FieldMapper.FieldValue> resultList) throws IllegalStateException {
-        addValue(getValue(record), resultList);
+    public void convertImpl(RecordContext context, List<FieldMapper.FieldValue> resultList) throws IllegalStateException {
+        addValue(getValue(context), resultList);
     }
 
     @Override
@@ -0,0 +1,315 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listing of existing paths, such as all files under {@code /Depot/DAMJP2/}, used by {@link URLConverter} to verify
+ * derived paths without any network traffic.
+ *
+ * The manifest is a text file with one path per line. It is memory-mapped in sorted form and looked up with binary
+ * search on the UTF-8 bytes, so only an {@code int} offset per path is held on the heap. A Bloom filter with 10 bits
+ * per path answers most lookups for missing paths without touching the mapped file.
+ *
+ * If the manifest is not sorted, a sorted copy is written next to it as {@code <manifest>.sorted} and reused as long
+ * as it is newer than the manifest. Lines are sorted by their UTF-8 bytes, as with {@code LC_ALL=C sort -u}. Empty
+ * lines and trailing carriage returns are ignored. The sorted file must be smaller than 2GB.
+ *
+ * The manifest is thread safe and normally shared by all converters using it, see {@link #getShared(Path)}.
+ */
+public class PathManifest {
+    private static final Logger log = LoggerFactory.getLogger(PathManifest.class);
+
+    static final String SORTED_SUFFIX = ".sorted";
+    static final int BLOOM_BITS_PER_PATH = 10;
+    static final int BLOOM_HASHES = 7;
+
+    private static final Map<Path, PathManifest> shared = new HashMap<>();
+
+    private final Path file;
+    private final MappedByteBuffer paths;
+    private final int[] starts;
+    private final long[] bloom;
+    private final long bloomBits;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder bloomRejects = new LongAdder();
+    private final LongAdder found = new LongAdder();
+
+    /**
+     * @param manifest a manifest file.
+     * @return the manifest loaded from the file, shared by all callers asking for the same file.
+     * @throws UncheckedIOException if the manifest could not be loaded.
+     */
+    public static synchronized PathManifest getShared(Path manifest) {
+        return shared.computeIfAbsent(manifest.toAbsolutePath().normalize(), file -> {
+            try {
+                return new PathManifest(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to load path manifest " + file, e);
+            }
+        });
+    }
+
+    /**
+     * Loads the manifest, sorting it first if needed.
+     * @param manifest a text file with one path per line.
+     * @throws IOException if the manifest could not be read or the sorted copy could not be written.
+     */
+    public PathManifest(Path manifest) throws IOException {
+        final long startTime = System.nanoTime();
+        this.file = isSorted(manifest) ? manifest : getSorted(manifest);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The sorted manifest " + file + " is larger than 2GB");
+            }
+            paths = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int count = 0;
+        for (int i = 0 ; i < paths.limit() ; i++) {
+            if (paths.get(i) == '\n') {
+                count++;
+            }
+        }
+        starts = new int[count + 1]; // The extra start marks the end of the last path
+        bloomBits = Math.max(64, (long) count * BLOOM_BITS_PER_PATH);
+        bloom = new long[(int) ((bloomBits + 63) / 64)];
+        int start = 0;
+        int index = 0;
+        for (int i = 0 ; i < paths.limit() ; i++) {
+            if (paths.get(i) == '\n') {
+                starts[index++] = start;
+                addToBloom(Hashing.hash(paths, start, i));
+                start = i + 1;
+            }
+        }
+        starts[count] = start;
+        log.info("Loaded path manifest {} with {} paths in {} ms", file, count,
+                 (System.nanoTime() - startTime) / 1000000);
+    }
+
+    /**
+     * @param path a path, such as {@code /Depot/DAMJP2/ad1/picture.jp2}.
+     * @return true if the path is in the manifest.
+     */
+    public boolean contains(String path) {
+        lookups.increment();
+        final byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        if (!mightContain(Hashing.hash(key))) {
+            bloomRejects.increment();
+            return false;
+        }
+        int low = 0;
+        int high = starts.length - 2;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compare(starts[middle], starts[middle + 1] - 1, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                found.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of paths in the manifest.
+     */
+    public int size() {
+        return starts.length - 1;
+    }
+
+    /**
+     * @return the number of calls to {@link #contains}.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return the number of lookups answered by the Bloom filter without searching the paths.
+     */
+    public long getBloomRejects() {
+        return bloomRejects.sum();
+    }
+
+    /**
+     * @return the number of lookups for paths in the manifest.
+     */
+    public long getFound() {
+        return found.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PathManifest(file=" + file + ", paths=" + size() + ", lookups=" + getLookups() +
+               ", found=" + getFound() + ", bloomRejects=" + getBloomRejects() + ")";
+    }
+
+    /**
+     * Compares the path from start (inclusive) to end (exclusive) in the mapped file with the key, as unsigned bytes.
+     */
+    private int compare(int start, int end, byte[] key) {
+        final int length = Math.min(end - start, key.length);
+        for (int i = 0 ; i < length ; i++) {
+            final int comparison = Integer.compare(paths.get(start + i) & 0xff, key[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(end - start, key.length);
+    }
+
+    /**
+     * Derives the Bloom filter bit positions from the two halves of the hash (Kirsch & Mitzenmacher).
+     */
+    private void addToBloom(long hash) {
+        for (int i = 0 ; i < BLOOM_HASHES ; i++) {
+            final long bit = bloomBit(hash, i);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long hash) {
+        for (int i = 0 ; i < BLOOM_HASHES ; i++) {
+            final long bit = bloomBit(hash, i);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long bloomBit(long hash, int i) {
+        return Long.remainderUnsigned(hash + i * (hash >>> 32 | 1), bloomBits);
+    }
+
+    /**
+     * @return true if the manifest can be used directly: Sorted and unique by UTF-8 bytes, newline terminated and
+     *         without empty lines or carriage returns.
+     */
+    static boolean isSorted(Path manifest) throws IOException {
+        if (Files.size(manifest) == 0) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(manifest, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return false;
+            }
+            final MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final int limit = content.limit();
+            if (content.get(limit - 1) != '\n') {
+                return false;
+            }
+            int previousStart = -1;
+            int previousEnd = -1;
+            int start = 0;
+            for (int i = 0 ; i < limit ; i++) {
+                final byte b = content.get(i);
+                if (b == '\r') {
+                    return false;
+                }
+                if (b == '\n') {
+                    if (i == start) {
+                        return false;
+                    }
+                    if (previousStart >= 0 && compare(content, previousStart, previousEnd, start, i) >= 0) {
+                        return false;
+                    }
+                    previousStart = start;
+                    previousEnd = i;
+                    start = i + 1;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return a sorted copy of the manifest, reusing an existing one if it is newer than the manifest.
+     */
+    private static Path getSorted(Path manifest) throws IOException {
+        final Path sorted = manifest.resolveSibling(manifest.getFileName() + SORTED_SUFFIX);
+        if (Files.exists(sorted) &&
+            Files.getLastModifiedTime(sorted).compareTo(Files.getLastModifiedTime(manifest)) >= 0) {
+            log.debug("Using existing sorted manifest {}", sorted);
+            return sorted;
+        }
+        final long startTime = System.nanoTime();
+        final List<byte[]> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        lines.sort(Arrays::compareUnsigned);
+
+        final Path tmp = sorted.resolveSibling(sorted.getFileName() + ".tmp");
+        int written = 0;
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            byte[] previous = null;
+            for (byte[] line: lines) {
+                if (previous == null || !Arrays.equals(previous, line)) {
+                    out.write(line);
+                    out.write('\n');
+                    written++;
+                }
+                previous = line;
+            }
+        }
+        Files.move(tmp, sorted, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Sorted {} lines from manifest {} into {} unique paths in {} in {} ms",
+                 lines.size(), manifest, written, sorted, (System.nanoTime() - startTime) / 1000000);
+        return sorted;
+    }
+
+    private static int compare(MappedByteBuffer content, int start1, int end1, int start2, int end2) {
+        final int length = Math.min(end1 - start1, end2 - start2);
+        for (int i = 0 ; i < length ; i++) {
+            final int comparison = Integer.compare(content.get(start1 + i) & 0xff, content.get(start2 + i) & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(end1 - start1, end2 - start2);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import com.canto.cumulus.GUID;
+import com.canto.cumulus.Item;
+import com.canto.cumulus.ItemCollection;
+import com.canto.cumulus.fieldvalue.AssetReference;
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.FieldMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A record being converted, shared by all {@link Converter}s for the record, so that expensive lookups are only
+ * done once per record. The values of the source fields are requested from the record the first time they are
+ * needed and reused by later converters with the same source and source type.
+ *
+ * Converters can register {@link Check}s, such as URL verifications, that complete after the conversion. The record
+ * is finished when all checks has completed, see {@link #whenChecked()}.
+ *
+ * A context is used by a single thread at a time and is not thread safe.
+ */
+public class RecordContext {
+    private final CumulusRecord record;
+    private final CatalogLayout layout;
+    private final Map<GUID, AssetReference> renditions = new HashMap<>();
+    private final Map<String, Object> values = new HashMap<>();
+    private final List<Check> checks = new ArrayList<>(0);
+    private Set<Object> marks = null;
+    private int fetches = 0;
+    private int reuses = 0;
+
+    /**
+     * @param record the record to convert.
+     * @param layout the layout of the catalog holding the record. If null, sources are looked up by name.
+     */
+    public RecordContext(CumulusRecord record, CatalogLayout layout) {
+        this.record = record;
+        this.layout = layout;
+    }
+
+    /**
+     * @return the record to convert.
+     */
+    public CumulusRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * @return the layout of the catalog holding the record or null if sources should be looked up by name.
+     */
+    public CatalogLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the value for the source field, requesting it from the record only the first time.
+     * @param source     the source field name.
+     * @param sourceType the type the value is requested as.
+     * @param asString   true if the value is requested as a String regardless of the source type.
+     * @param fetcher    requests the value from the record.
+     * @return the value, which might be null.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getMemoized(String source, Converter.SOURCE_TYPE sourceType, boolean asString, Supplier<T> fetcher) {
+        final String key = (asString ? "s:" : "v:") + sourceType + ":" + source;
+        if (values.containsKey(key)) {
+            reuses++;
+            return (T) values.get(key);
+        }
+        final T value = fetcher.get();
+        fetches++;
+        values.put(key, value);
+        return value;
+    }
+
+    /**
+     * @return the number of source values requested from the record.
+     */
+    public int getFetches() {
+        return fetches;
+    }
+
+    /**
+     * @return the number of source values reused instead of requesting them from the record again.
+     */
+    public int getReuses() {
+        return reuses;
+    }
+
+    /**
+     * Marks the key for the record, for counting something once per record.
+     * @param key any key.
+     * @return true if the key was not marked for the record before.
+     */
+    public boolean markOnce(Object key) {
+        if (marks == null) {
+            marks = new HashSet<>();
+        }
+        return marks.add(key);
+    }
+
+    /**
+     * Registers a check for values that has already been added by a converter.
+     * @param converter the converter that added the values, used for reporting failures.
+     * @param passed    completes with true if the check passed. Exceptions are treated as not passed.
+     * @param onFailure called with all the values for the record if the check did not pass, after all converters
+     *                  has run. This should remove the values and can throw exceptions as {@link Converter#convert}.
+     */
+    public void addCheck(Converter converter, CompletableFuture<Boolean> passed,
+                         Consumer<FieldMapper.FieldValues> onFailure) {
+        checks.add(new Check(converter, passed.exceptionally(e -> false), onFailure));
+    }
+
+    /**
+     * @return the registered checks, in the order they were added.
+     */
+    public List<Check> getChecks() {
+        return checks;
+    }
+
+    /**
+     * @return a future that completes when all registered checks has completed.
+     */
+    public CompletableFuture<Void> whenChecked() {
+        return checks.isEmpty() ? CompletableFuture.completedFuture(null) :
+            CompletableFuture.allOf(checks.stream().map(check -> check.passed).toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Extracts the Asset Reference for the finished JPEG2000 rendition in the Renditions Manager part of the record.
+     * This is used to find the path to the picture server for the record. The result is cached, so the renditions
+     * are only searched once per record.
+     * @param guid the guid of the Renditions Manager.
+     * @return the Asset Reference for the rendition or null if there is no finished JPEG2000 rendition.
+     */
+    public AssetReference getRenditionAssetReference(GUID guid) {
+        if (renditions.containsKey(guid)) {
+            return renditions.get(guid);
+        }
+        AssetReference ar = null;
+        ItemCollection renditionTable = record.getTableValue(guid);
+        if (renditionTable != null) {
+            final String query = layout == null ?
+                CatalogLayout.createRenditionQuery(renditionTable) : layout.getRenditionQuery(renditionTable);
+            renditionTable.find(query, null, null, null);
+            if (renditionTable.getItemCount() == 1) {
+                Item rendition = renditionTable.iterator().next();
+                if (rendition.hasValue(GUID.UID_REC_ASSET_REFERENCE)) {
+                    ar = rendition.getAssetReferenceValue(GUID.UID_REC_ASSET_REFERENCE);
+                }
+            }
+        }
+        renditions.put(guid, ar);
+        return ar;
+    }
+
+    /**
+     * A check registered by a converter, which is applied when it has completed.
+     */
+    public static class Check {
+        public final Converter converter;
+        private final CompletableFuture<Boolean> passed;
+        private final Consumer<FieldMapper.FieldValues> onFailure;
+
+        Check(Converter converter, CompletableFuture<Boolean> passed, Consumer<FieldMapper.FieldValues> onFailure) {
+            this.converter = converter;
+            this.passed = passed;
+            this.onFailure = onFailure;
+        }
+
+        /**
+         * Lets the converter adjust the values if the check did not pass. Waits for the check if it has not completed.
+         * @param fieldValues all the values for the record.
+         * @throws IllegalArgumentException if the combination of input and processing was not valid.
+         * @throws IllegalStateException if the source was required, but its values did not pass the check.
+         */
+        public void apply(FieldMapper.FieldValues fieldValues) {
+            if (!passed.join()) {
+                onFailure.accept(fieldValues);
+            }
+        }
+    }
+}
@@ -14,7 +14,6 @@
  */
 package dk.kb.ds.cumulus.export.converters;
 
-import dk.kb.cumulus.CumulusRecord;
 import dk.kb.ds.cumulus.export.FieldMapper;
 import dk.kb.ds.cumulus.export.YAML;
 import org.slf4j.Logger;
@@ -59,8 +58,8 @@ public class StringConverter extends Converter {
     }
 
     @Override
-    public void convertImpl(CumulusRecord record, List<FieldMapper.FieldValue> resultList) {
-        addValue(convertImpl(getAsString(record)), resultList);
+    public void convertImpl(RecordContext context, List<FieldMapper.FieldValue> resultList) {
+        addValue(convertImpl(getAsString(context)), resultList);
     }
 
     String convertImpl(String input) {
@@ -0,0 +1,268 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Remembers the outcome of URL verifications across runs, so that only new or expired URLs are requested.
+ *
+ * The cache is an open addressing hash table in a memory-mapped file. Each slot holds a 64 bit hash of the URL and
+ * the time of the verification with the outcome in the lowest bit, 16 bytes in total, so millions of URLs take up
+ * tens of megabytes and nothing is held on the heap. The URLs themselves are not stored: Two URLs with the same hash
+ * share an entry, which is unlikely to happen even for hundreds of millions of URLs.
+ *
+ * Passed verifications expire after {@code positiveTTL} and failed ones after {@code negativeTTL}. When the table is
+ * {@link #MAX_LOAD} full, it is rewritten to a file with twice the capacity, leaving out expired entries.
+ *
+ * The cache is thread safe. A crash might lose the latest entries, which are then verified again.
+ */
+public class URLCache implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(URLCache.class);
+
+    static final int MAGIC = 0x55524c43; // URLC
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32; // magic, version, capacity (long), count (long), reserved
+    static final int SLOT_SIZE = 16;   // hash (long), checked-at seconds << 1 | passed (long)
+    static final int MIN_CAPACITY = 1024;
+    static final double MAX_LOAD = 0.7;
+    /** Marks an empty slot. Hashes that are 0 are changed to 1. */
+    private static final long EMPTY = 0;
+
+    private final Path file;
+    private final long positiveTTL;
+    private final long negativeTTL;
+    private final Clock clock;
+
+    private MappedByteBuffer table;
+    private long capacity;
+    private long count;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Opens the cache, creating the file if it does not exist.
+     * @param file        the file holding the cache.
+     * @param positiveTTL how long a passed verification is valid.
+     * @param negativeTTL how long a failed verification is valid.
+     * @throws IOException if the file could not be opened or is not a URL cache.
+     */
+    public URLCache(Path file, Duration positiveTTL, Duration negativeTTL) throws IOException {
+        this(file, positiveTTL, negativeTTL, Clock.systemUTC());
+    }
+
+    URLCache(Path file, Duration positiveTTL, Duration negativeTTL, Clock clock) throws IOException {
+        this.file = file;
+        this.positiveTTL = positiveTTL.getSeconds();
+        this.negativeTTL = negativeTTL.getSeconds();
+        this.clock = clock;
+        if (Files.exists(file) && Files.size(file) > 0) {
+            table = map(file, -1);
+            if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+                throw new IOException("The file " + file + " is not a URL cache of version " + VERSION);
+            }
+            capacity = table.getLong(8);
+            count = table.getLong(16);
+            if (HEADER_SIZE + capacity * SLOT_SIZE > table.capacity()) {
+                throw new IOException("The URL cache " + file + " is truncated");
+            }
+        } else {
+            capacity = MIN_CAPACITY;
+            count = 0;
+            table = create(file, capacity);
+        }
+        log.info("Opened URL cache {} with {} entries", file, count);
+    }
+
+    /**
+     * @param url a URL.
+     * @return true or false if the URL has passed or failed verification within the TTL, null if it must be verified.
+     */
+    public synchronized Boolean get(String url) {
+        final long slot = find(hash(url));
+        final long value = slot < 0 ? 0 : table.getLong(slotOffset(slot) + 8);
+        if (value == 0 || isExpired(value, clock.instant().getEpochSecond())) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (value & 1) == 1;
+    }
+
+    /**
+     * Stores the outcome of a verification made now.
+     * @param url    the verified URL.
+     * @param passed true if the URL passed verification.
+     * @throws IOException if the table had to grow and could not be rewritten.
+     */
+    public synchronized void put(String url, boolean passed) throws IOException {
+        if (count + 1 > capacity * MAX_LOAD) {
+            grow();
+        }
+        put(table, capacity, hash(url), clock.instant().getEpochSecond() << 1 | (passed ? 1 : 0));
+    }
+
+    /**
+     * @return the number of entries, including expired ones.
+     */
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * @return the number of lookups answered by the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups for URLs that were unknown or expired.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Writes the entries to the file.
+     */
+    @Override
+    public synchronized void close() {
+        table.force();
+        log.info("Closed URL cache {} with {} entries. {} lookups were answered by the cache and {} were not",
+                 file, count, hits, misses);
+    }
+
+    private void put(MappedByteBuffer table, long capacity, long hash, long value) {
+        long slot = Long.remainderUnsigned(hash, capacity);
+        while (true) {
+            final int offset = slotOffset(slot);
+            final long existing = table.getLong(offset);
+            if (existing == hash) {
+                table.putLong(offset + 8, value);
+                return;
+            }
+            if (existing == EMPTY) {
+                table.putLong(offset + 8, value); // A key with no value is treated as expired
+                table.putLong(offset, hash);
+                if (table == this.table) {
+                    count++;
+                    table.putLong(16, count);
+                }
+                return;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    /**
+     * @return the slot holding the hash or -1 if it is not in the table.
+     */
+    private long find(long hash) {
+        long slot = Long.remainderUnsigned(hash, capacity);
+        while (true) {
+            final long existing = table.getLong(slotOffset(slot));
+            if (existing == hash) {
+                return slot;
+            }
+            if (existing == EMPTY) {
+                return -1;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    /**
+     * Rewrites the table with twice the capacity, leaving out expired entries.
+     */
+    private void grow() throws IOException {
+        final long now = clock.instant().getEpochSecond();
+        final long newCapacity = capacity * 2;
+        if (HEADER_SIZE + newCapacity * SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("The URL cache " + file + " cannot grow beyond " + capacity + " entries");
+        }
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        final MappedByteBuffer grown = create(tmp, newCapacity);
+        long kept = 0;
+        for (long slot = 0 ; slot < capacity ; slot++) {
+            final long hash = table.getLong(slotOffset(slot));
+            final long value = table.getLong(slotOffset(slot) + 8);
+            if (hash != EMPTY && value != 0 && !isExpired(value, now)) {
+                put(grown, newCapacity, hash, value);
+                kept++;
+            }
+        }
+        grown.putLong(16, kept);
+        grown.force();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Grew URL cache {} from {} to {} slots, keeping {} of {} entries",
+                  file, capacity, newCapacity, kept, count);
+        table = grown;
+        capacity = newCapacity;
+        count = kept;
+    }
+
+    private boolean isExpired(long value, long now) {
+        final long checkedAt = value >>> 1;
+        return now - checkedAt > ((value & 1) == 1 ? positiveTTL : negativeTTL);
+    }
+
+    private static int slotOffset(long slot) {
+        return (int) (HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private static MappedByteBuffer create(Path file, long capacity) throws IOException {
+        final MappedByteBuffer table = map(file, HEADER_SIZE + capacity * SLOT_SIZE);
+        table.putInt(0, MAGIC);
+        table.putInt(4, VERSION);
+        table.putLong(8, capacity);
+        table.putLong(16, 0);
+        return table;
+    }
+
+    /**
+     * @param size the size of a new file, which is created with zeroes. -1 maps an existing file.
+     */
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = size < 0 ?
+            FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE) :
+            FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size < 0 ? channel.size() : size);
+        }
+    }
+
+    /**
+     * {@link Hashing#hash(byte[])} over the UTF-8 bytes, moved off {@link #EMPTY}.
+     */
+    static long hash(String url) {
+        final long hash = Hashing.hash(url.getBytes(StandardCharsets.UTF_8));
+        return hash == EMPTY ? 1 : hash;
+    }
+}
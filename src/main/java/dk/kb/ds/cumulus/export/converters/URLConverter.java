@@ -14,21 +14,29 @@
  */
 package dk.kb.ds.cumulus.export.converters;
 
+import dk.kb.ds.cumulus.export.FieldMapper;
 import dk.kb.ds.cumulus.export.YAML;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 /**
  * Extension of {@link StringConverter} that expects a URL to be generated, then verifies if the URL works.
+ *
+ * Verification is asynchronous: The URL is added to the result right away and a check is registered with the
+ * {@link RecordContext}. If the check fails, the URL is removed again and the record is handled as if no URL was
+ * derived, see {@link Converter#handleMissing}. The requests are sent by the shared {@link URLVerifier}.
+ *
+ * With {@code verifyManifest}, the URL is not requested. Instead the value derived with {@code verifyPattern} and
+ * {@code verifyReplacement} is looked up in a {@link PathManifest}, such as a listing of the files in the image depot.
  */
 public class URLConverter extends StringConverter {
-    private static final Logger log = LoggerFactory.getLogger(StringConverter.class);
+    private static final Logger log = LoggerFactory.getLogger(URLConverter.class);
 
     /**
      * If specified, the value delivered by the super-class {@link StringConverter} will be regexp matched and
@@ -46,70 +54,82 @@ public class URLConverter extends StringConverter {
     public static final String CONF_VERIFY_URL = "verifyURL";
     public static final boolean DEFAULT_VERIFY_URL = true;
 
+    /**
+     * If specified, verification checks that the value derived with {@code verifyPattern} and
+     * {@code verifyReplacement} is a path in the given manifest file instead of sending a HTTP request.
+     * See {@link PathManifest}.
+     */
+    public static final String CONF_VERIFY_MANIFEST = "verifyManifest";
+
     private final boolean verifyURL;
     private final Pattern verifyPattern;
     private final String verifyReplacement;
+    private final URLVerifier verifier;
+    private final PathManifest manifest;
 
     public static void register() {
         ConverterFactory.registerCreator("url", URLConverter::new);
     }
 
     public URLConverter(YAML config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config   configuration for the converter.
+     * @param verifier sends the verification requests. If null, {@link URLVerifier#getShared()} is used if needed.
+     */
+    URLConverter(YAML config, URLVerifier verifier) {
         super(config);
         verifyURL = config.getBoolean(CONF_VERIFY_URL, DEFAULT_VERIFY_URL);
         verifyPattern = config.containsKey(CONF_VERIFY_PATTERN) ?
             Pattern.compile(config.getString(CONF_VERIFY_PATTERN)) : null;
         verifyReplacement = config.getString(CONF_VERIFY_REPLACEMENT, null);
-        HttpURLConnection.setFollowRedirects(false);
+        manifest = verifyURL && config.containsKey(CONF_VERIFY_MANIFEST) ?
+            PathManifest.getShared(Path.of(config.getString(CONF_VERIFY_MANIFEST))) : null;
+        this.verifier = verifyURL && manifest == null && verifier == null ? URLVerifier.getShared() : verifier;
     }
 
+    /**
+     * @return true if the URLs are verified.
+     */
     @Override
-    String convertImpl(String input) {
-        final String url = super.convertImpl(input);
+    public boolean registersChecks() {
+        return verifyURL;
+    }
 
+    @Override
+    public void convertImpl(RecordContext context, List<FieldMapper.FieldValue> resultList) {
+        final String input = getAsString(context);
+        final String url = convertImpl(input);
         if (url == null || !verifyURL) {
-            return url;
-        }
-        boolean ok = resolves(url);
-        if (ok) {
-            log.debug("Server responds HTTP 200 (OK) for '" + url + "' derived from '" + input + "'");
-            return url;
+            addValue(url, resultList);
+            return;
         }
-        log.warn("No resource available for '" + url + "' derived from '" + input + "'");
-        return null;
-    }
-
-    /**
-     * Optionally performs regexp-replace with setup from {@link #CONF_VERIFY_PATTERN} and
-     * {@link #CONF_VERIFY_REPLACEMENT}, then checks server response for the generated URL.
-     * @param url an URL to verify.
-     * @return true if the servere responded HTTP 200 (OK) for the URL.
-     */
-    private boolean resolves(String url) {
+        // Optionally performs regexp-replace with setup from verifyPattern and verifyReplacement before verifying
         final String adjustedURL = getMatchedAndReplaced(verifyPattern, verifyReplacement, url);
         if (adjustedURL == null) {
-            return false;
-        }
-        HttpURLConnection con;
-        try {
-            con = (HttpURLConnection) new URL(adjustedURL).openConnection();
-        } catch (IOException e) {
-            log.warn("Unable to open connection to '" + adjustedURL + "' derived from incoming URL '" + url + "'", e);
-            return false;
-        }
-        try {
-            con.setRequestMethod("HEAD");
-            return con.getResponseCode() == HttpURLConnection.HTTP_OK;
-        } catch (ProtocolException e) {
-            log.warn("Unable to set request method 'HEAD' for '" + adjustedURL + "' derived from incoming URL '" +
-                     url + "'", e);
-        } catch (IOException e) {
-            log.warn("Unable to get response code for '" + adjustedURL + "' derived from incoming URL '" +
-                     url + "'", e);
-        } finally {
-            con.disconnect();
+            log.warn("No resource available for '" + url + "' derived from '" + input + "'");
+            return;
         }
-        return false;
-    }
 
+        final int firstAdded = resultList.size();
+        addValue(url, resultList);
+        final List<FieldMapper.FieldValue> added = new ArrayList<>(resultList.subList(firstAdded, resultList.size()));
+        final CompletableFuture<URLVerifier.Result> result = manifest != null ?
+            CompletableFuture.completedFuture(
+                manifest.contains(adjustedURL) ? URLVerifier.Result.PASSED : URLVerifier.Result.FAILED) :
+            verifier.check(adjustedURL);
+        context.addCheck(this, result.thenApply(r -> r == URLVerifier.Result.PASSED), fieldValues -> {
+            if (result.join() == URLVerifier.Result.REJECTED) {
+                log.warn("Unable to verify '" + url + "' derived from '" + input +
+                         "' as the server is considered down");
+                verifier.addAffectedRecord(context, adjustedURL);
+            } else {
+                log.warn("No resource available for '" + url + "' derived from '" + input + "'");
+            }
+            fieldValues.removeIf(fieldValue -> added.stream().anyMatch(a -> a == fieldValue));
+            handleMissing(context, fieldValues);
+        });
+    }
 }
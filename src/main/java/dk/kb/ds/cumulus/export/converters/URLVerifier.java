@@ -0,0 +1,511 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import dk.kb.ds.cumulus.export.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies that URLs resolve by sending asynchronous HTTP HEAD requests. A URL passes if the server responds
+ * HTTP 200 (OK). Redirects are not followed.
+ *
+ * At most {@code maxConcurrency} requests are in flight at any time. Further requests are queued without blocking
+ * the caller and sent when a request completes. Connections are kept alive and reused for later requests to the same
+ * host, see {@link HttpClient}.
+ *
+ * If a {@link URLCache} is given, URLs verified within its TTLs are answered from the cache and only new or expired
+ * URLs are requested. Only definitive answers are cached, such as HTTP 200 and 404. Server errors (HTTP 5xx) are
+ * often transient and are not cached, just like network errors.
+ *
+ * Requests that do not connect within {@code connectTimeout} or get no response within {@code timeout} fail. If
+ * {@code hedgeDelay} is given and a request has not completed after that time, a second request for the same URL is
+ * sent if a permit is free, and the first response is used. This cuts the tail latency from a single slow connection.
+ *
+ * Each host has a circuit breaker. After {@code breakerFailures} consecutive network errors or HTTP 5xx responses,
+ * the breaker opens and URLs on the host fail right away without a request. After {@code breakerPause}, a single
+ * request is let through: If it succeeds the breaker closes, else it stays open for another pause. The records
+ * affected by open breakers are reported by the converters through {@link #addAffectedRecord}, so that a record with
+ * several URLs on a host is counted once. The number of affected records is logged and available from
+ * {@link #getAffectedRecords()}.
+ *
+ * The verifier is thread safe and normally shared by all {@link URLConverter}s, see {@link #getShared()}.
+ */
+public class URLVerifier {
+    private static final Logger log = LoggerFactory.getLogger(URLVerifier.class);
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    public static final int DEFAULT_BREAKER_FAILURES = 5;
+    public static final Duration DEFAULT_BREAKER_PAUSE = Duration.ofSeconds(30);
+
+    /**
+     * The outcome of a verification.
+     */
+    public enum Result {
+        /** The server responded HTTP 200 (OK). */
+        PASSED,
+        /** The URL could not be requested or the server did not respond HTTP 200. */
+        FAILED,
+        /** The URL was not requested, as the circuit breaker for the host was open. */
+        REJECTED
+    }
+
+    private static URLVerifier shared = null;
+
+    private final int maxConcurrency;
+    private final URLCache cache;
+    private final Duration timeout;
+    private final Duration hedgeDelay;
+    private final int breakerFailures;
+    private final long breakerPauseNanos;
+    private final HttpClient client;
+    private final Semaphore permits;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final Map<String, HostBreaker> breakers = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder affectedRecords = new LongAdder();
+
+    /**
+     * @return the verifier shared by all converters, created from the {@code urlverification} part of the
+     *         {@link Configuration} the first time it is requested.
+     * @throws UncheckedIOException if the URL cache could not be opened.
+     */
+    public static synchronized URLVerifier getShared() {
+        if (shared == null) {
+            final Path cacheFile = Configuration.getURLCacheFile();
+            try {
+                shared = new URLVerifier(
+                    Configuration.getURLVerifyConcurrency(),
+                    cacheFile == null ? null : new URLCache(
+                        cacheFile, Configuration.getURLCachePositiveTTL(), Configuration.getURLCacheNegativeTTL()),
+                    Configuration.getURLVerifyConnectTimeout(), Configuration.getURLVerifyTimeout(),
+                    Configuration.getURLVerifyHedgeDelay(),
+                    Configuration.getURLVerifyBreakerFailures(), Configuration.getURLVerifyBreakerPause());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open URL cache " + cacheFile, e);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Logs the statistics of the shared verifier and closes its cache, if it has been created.
+     * Call this when all verifications has completed.
+     */
+    public static synchronized void closeShared() {
+        if (shared != null) {
+            log.info("Verified URLs with {}", shared);
+            if (shared.cache != null) {
+                shared.cache.close();
+            }
+        }
+        shared = null;
+    }
+
+    /**
+     * @param maxConcurrency the maximum number of requests in flight, at least 1.
+     */
+    public URLVerifier(int maxConcurrency) {
+        this(maxConcurrency, null);
+    }
+
+    /**
+     * @param maxConcurrency the maximum number of requests in flight, at least 1.
+     * @param cache          if not null, previous verifications are reused and new ones are added.
+     */
+    public URLVerifier(int maxConcurrency, URLCache cache) {
+        this(maxConcurrency, cache, DEFAULT_CONNECT_TIMEOUT, DEFAULT_TIMEOUT, null,
+             DEFAULT_BREAKER_FAILURES, DEFAULT_BREAKER_PAUSE);
+    }
+
+    /**
+     * @param maxConcurrency  the maximum number of requests in flight, at least 1.
+     * @param cache           if not null, previous verifications are reused and new ones are added.
+     * @param connectTimeout  the maximum time to wait for a connection.
+     * @param timeout         the maximum time to wait for the response after the request has been sent.
+     * @param hedgeDelay      the time before a hedged request is sent for a slow request. null disables hedging.
+     * @param breakerFailures the number of consecutive failures before a host is considered down. 0 disables the
+     *                        circuit breakers.
+     * @param breakerPause    the time before a host that is considered down is tried again.
+     */
+    public URLVerifier(int maxConcurrency, URLCache cache, Duration connectTimeout, Duration timeout,
+                       Duration hedgeDelay, int breakerFailures, Duration breakerPause) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1, but was " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.cache = cache;
+        this.timeout = timeout;
+        this.hedgeDelay = hedgeDelay;
+        this.breakerFailures = breakerFailures;
+        this.breakerPauseNanos = breakerPause.toNanos();
+        this.permits = new Semaphore(maxConcurrency);
+        // HTTP/1.1 as HTTP/2 upgrade attempts are not understood by all image servers
+        this.client = HttpClient.newBuilder().
+            version(HttpClient.Version.HTTP_1_1).
+            followRedirects(HttpClient.Redirect.NEVER).
+            connectTimeout(connectTimeout).
+            build();
+        log.info("Created URL verifier with at most {} concurrent requests, {} ms connect timeout, {} ms timeout, " +
+                 "{}, {} and {}",
+                 maxConcurrency, connectTimeout.toMillis(), timeout.toMillis(),
+                 hedgeDelay == null ? "no hedging" : "hedging after " + hedgeDelay.toMillis() + " ms",
+                 breakerFailures == 0 ? "no circuit breakers" :
+                     "circuit breakers opening for " + breakerPause.toSeconds() + " seconds after " +
+                     breakerFailures + " failures",
+                 cache == null ? "no cache" : "cache");
+    }
+
+    /**
+     * Requests the URL with HTTP HEAD, without blocking.
+     * @param url the URL to verify.
+     * @return a future that completes with true if the server responded HTTP 200 (OK), else false.
+     *         The future never completes exceptionally.
+     */
+    public CompletableFuture<Boolean> verify(String url) {
+        return check(url).thenApply(result -> result == Result.PASSED);
+    }
+
+    /**
+     * Requests the URL with HTTP HEAD, without blocking.
+     * @param url the URL to verify.
+     * @return a future that completes with the outcome of the verification. The future never completes
+     *         exceptionally.
+     */
+    public CompletableFuture<Result> check(String url) {
+        final Boolean cached = cache == null ? null : cache.get(url);
+        if (cached != null) {
+            if (!cached) {
+                failures.increment();
+            }
+            return CompletableFuture.completedFuture(cached ? Result.PASSED : Result.FAILED);
+        }
+        final HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url)).
+                method("HEAD", HttpRequest.BodyPublishers.noBody()).
+                timeout(timeout).
+                build();
+        } catch (IllegalArgumentException e) {
+            log.warn("Unable to create a request for '" + url + "'", e);
+            failures.increment();
+            return CompletableFuture.completedFuture(Result.FAILED);
+        }
+        final HostBreaker breaker = getBreaker(request.uri());
+        if (breaker != null && breaker.isOpen()) {
+            reject();
+            return CompletableFuture.completedFuture(Result.REJECTED);
+        }
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+        waiting.add(() -> send(url, request, breaker, result));
+        dispatch();
+        return result;
+    }
+
+    /**
+     * @return the maximum number of requests in flight.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the number of requests sent, including hedged requests.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of hedged requests sent.
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return the number of URLs that could not be requested or did not respond HTTP 200, including rejected URLs.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of URLs that failed without a request because the circuit breaker for the host was open.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Counts a record that lost a value because the URL was {@link Result#REJECTED}. The record is counted once in
+     * total and once for each host, no matter how many of its URLs were rejected.
+     * @param context the record.
+     * @param url     the rejected URL.
+     */
+    public void addAffectedRecord(RecordContext context, String url) {
+        final HostBreaker breaker = getBreaker(URI.create(url));
+        if (breaker != null && context.markOnce(breaker)) {
+            breaker.addAffectedRecord();
+        }
+        if (context.markOnce(this)) {
+            affectedRecords.increment();
+        }
+    }
+
+    /**
+     * @return the number of records that lost values because a circuit breaker was open.
+     */
+    public long getAffectedRecords() {
+        return affectedRecords.sum();
+    }
+
+    /**
+     * @return the number of records affected by the circuit breaker for each host that has affected any.
+     */
+    public Map<String, Long> getAffectedRecordsByHost() {
+        final Map<String, Long> byHost = new TreeMap<>();
+        breakers.forEach((host, breaker) -> {
+            if (breaker.getAffectedRecords() > 0) {
+                byHost.put(host, breaker.getAffectedRecords());
+            }
+        });
+        return byHost;
+    }
+
+    @Override
+    public String toString() {
+        return "URLVerifier(requests=" + getRequests() + ", hedges=" + getHedges() + ", failures=" + getFailures() +
+               ", rejectedURLs=" + getRejected() + ", affectedRecords=" + getAffectedRecords() + " " +
+               getAffectedRecordsByHost() + ")";
+    }
+
+    /**
+     * Sends waiting requests while there are free permits. Called whenever a request is queued or completed, so
+     * that no request is left waiting while a permit is free.
+     */
+    private void dispatch() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            final Runnable next = waiting.poll();
+            if (next == null) {
+                permits.release();
+                return;
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * Sends the request, holding a permit, and optionally a hedged request. The breaker is checked again as it might
+     * have opened while the request was waiting.
+     */
+    private void send(String url, HttpRequest request, HostBreaker breaker, CompletableFuture<Result> result) {
+        if (breaker != null && !breaker.tryRequest()) {
+            permits.release();
+            reject();
+            result.complete(Result.REJECTED);
+            dispatch();
+            return;
+        }
+        final CompletableFuture<HttpResponse<Void>> response = new CompletableFuture<>();
+        final AtomicInteger attempts = new AtomicInteger(1);
+        sendAttempt(request, response, attempts);
+        if (hedgeDelay != null) {
+            CompletableFuture.delayedExecutor(hedgeDelay.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+                if (!response.isDone() && permits.tryAcquire()) {
+                    attempts.incrementAndGet();
+                    hedges.increment();
+                    log.debug("Sending hedged request for '{}'", url);
+                    sendAttempt(request, response, attempts);
+                }
+            });
+        }
+        response.whenComplete((httpResponse, exception) -> {
+            if (exception != null) {
+                log.warn("Unable to get response code for '" + request.uri() + "'", exception);
+                if (breaker != null) {
+                    breaker.failure();
+                }
+                complete(result, false);
+                return;
+            }
+            if (breaker != null) {
+                if (httpResponse.statusCode() >= 500) {
+                    breaker.failure();
+                } else {
+                    breaker.success();
+                }
+            }
+            final boolean passed = httpResponse.statusCode() == 200;
+            if (cache != null && httpResponse.statusCode() < 500) {
+                try {
+                    cache.put(url, passed);
+                } catch (IOException e) {
+                    log.warn("Unable to cache the verification of '" + url + "'", e);
+                }
+            }
+            complete(result, passed);
+        });
+    }
+
+    /**
+     * Sends a single request that holds a permit until it completes. The response completes with the first response
+     * or, if all attempts fail, with the last exception.
+     */
+    private void sendAttempt(HttpRequest request, CompletableFuture<HttpResponse<Void>> response,
+                             AtomicInteger attempts) {
+        requests.increment();
+        try {
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).
+                whenComplete((httpResponse, exception) -> {
+                    permits.release();
+                    dispatch();
+                    if (exception == null) {
+                        response.complete(httpResponse);
+                    } else if (attempts.decrementAndGet() == 0) {
+                        response.completeExceptionally(exception);
+                    }
+                });
+        } catch (RuntimeException e) {
+            permits.release();
+            if (attempts.decrementAndGet() == 0) {
+                response.completeExceptionally(e);
+            }
+            dispatch();
+        }
+    }
+
+    private HostBreaker getBreaker(URI uri) {
+        if (breakerFailures == 0 || uri.getHost() == null) {
+            return null;
+        }
+        return breakers.computeIfAbsent(uri.getHost() + ":" + uri.getPort(), HostBreaker::new);
+    }
+
+    private void reject() {
+        rejected.increment();
+        failures.increment();
+    }
+
+    private void complete(CompletableFuture<Result> result, boolean passed) {
+        if (!passed) {
+            failures.increment();
+        }
+        result.complete(passed ? Result.PASSED : Result.FAILED);
+    }
+
+    /**
+     * The circuit breaker for a single host. Closed while the host works, open while it is considered down and
+     * half-open when a single trial request is let through after the pause.
+     */
+    private class HostBreaker {
+        private final String host;
+        private int consecutiveFailures = 0;
+        private long openedAt = 0;
+        private long retryAt = 0;
+        private boolean open = false;
+        private boolean trialInFlight = false;
+        private long rejectedWhileOpen = 0;
+        private long affectedRecords = 0;
+
+        HostBreaker(String host) {
+            this.host = host;
+        }
+
+        /**
+         * @return true if URLs on the host should be rejected without queuing a request.
+         */
+        synchronized boolean isOpen() {
+            if (open && (trialInFlight || System.nanoTime() - retryAt < 0)) {
+                rejectedWhileOpen++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if a request may be sent. When the breaker is open and the pause has passed, this lets a
+         *         single trial request through.
+         */
+        synchronized boolean tryRequest() {
+            if (!open) {
+                return true;
+            }
+            if (!trialInFlight && System.nanoTime() - retryAt >= 0) {
+                trialInFlight = true;
+                return true;
+            }
+            rejectedWhileOpen++;
+            return false;
+        }
+
+        synchronized void success() {
+            consecutiveFailures = 0;
+            if (open) {
+                log.info("Closed circuit breaker for {} after {} ms. {} URLs were rejected while it was open",
+                         host, (System.nanoTime() - openedAt) / 1000000, rejectedWhileOpen);
+                open = false;
+                trialInFlight = false;
+                rejectedWhileOpen = 0;
+            }
+        }
+
+        synchronized void failure() {
+            consecutiveFailures++;
+            if (open) {
+                trialInFlight = false;
+                retryAt = System.nanoTime() + breakerPauseNanos;
+            } else if (consecutiveFailures >= breakerFailures) {
+                log.warn("Opened circuit breaker for {} after {} consecutive failures. URLs on the host fail " +
+                         "without requests for the next {} seconds", host, consecutiveFailures,
+                         breakerPauseNanos / 1000000000L);
+                open = true;
+                openedAt = System.nanoTime();
+                retryAt = openedAt + breakerPauseNanos;
+            }
+        }
+
+        synchronized void addAffectedRecord() {
+            affectedRecords++;
+        }
+
+        synchronized long getAffectedRecords() {
+            return affectedRecords;
+        }
+    }
+}
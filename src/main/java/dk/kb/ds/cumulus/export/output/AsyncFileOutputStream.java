@@ -0,0 +1,302 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes to a file from a dedicated I/O thread, so that a stalling disk or network mount does not block the caller
+ * until all buffers are full.
+ *
+ * The bytes are collected in a ring of direct buffers. A full buffer is handed to the I/O thread, which writes it to
+ * a {@link FileChannel} and returns it to the ring. The caller only waits if all buffers are waiting to be written.
+ * The time spent waiting is measured and logged when the stream is closed, together with the time the I/O thread
+ * spent writing and syncing.
+ *
+ * {@link #flush()} waits until all bytes has been written to the file, so it can be used before storing a checkpoint.
+ */
+public class AsyncFileOutputStream extends OutputStream {
+    private static final Logger log = LoggerFactory.getLogger(AsyncFileOutputStream.class);
+
+    /** When to force written bytes to the storage device. */
+    public enum FsyncPolicy {
+        /** Leave it to the operating system. */
+        NONE,
+        /** When the stream is closed. */
+        CLOSE,
+        /** When the stream is flushed or closed. */
+        FLUSH,
+        /** After every buffer. */
+        ALWAYS;
+
+        /**
+         * @param name the name of a policy, case insensitive.
+         * @return the policy with the given name.
+         */
+        public static FsyncPolicy fromName(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** Marks the end of the stream for the I/O thread. Compared by identity. */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> full;
+    private final Thread ioThread;
+    private final long created = System.nanoTime();
+
+    private ByteBuffer current;
+    private long submitted = 0;
+    private long waitNanos = 0;
+    private boolean closed = false;
+
+    // Updated by the I/O thread
+    private final Object writtenLock = new Object();
+    private long written = 0;
+    private volatile long writeNanos = 0;
+    private volatile long fsyncNanos = 0;
+    private volatile long bytes = 0;
+    private volatile IOException failure = null;
+
+    /**
+     * @param file        the file to write to.
+     * @param append      if true, bytes are appended to an existing file, else any existing file is overwritten.
+     * @param buffers     the number of buffers, at least 2.
+     * @param bufferSize  the size of each buffer in bytes.
+     * @param fsyncPolicy when to force the written bytes to the storage device.
+     * @throws IOException if the file could not be opened.
+     */
+    public AsyncFileOutputStream(Path file, boolean append, int buffers, int bufferSize, FsyncPolicy fsyncPolicy)
+        throws IOException {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("There must be at least 2 buffers, but there was " + buffers);
+        }
+        this.file = file;
+        this.fsyncPolicy = fsyncPolicy;
+        this.channel = append ?
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND) :
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING);
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.full = new ArrayBlockingQueue<>(buffers + 1); // Room for END
+        for (int i = 1 ; i < buffers ; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.current = ByteBuffer.allocateDirect(bufferSize);
+        this.ioThread = new Thread(this::drain, "async-output-" + threadCounter.incrementAndGet());
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!current.hasRemaining()) {
+            submit();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                submit();
+            }
+            final int chunk = Math.min(len, current.remaining());
+            current.put(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Waits until all bytes has been written to the file. With {@link FsyncPolicy#FLUSH}, the file is also synced.
+     * @throws IOException if the bytes could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        submit();
+        waitForWritten();
+        if (fsyncPolicy == FsyncPolicy.FLUSH) {
+            fsync();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes, syncs the file unless the policy is {@link FsyncPolicy#NONE} and closes it.
+     * @throws IOException if the bytes could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit();
+            putFull(END);
+            ioThread.join();
+            checkFailure();
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                fsync();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + file + " to be written", e);
+        } finally {
+            channel.close();
+        }
+        final long openNanos = System.nanoTime() - created;
+        log.info(String.format(
+            Locale.ROOT, "Wrote %d bytes to %s. Waited %d ms for I/O (%.1f%% of the %d ms the file was open). " +
+                         "The I/O thread spent %d ms writing and %d ms syncing",
+            bytes, file, waitNanos / 1000000, openNanos == 0 ? 0.0 : waitNanos * 100.0 / openNanos,
+            openNanos / 1000000, writeNanos / 1000000, fsyncNanos / 1000000));
+    }
+
+    /**
+     * @return the time the caller has spent waiting for buffers to be written, in nanoseconds.
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return the time the I/O thread has spent writing, in nanoseconds.
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Hands the current buffer to the I/O thread, if it holds any bytes, and takes a free buffer.
+     */
+    private void submit() throws IOException {
+        checkFailure();
+        if (current.position() == 0) {
+            return;
+        }
+        current.flip();
+        putFull(current);
+        submitted++;
+
+        final long start = System.nanoTime();
+        try {
+            ByteBuffer next;
+            while ((next = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            current = next;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a free buffer for " + file, e);
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+        current.clear();
+    }
+
+    private void putFull(ByteBuffer buffer) throws IOException {
+        try {
+            full.put(buffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while handing buffer for " + file + " to the I/O thread", e);
+        }
+    }
+
+    private void waitForWritten() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            synchronized (writtenLock) {
+                while (written < submitted) {
+                    checkFailure();
+                    writtenLock.wait(100);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + file + " to be written", e);
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+        checkFailure();
+    }
+
+    private void fsync() throws IOException {
+        final long start = System.nanoTime();
+        channel.force(false);
+        fsyncNanos += System.nanoTime() - start;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Exception writing to " + file, failure);
+        }
+    }
+
+    /**
+     * The loop of the I/O thread. After a failure, buffers are still returned, so that the caller is not blocked.
+     */
+    private void drain() {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = full.take()) != END) {
+                if (failure == null) {
+                    try {
+                        final long start = System.nanoTime();
+                        final int length = buffer.remaining();
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        writeNanos += System.nanoTime() - start;
+                        bytes += length;
+                        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                            fsync();
+                        }
+                    } catch (IOException e) {
+                        log.error("Exception writing to " + file, e);
+                        failure = e;
+                    }
+                }
+                free.put(buffer);
+                synchronized (writtenLock) {
+                    written++;
+                    writtenLock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new IOException("The I/O thread was interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for converted documents. Implementations must be thread safe.
+ */
+public interface DocumentWriter extends Closeable {
+
+    /**
+     * Writes the given fieldValues as a single Solr document.
+     * @param fieldValues the content of a single Solr document.
+     * @throws java.io.UncheckedIOException if the document could not be written.
+     */
+    void write(FieldMapper.FieldValues fieldValues);
+
+    /**
+     * Flushes all written documents to the destination.
+     * @return the number of bytes at the destination after flushing, or -1 if the writer does not support
+     *         byte-precise positions, in which case it cannot be used with checkpoints.
+     * @throws IOException if the content could not be flushed.
+     */
+    long flush() throws IOException;
+
+    /**
+     * @return the number of documents written until now.
+     */
+    long getDocumentCount();
+
+    /**
+     * The count is approximate, as it lags behind the written documents when the content is buffered, and
+     * uncompressed, as it is measured before any compression.
+     * @return the approximate number of bytes written until now.
+     */
+    long getByteCount();
+}
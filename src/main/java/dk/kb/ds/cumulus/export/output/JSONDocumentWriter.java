@@ -0,0 +1,181 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link FieldMapper.FieldValues} as Solr JSON documents, either as a single JSON array for {@code /update}
+ * or as newline delimited JSON objects for {@code /update/json/docs}. Fields with multiple values are written as
+ * arrays. Writing is synchronized, so a single writer can be shared between threads.
+ */
+public class JSONDocumentWriter implements DocumentWriter {
+    private static final Logger log = LoggerFactory.getLogger(JSONDocumentWriter.class);
+
+    private static final String ARRAY_START = "[";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final OutputStream out;
+    private final boolean ndjson;
+    private final StringBuilder buffer = new StringBuilder();
+    private boolean first;
+    private long documentCount = 0;
+    private long byteCount;
+
+    /**
+     * Creates a writer that either starts a new JSON document or continues an existing one.
+     * @param out           the destination for the JSON. This will be closed when the writer is closed.
+     * @param ndjson        if true, the documents are written as newline delimited JSON objects,
+     *                      else as a single JSON array.
+     * @param existingBytes if 0, a new JSON document is started. If above 0, out is expected to be appended to a
+     *                      document with this number of bytes, ending with a complete document, as done when
+     *                      resuming a previous export.
+     * @throws IOException if the start of the JSON could not be written.
+     */
+    public JSONDocumentWriter(OutputStream out, boolean ndjson, long existingBytes) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.byteCount = existingBytes;
+        this.ndjson = ndjson;
+        // An existing document holding only the start of the array has no documents to separate from
+        this.first = existingBytes <= ARRAY_START.length();
+        if (!ndjson && existingBytes == 0) {
+            writeBytes(ARRAY_START);
+        }
+    }
+
+    /**
+     * Writes the given fieldValues as a JSON object.
+     * @param fieldValues the content of a single Solr document.
+     */
+    @Override
+    public synchronized void write(FieldMapper.FieldValues fieldValues) {
+        buffer.setLength(0);
+        if (!ndjson) {
+            buffer.append(first ? "\n" : ",\n");
+        }
+        buffer.append('{');
+        boolean firstField = true;
+        for (Map.Entry<String, List<String>> entry: fieldValues.getGroupedValues().entrySet()) {
+            if (!firstField) {
+                buffer.append(',');
+            }
+            firstField = false;
+            appendString(entry.getKey());
+            buffer.append(':');
+            final List<String> values = entry.getValue();
+            if (values.size() == 1) {
+                appendString(values.get(0));
+            } else {
+                buffer.append('[');
+                for (int i = 0 ; i < values.size() ; i++) {
+                    if (i > 0) {
+                        buffer.append(',');
+                    }
+                    appendString(values.get(i));
+                }
+                buffer.append(']');
+            }
+        }
+        buffer.append('}');
+        if (ndjson) {
+            buffer.append('\n');
+        }
+        try {
+            writeBytes(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write JSON document", e);
+        }
+        first = false;
+        documentCount++;
+    }
+
+    /**
+     * Writes the content as UTF-8 and counts the bytes, so that the count is exact even though out is buffered.
+     */
+    private void writeBytes(CharSequence content) throws IOException {
+        final byte[] utf8 = content.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(utf8);
+        byteCount += utf8.length;
+    }
+
+    private void appendString(String value) {
+        buffer.append('"');
+        for (int i = 0 ; i < value.length() ; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':  buffer.append("\\\""); break;
+                case '\\': buffer.append("\\\\"); break;
+                case '\n': buffer.append("\\n"); break;
+                case '\r': buffer.append("\\r"); break;
+                case '\t': buffer.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        buffer.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        buffer.append(c);
+                    }
+            }
+        }
+        buffer.append('"');
+    }
+
+    @Override
+    public synchronized long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Flushes all written documents to the underlying stream.
+     * @return the number of bytes in the document after flushing, including existing bytes when continuing a
+     *         document.
+     * @throws IOException if the content could not be flushed.
+     */
+    @Override
+    public synchronized long flush() throws IOException {
+        out.flush();
+        return byteCount;
+    }
+
+    @Override
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Ends the JSON array, if used, and closes the underlying stream.
+     * @throws IOException if the end of the JSON could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (!ndjson) {
+                writeBytes("\n]\n");
+            }
+        } finally {
+            out.close();
+        }
+        log.debug("Closed JSON output after writing {} documents", documentCount);
+    }
+}
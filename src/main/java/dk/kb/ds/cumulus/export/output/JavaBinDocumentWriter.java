@@ -0,0 +1,190 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link FieldMapper.FieldValues} as a single Solr JavaBin update request, which can be posted to
+ * {@code /update} with content type {@code application/javabin}. Writing is synchronized, so a single writer can be
+ * shared between threads.
+ *
+ * Only the parts of the JavaBin format needed for string fields are implemented, following {@code JavaBinCodec} and
+ * {@code JavaBinUpdateRequestCodec} from SolrJ: The request is a named list with empty {@code params} and a
+ * {@code docs} iterator of {@code SolrInputDocument}s. Field names are written once and referenced by number
+ * afterwards (JavaBin extern strings), so the per-document overhead is small.
+ *
+ * The extern strings depend on everything written before, so a JavaBin document cannot be continued after a restart.
+ */
+public class JavaBinDocumentWriter implements DocumentWriter {
+    private static final Logger log = LoggerFactory.getLogger(JavaBinDocumentWriter.class);
+
+    // Constants from org.apache.solr.common.util.JavaBinCodec
+    static final byte VERSION = 2;
+    static final byte FLOAT = 8;
+    static final byte ITERATOR = 14;
+    static final byte END = 15;
+    static final byte SOLRINPUTDOC = 16;
+    static final byte STR = (byte) (1 << 5);
+    static final byte ARR = (byte) (4 << 5);
+    static final byte NAMED_LST = (byte) (6 << 5);
+    static final byte EXTERN_STRING = (byte) (7 << 5);
+
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final Map<String, Integer> externStrings = new HashMap<>();
+    private long documentCount = 0;
+
+    /**
+     * Creates a writer and writes the start of the update request.
+     * @param out the destination for the JavaBin. This will be closed when the writer is closed.
+     * @throws IOException if the start of the request could not be written.
+     */
+    public JavaBinDocumentWriter(OutputStream out) throws IOException {
+        this.counter = new CountingOutputStream(out, 0);
+        this.out = new DataOutputStream(new BufferedOutputStream(counter));
+        this.out.writeByte(VERSION);
+        writeTag(NAMED_LST, 2);
+        writeExternString("params");
+        writeTag(NAMED_LST, 0);
+        writeExternString("docs");
+        this.out.writeByte(ITERATOR);
+    }
+
+    /**
+     * Writes the given fieldValues as a {@code SolrInputDocument}.
+     * @param fieldValues the content of a single Solr document.
+     */
+    @Override
+    public synchronized void write(FieldMapper.FieldValues fieldValues) {
+        final Map<String, List<String>> fields = fieldValues.getGroupedValues();
+        try {
+            out.writeByte(SOLRINPUTDOC);
+            writeVInt(fields.size());
+            out.writeByte(FLOAT);
+            out.writeFloat(1f); // Document boost, no longer used by Solr but still part of the format
+            for (Map.Entry<String, List<String>> entry: fields.entrySet()) {
+                writeExternString(entry.getKey());
+                final List<String> values = entry.getValue();
+                if (values.size() == 1) {
+                    writeString(values.get(0));
+                } else {
+                    writeTag(ARR, values.size());
+                    for (String value: values) {
+                        writeString(value);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write JavaBin document", e);
+        }
+        documentCount++;
+    }
+
+    @Override
+    public synchronized long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Flushes all written documents to the underlying stream.
+     * @return always -1, as a JavaBin document cannot be continued.
+     * @throws IOException if the content could not be flushed.
+     */
+    @Override
+    public synchronized long flush() throws IOException {
+        out.flush();
+        return -1;
+    }
+
+    @Override
+    public synchronized long getByteCount() {
+        return counter.getCount();
+    }
+
+    /**
+     * Ends the docs iterator and closes the underlying stream.
+     * @throws IOException if the end of the request could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.writeByte(END);
+        } finally {
+            out.close();
+        }
+        log.debug("Closed JavaBin output after writing {} documents", documentCount);
+    }
+
+    /**
+     * Writes the first occurrence of a string in full and later occurrences as a reference.
+     */
+    private void writeExternString(String s) throws IOException {
+        final Integer index = externStrings.get(s);
+        if (index != null) {
+            writeTag(EXTERN_STRING, index);
+            return;
+        }
+        writeTag(EXTERN_STRING, 0);
+        writeString(s);
+        externStrings.put(s, externStrings.size() + 1);
+    }
+
+    private void writeString(String s) throws IOException {
+        final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeTag(STR, utf8.length);
+        out.write(utf8);
+    }
+
+    /**
+     * Writes a tag with a size. Tags with type bits have room for sizes below 31 in the tag byte itself.
+     */
+    private void writeTag(byte tag, int size) throws IOException {
+        if ((tag & 0xe0) != 0) {
+            if (size < 0x1f) {
+                out.writeByte(tag | size);
+            } else {
+                out.writeByte(tag | 0x1f);
+                writeVInt(size - 0x1f);
+            }
+        } else {
+            out.writeByte(tag);
+            writeVInt(size);
+        }
+    }
+
+    /**
+     * Writes a variable length int with 7 bits per byte, least significant first.
+     */
+    private void writeVInt(int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            out.writeByte((byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        out.writeByte((byte) i);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * The supported formats for Solr documents.
+ */
+public enum OutputFormat {
+    /** Solr XML, with all documents in a single {@code <add>} element. */
+    XML(true, "application/xml; charset=UTF-8"),
+    /** Solr JSON, with all documents in a single array. */
+    JSON(true, "application/json; charset=UTF-8"),
+    /** Newline delimited Solr JSON, with one document per line. */
+    NDJSON(true, "application/json; charset=UTF-8"),
+    /** Solr JavaBin, as a single update request. */
+    JAVABIN(false, "application/javabin");
+
+    private final boolean resumable;
+    private final String contentType;
+
+    OutputFormat(boolean resumable, String contentType) {
+        this.resumable = resumable;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return the HTTP content type for sending documents in this format to Solr.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return true if an output in this format can be continued after a restart, making checkpoints possible.
+     */
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Creates a writer for this format.
+     * @param out           the destination for the documents. This will be closed when the writer is closed.
+     * @param existingBytes 0 for a new output. If above 0, out is expected to be appended to an output with this
+     *                      number of bytes, as done when resuming a previous export. Only allowed for resumable
+     *                      formats.
+     * @return a writer, ready for use.
+     * @throws IOException if the start of the output could not be written.
+     */
+    public DocumentWriter open(OutputStream out, long existingBytes) throws IOException {
+        if (existingBytes > 0 && !resumable) {
+            throw new IllegalArgumentException("The format " + this + " cannot be continued");
+        }
+        switch (this) {
+            case XML:     return new XMLDocumentWriter(out, existingBytes);
+            case JSON:    return new JSONDocumentWriter(out, false, existingBytes);
+            case NDJSON:  return new JSONDocumentWriter(out, true, existingBytes);
+            case JAVABIN: return new JavaBinDocumentWriter(out);
+        }
+        throw new AssertionError(this); // The switch covers all formats
+    }
+
+    /**
+     * @param name the name of a format, case insensitive.
+     * @return the format with the given name.
+     * @throws IllegalArgumentException if there is no format with the given name.
+     */
+    public static OutputFormat fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "Unknown format '" + name + "'. Valid formats are " +
+                Arrays.stream(values()).map(f -> f.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")));
+        }
+    }
+}
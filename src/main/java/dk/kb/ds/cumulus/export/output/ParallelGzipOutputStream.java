@@ -0,0 +1,228 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compresses the stream using multiple threads, in the same way as
+ * <a href="https://zlib.net/pigz/">pigz</a>: The input is divided into blocks that are deflated independently, each
+ * primed with the last 32KB of the previous block as dictionary to keep the compression ratio. The compressed blocks
+ * are written in order as a single standard gzip member, readable by gunzip and {@link java.util.zip.GZIPInputStream}.
+ *
+ * At most {@code 2 * threads} blocks are being compressed at any time, so a slow destination will block the writer.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    private static final Logger log = LoggerFactory.getLogger(ParallelGzipOutputStream.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    /** The maximum size of a deflate dictionary. */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] GZIP_HEADER = new byte[]{
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff}; // No flags, no mtime, unknown OS
+
+    private static final AtomicInteger poolCounter = new AtomicInteger(0);
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+    private int blockPos = 0;
+    private byte[] previousBlock = null;
+    private int previousBlockLength = 0;
+    private long uncompressed = 0;
+    private boolean closed = false;
+
+    /**
+     * @param out       the destination for the compressed stream. This will be closed when this stream is closed.
+     * @param threads   the number of threads used for compression.
+     * @param blockSize the number of uncompressed bytes in each independently compressed block.
+     * @param level     the compression level from 1 (fastest) to 9 (best).
+     * @throws IOException if the gzip header could not be written.
+     */
+    public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1, but was " + threads);
+        }
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException(
+                "The blockSize must be at least " + DICTIONARY_SIZE + " bytes, but was " + blockSize);
+        }
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = threads * 2;
+        this.block = new byte[blockSize];
+        final int pool = poolCounter.incrementAndGet();
+        final AtomicInteger workerCounter = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gzip-" + pool + "-" + workerCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[blockPos++] = (byte) b;
+        if (blockPos == blockSize) {
+            submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int chunk = Math.min(len, blockSize - blockPos);
+            System.arraycopy(b, off, block, blockPos, chunk);
+            blockPos += chunk;
+            off += chunk;
+            len -= chunk;
+            if (blockPos == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses all buffered bytes, writes the compressed result and flushes the destination.
+     * Frequent flushing lowers the compression ratio and the parallelism.
+     * @throws IOException if the compressed bytes could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (blockPos > 0) {
+            submitBlock(false);
+        }
+        while (!pending.isEmpty()) {
+            writeHead();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining bytes, writes the gzip trailer and closes the destination.
+     * @throws IOException if the compressed bytes could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!pending.isEmpty()) {
+                writeHead();
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) uncompressed); // ISIZE is the size modulo 2^32
+            out.flush();
+            log.debug("Compressed {} bytes", uncompressed);
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Hands the current block to the executor and starts a new block. If too many blocks are pending, the oldest is
+     * written first.
+     * @param last true if this is the last block in the stream.
+     */
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] input = block;
+        final int inputLength = blockPos;
+        final byte[] dictionary = previousBlock;
+        final int dictionaryLength = previousBlockLength;
+        crc.update(input, 0, inputLength);
+        uncompressed += inputLength;
+
+        pending.addLast(executor.submit(() -> deflate(input, inputLength, dictionary, dictionaryLength, last)));
+        if (inputLength > 0) {
+            previousBlock = input;
+            previousBlockLength = inputLength;
+            block = new byte[blockSize];
+        }
+        blockPos = 0;
+        while (pending.size() >= maxPending) {
+            writeHead();
+        }
+    }
+
+    private byte[] deflate(byte[] input, int inputLength, byte[] dictionary, int dictionaryLength, boolean last) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                final int dictionaryStart = Math.max(0, dictionaryLength - DICTIONARY_SIZE);
+                deflater.setDictionary(dictionary, dictionaryStart, dictionaryLength - dictionaryStart);
+            }
+            deflater.setInput(input, 0, inputLength);
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(inputLength / 4 + 64);
+            final byte[] buffer = new byte[Math.max(1024, inputLength / 4)];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A sync flush ends the block on a byte boundary, so that blocks can be concatenated
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        try {
+            out.write(pending.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compression", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Exception while compressing", e.getCause());
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the documents into multiple well-formed Solr XML files (shards), each holding at most a given number of
+ * documents or bytes. Shards are named from the output file: {@code export.xml} becomes {@code export-00001.xml},
+ * {@code export-00002.xml} and so forth.
+ *
+ * The documents are distributed to a number of writers, each with its own thread and its own current shard, so
+ * that serialization and writing is done in parallel. The order of the documents is only preserved if there is a
+ * single writer.
+ *
+ * The shards are opened by a {@link WriterFactory}, which decides the format and compression of the shards.
+ *
+ * When the writer is closed, a manifest {@code export-manifest.tsv} is written, listing the shards with their number
+ * of documents and bytes. As for the size limit, the bytes are counted before any compression.
+ */
+public class ShardedDocumentWriter implements DocumentWriter {
+    private static final Logger log = LoggerFactory.getLogger(ShardedDocumentWriter.class);
+
+    /** The number of documents that can be queued for each writer. */
+    private static final int QUEUE_SIZE = 100;
+    /** Marks the end of the documents for a writer. Compared by identity. */
+    private static final FieldMapper.FieldValues END = new FieldMapper.FieldValues();
+
+    private final Path outputFile;
+    private final long maxDocuments;
+    private final long maxBytes;
+    private final WriterFactory writerFactory;
+    private final List<Lane> lanes = new ArrayList<>();
+    private final AtomicInteger shardCounter = new AtomicInteger(0);
+    private final AtomicLong laneCounter = new AtomicLong(0);
+    private final AtomicLong documentCount = new AtomicLong(0);
+    private final List<ShardInfo> finishedShards = new ArrayList<>();
+    private volatile Exception failure = null;
+
+    /**
+     * @param outputFile   the base for the names of the shards and the manifest.
+     * @param writers      the number of shards being written in parallel.
+     * @param maxDocuments the maximum number of documents in a shard. 0 means no limit.
+     * @param maxBytes     the approximate maximum size in bytes of a shard, before any compression. 0 means no limit.
+     * @param writerFactory opens the writer for a single shard.
+     */
+    public ShardedDocumentWriter(
+        Path outputFile, int writers, long maxDocuments, long maxBytes, WriterFactory writerFactory) {
+        if (writers < 1) {
+            throw new IllegalArgumentException("There must be at least 1 writer, but there was " + writers);
+        }
+        if (maxDocuments <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("Either maxDocuments or maxBytes must be above 0");
+        }
+        this.outputFile = outputFile;
+        this.maxDocuments = maxDocuments <= 0 ? Long.MAX_VALUE : maxDocuments;
+        this.maxBytes = maxBytes <= 0 ? Long.MAX_VALUE : maxBytes;
+        this.writerFactory = writerFactory;
+        for (int i = 0 ; i < writers ; i++) {
+            Lane lane = new Lane(i);
+            lanes.add(lane);
+            lane.start();
+        }
+        log.info("Writing shards of at most {} documents and {} bytes based on {} with {} writers",
+                 maxDocuments <= 0 ? "unlimited" : maxDocuments, maxBytes <= 0 ? "unlimited" : maxBytes,
+                 outputFile, writers);
+    }
+
+    /**
+     * Hands the document to the first writer with room in its queue, blocking if all queues are full.
+     * @param fieldValues the content of a single Solr document.
+     */
+    @Override
+    public void write(FieldMapper.FieldValues fieldValues) {
+        checkFailure();
+        final int first = (int) (laneCounter.getAndIncrement() % lanes.size());
+        for (int i = 0 ; i < lanes.size() ; i++) {
+            if (lanes.get((first + i) % lanes.size()).queue.offer(fieldValues)) {
+                return;
+            }
+        }
+        lanes.get(first).put(fieldValues);
+    }
+
+    /**
+     * Shards are written independently, so there is no single byte position.
+     * @return always -1.
+     */
+    @Override
+    public long flush() {
+        return -1;
+    }
+
+    @Override
+    public long getDocumentCount() {
+        return documentCount.get();
+    }
+
+    @Override
+    public long getByteCount() {
+        long bytes = 0;
+        synchronized (finishedShards) {
+            for (ShardInfo shard: finishedShards) {
+                bytes += shard.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Finishes all shards and writes the manifest.
+     * @throws IOException if any shard or the manifest could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        lanes.forEach(lane -> lane.put(END));
+        for (Lane lane: lanes) {
+            try {
+                lane.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for shard writers to finish", e);
+            }
+        }
+        if (failure != null) {
+            throw new IOException("Exception while writing shards", failure);
+        }
+        writeManifest();
+    }
+
+    /**
+     * Derives the file for the given shard, by inserting the shard number before the extension. A {@code .gz}
+     * suffix is treated as part of the extension.
+     * @param outputFile the base for the shard names, e.g. {@code export.xml}.
+     * @param shard      the shard number, starting at 1.
+     * @return the file for the shard, e.g. {@code export-00001.xml}.
+     */
+    public static Path getShardFile(Path outputFile, int shard) {
+        return addSuffix(outputFile, String.format(Locale.ROOT, "-%05d", shard));
+    }
+
+    /**
+     * @param outputFile the base for the shard names, e.g. {@code export.xml}.
+     * @return the manifest file for the shards, e.g. {@code export-manifest.tsv}.
+     */
+    public static Path getManifestFile(Path outputFile) {
+        final String name = outputFile.getFileName().toString();
+        final int dot = getExtensionStart(name);
+        return outputFile.resolveSibling((dot == -1 ? name : name.substring(0, dot)) + "-manifest.tsv");
+    }
+
+    private static Path addSuffix(Path file, String suffix) {
+        final String name = file.getFileName().toString();
+        final int dot = getExtensionStart(name);
+        return file.resolveSibling(dot == -1 ?
+                                       name + suffix :
+                                       name.substring(0, dot) + suffix + name.substring(dot));
+    }
+
+    /**
+     * @param name a file name without folders.
+     * @return the start of the extension, including a preceding extension if the name ends with {@code .gz},
+     *         or -1 if the name has no extension.
+     */
+    public static int getExtensionStart(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot > 0 && name.endsWith(".gz") && name.lastIndexOf('.', dot - 1) > 0) {
+            dot = name.lastIndexOf('.', dot - 1);
+        }
+        return dot <= 0 ? -1 : dot;
+    }
+
+    private void writeManifest() throws IOException {
+        final Path manifest = getManifestFile(outputFile);
+        finishedShards.sort(Comparator.comparingInt(shard -> shard.number));
+        try (Writer out = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            out.write("#file\tdocuments\tbytes\n"); // Uncompressed bytes
+            for (ShardInfo shard: finishedShards) {
+                out.write(shard.file.getFileName() + "\t" + shard.documents + "\t" + shard.bytes + "\n");
+            }
+        }
+        log.info("Wrote {} documents in {} shards, listed in {}",
+                 documentCount.get(), finishedShards.size(), manifest);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException(new IOException("Exception while writing shards", failure));
+        }
+    }
+
+    /**
+     * A writer thread with its own queue of documents and its own current shard.
+     */
+    private class Lane extends Thread {
+        private final BlockingQueue<FieldMapper.FieldValues> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private int shardNumber = 0;
+        private Path shardFile = null;
+        private DocumentWriter shard = null;
+
+        Lane(int id) {
+            super("shard-writer-" + id);
+            setDaemon(true);
+        }
+
+        void put(FieldMapper.FieldValues fieldValues) {
+            try {
+                queue.put(fieldValues);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while queueing document for shard writer", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                FieldMapper.FieldValues fieldValues;
+                while ((fieldValues = queue.take()) != END) {
+                    if (failure != null) {
+                        continue; // Keep draining to avoid blocking the producer
+                    }
+                    try {
+                        writeToShard(fieldValues);
+                    } catch (Exception e) {
+                        log.error("Exception writing to shard " + shardFile, e);
+                        failure = e;
+                    }
+                }
+                if (shard != null && failure == null) {
+                    closeShard();
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            } catch (Exception e) {
+                log.error("Exception closing shard " + shardFile, e);
+                failure = e;
+            } finally {
+                if (shard != null) { // Only after a failure. The shard is incomplete, but the file must be released
+                    try {
+                        shard.close();
+                    } catch (Exception e) {
+                        log.warn("Exception closing incomplete shard " + shardFile + " after a failure", e);
+                    }
+                    shard = null;
+                }
+            }
+        }
+
+        private void writeToShard(FieldMapper.FieldValues fieldValues) throws IOException {
+            if (shard == null) {
+                shardNumber = shardCounter.incrementAndGet();
+                shardFile = getShardFile(outputFile, shardNumber);
+                shard = writerFactory.open(shardFile);
+            }
+            shard.write(fieldValues);
+            documentCount.incrementAndGet();
+            if (shard.getDocumentCount() >= maxDocuments || shard.getByteCount() >= maxBytes) {
+                closeShard();
+            }
+        }
+
+        private void closeShard() throws IOException {
+            final DocumentWriter closing = shard;
+            shard = null; // Not closed again if closing fails
+            closing.close();
+            final ShardInfo info = new ShardInfo(
+                shardFile, shardNumber, closing.getDocumentCount(), closing.getByteCount());
+            synchronized (finishedShards) {
+                finishedShards.add(info);
+            }
+            log.debug("Finished shard {} with {} documents", shardFile, info.documents);
+        }
+    }
+
+    /**
+     * Opens a writer for a single shard.
+     */
+    @FunctionalInterface
+    public interface WriterFactory {
+        /**
+         * @param file the file for the shard.
+         * @return a writer for the shard, ready for use.
+         * @throws IOException if the file could not be opened.
+         */
+        DocumentWriter open(Path file) throws IOException;
+    }
+
+    private static class ShardInfo {
+        final Path file;
+        final int number;
+        final long documents;
+        final long bytes;
+
+        ShardInfo(Path file, int number, long documents, long bytes) {
+            this.file = file;
+            this.number = number;
+            this.documents = documents;
+            this.bytes = bytes;
+        }
+    }
+}
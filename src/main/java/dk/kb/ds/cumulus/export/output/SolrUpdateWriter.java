@@ -0,0 +1,230 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the documents directly to a Solr update handler, such as {@code http://localhost:8983/solr/ds/update}, in
+ * batches of a given number of documents or bytes. The batches are serialized with an {@link OutputFormat}.
+ *
+ * At most {@code maxInFlight} requests are being processed by Solr at any time. When that limit is reached,
+ * {@link #write} blocks until a request has completed, which in turn holds back the conversion of records.
+ *
+ * A failed request makes the next call to {@link #write} or {@link #close} throw an exception.
+ */
+public class SolrUpdateWriter implements DocumentWriter {
+    private static final Logger log = LoggerFactory.getLogger(SolrUpdateWriter.class);
+
+    private final URI updateURI;
+    private final OutputFormat format;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final int maxInFlight;
+    private final boolean commit;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final Semaphore inFlight;
+
+    private final AtomicLong sentDocuments = new AtomicLong(0);
+    private final AtomicLong sentBytes = new AtomicLong(0);
+    private final AtomicLong requests = new AtomicLong(0);
+    private volatile Exception failure = null;
+
+    private ByteArrayOutputStream batchBytes;
+    private DocumentWriter batch = null;
+    private long documentCount = 0;
+
+    /**
+     * @param updateURI    the Solr update handler. For {@link OutputFormat#NDJSON} this should be
+     *                     {@code /update/json/docs}.
+     * @param format       the format used for the batches.
+     * @param maxDocuments the maximum number of documents in a batch.
+     * @param maxBytes     the approximate maximum number of bytes in a batch.
+     * @param maxInFlight  the maximum number of requests being processed by Solr at any time.
+     * @param commit       if true, a commit is sent to Solr when the writer is closed.
+     * @param timeout      the maximum time to wait for Solr to process a single request.
+     */
+    public SolrUpdateWriter(URI updateURI, OutputFormat format, int maxDocuments, long maxBytes, int maxInFlight,
+                            boolean commit, Duration timeout) {
+        if (maxDocuments < 1 || maxBytes < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                "maxDocuments (" + maxDocuments + "), maxBytes (" + maxBytes + ") and maxInFlight (" +
+                maxInFlight + ") must all be at least 1");
+        }
+        this.updateURI = updateURI;
+        this.format = format;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.maxInFlight = maxInFlight;
+        this.commit = commit;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        this.inFlight = new Semaphore(maxInFlight);
+        log.info("Sending {} batches of at most {} documents or {} bytes to {} with at most {} requests in flight",
+                 format, maxDocuments, maxBytes, updateURI, maxInFlight);
+    }
+
+    /**
+     * Adds the document to the current batch, sending the batch if it is full. This blocks if the batch is full
+     * and the maximum number of requests are in flight.
+     * @param fieldValues the content of a single Solr document.
+     */
+    @Override
+    public synchronized void write(FieldMapper.FieldValues fieldValues) {
+        checkFailure();
+        try {
+            if (batch == null) {
+                batchBytes = new ByteArrayOutputStream();
+                batch = format.open(batchBytes, 0);
+            }
+            batch.write(fieldValues);
+            documentCount++;
+            if (batch.getDocumentCount() >= maxDocuments || batch.getByteCount() >= maxBytes) {
+                sendBatch();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to send batch to " + updateURI, e);
+        }
+    }
+
+    /**
+     * Sending is asynchronous, so there is no byte position.
+     * @return always -1.
+     */
+    @Override
+    public long flush() {
+        return -1;
+    }
+
+    /**
+     * @return the number of documents given to the writer, including those not yet sent.
+     */
+    @Override
+    public synchronized long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * @return the number of bytes sent to Solr.
+     */
+    @Override
+    public long getByteCount() {
+        return sentBytes.get();
+    }
+
+    /**
+     * Sends the remaining documents, waits for all requests to finish and optionally commits.
+     * @throws IOException if any request failed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (batch != null) {
+            sendBatch();
+        }
+        try {
+            inFlight.acquire(maxInFlight); // Wait for all requests to finish
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for requests to " + updateURI, e);
+        }
+        if (failure != null) {
+            throw new IOException("Exception sending documents to " + updateURI, failure);
+        }
+        if (commit) {
+            sendCommit();
+        }
+        log.info("Sent {} documents ({} bytes) to {} in {} requests",
+                 sentDocuments.get(), sentBytes.get(), updateURI, requests.get());
+    }
+
+    private void sendBatch() throws IOException {
+        batch.close();
+        final byte[] body = batchBytes.toByteArray();
+        final long documents = batch.getDocumentCount();
+        batch = null;
+        batchBytes = null;
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to send batch to " + updateURI, e);
+        }
+        final HttpRequest request = HttpRequest.newBuilder(updateURI).
+            timeout(timeout).
+            header("Content-Type", format.getContentType()).
+            POST(HttpRequest.BodyPublishers.ofByteArray(body)).
+            build();
+        requests.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, exception) -> {
+            try {
+                if (exception != null) {
+                    log.error("Exception sending batch of " + documents + " documents to " + updateURI, exception);
+                    failure = exception instanceof Exception ? (Exception) exception : new Exception(exception);
+                } else if (response.statusCode() / 100 != 2) {
+                    log.error("Solr returned HTTP {} for batch of {} documents: {}",
+                              response.statusCode(), documents, response.body());
+                    failure = new IOException("Solr returned HTTP " + response.statusCode());
+                } else {
+                    sentDocuments.addAndGet(documents);
+                    sentBytes.addAndGet(body.length);
+                    log.debug("Sent batch of {} documents ({} bytes) to {}", documents, body.length, updateURI);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void sendCommit() throws IOException {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(
+            updateURI + (updateURI.getQuery() == null ? "?" : "&") + "commit=true")).
+            timeout(timeout).
+            GET().
+            build();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 != 2) {
+                throw new IOException(
+                    "Solr returned HTTP " + response.statusCode() + " for commit: " + response.body());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while committing to " + updateURI, e);
+        }
+        log.debug("Committed to {}", updateURI);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException(new IOException("Exception sending documents to " + updateURI, failure));
+        }
+    }
+}
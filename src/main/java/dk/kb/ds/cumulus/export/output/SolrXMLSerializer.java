@@ -0,0 +1,204 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Serializes {@link FieldMapper.FieldValues} as Solr XML {@code <doc>} elements directly to UTF-8 bytes.
+ *
+ * The start tags {@code <field name="...">} are encoded once per field name and static fields
+ * (see {@link FieldMapper.FieldValue#isStatic}) once per instance. Values are escaped in a single pass that copies
+ * plain ASCII directly to the buffer. The output is the same as with {@link javax.xml.stream.XMLStreamWriter}.
+ *
+ * The serializer reuses its buffer between documents and is not thread safe.
+ */
+public class SolrXMLSerializer {
+    static final String INDENTATION = "    ";
+    static final String NEWLINE = "\n";
+
+    private static final byte[] DOC_START = utf8(INDENTATION + "<doc>" + NEWLINE);
+    private static final byte[] DOC_END = utf8(INDENTATION + "</doc>" + NEWLINE);
+    private static final byte[] FIELD_END = utf8("</field>" + NEWLINE);
+    /** Guards against unbounded growth if the field names or static fields are not constant. */
+    private static final int MAX_CACHE_ENTRIES = 1000;
+
+    private static final boolean[] ESCAPE_TEXT = new boolean[128];
+    private static final boolean[] ESCAPE_ATTRIBUTE = new boolean[128];
+    static {
+        ESCAPE_TEXT['<'] = ESCAPE_TEXT['>'] = ESCAPE_TEXT['&'] = true;
+        ESCAPE_ATTRIBUTE['<'] = ESCAPE_ATTRIBUTE['>'] = ESCAPE_ATTRIBUTE['&'] = ESCAPE_ATTRIBUTE['"'] = true;
+    }
+
+    private final Map<String, byte[]> fieldStarts = new HashMap<>();
+    private final Map<FieldMapper.FieldValue, byte[]> staticFields = new IdentityHashMap<>();
+    private byte[] buffer = new byte[8192];
+    private int size = 0;
+
+    /**
+     * Serializes the document to the internal buffer, replacing any previous content.
+     * Use {@link #writeTo(OutputStream)} to get the result.
+     * @param fieldValues the content of a single Solr document.
+     */
+    public void serialize(FieldMapper.FieldValues fieldValues) {
+        size = 0;
+        append(DOC_START);
+        for (FieldMapper.FieldValue fieldValue: fieldValues) {
+            if (fieldValue.isStatic) {
+                byte[] encoded = staticFields.get(fieldValue);
+                if (encoded == null) {
+                    encoded = encodeField(fieldValue);
+                    if (staticFields.size() < MAX_CACHE_ENTRIES) {
+                        staticFields.put(fieldValue, encoded);
+                    }
+                }
+                append(encoded);
+            } else {
+                append(getFieldStart(fieldValue.field));
+                appendEscaped(fieldValue.value, ESCAPE_TEXT);
+                append(FIELD_END);
+            }
+        }
+        append(DOC_END);
+    }
+
+    /**
+     * @param out receives the last serialized document.
+     * @throws IOException if the document could not be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    /**
+     * @return the number of bytes in the last serialized document.
+     */
+    public int size() {
+        return size;
+    }
+
+    private byte[] getFieldStart(String field) {
+        byte[] fieldStart = fieldStarts.get(field);
+        if (fieldStart == null) {
+            final int start = size;
+            append(utf8(INDENTATION + INDENTATION + "<field name=\""));
+            appendEscaped(field, ESCAPE_ATTRIBUTE);
+            append(utf8("\">"));
+            fieldStart = Arrays.copyOfRange(buffer, start, size);
+            size = start;
+            if (fieldStarts.size() < MAX_CACHE_ENTRIES) {
+                fieldStarts.put(field, fieldStart);
+            }
+        }
+        return fieldStart;
+    }
+
+    private byte[] encodeField(FieldMapper.FieldValue fieldValue) {
+        final int start = size;
+        append(getFieldStart(fieldValue.field));
+        appendEscaped(fieldValue.value, ESCAPE_TEXT);
+        append(FIELD_END);
+        final byte[] encoded = Arrays.copyOfRange(buffer, start, size);
+        size = start;
+        return encoded;
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Appends the value as UTF-8, escaping the ASCII characters marked in the escape table.
+     */
+    private void appendEscaped(String value, boolean[] escape) {
+        final int length = value.length();
+        ensureCapacity(length);
+        int i = 0;
+        // Plain ASCII is by far the most common, so it is copied directly until something else is encountered
+        for ( ; i < length ; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x80 || escape[c]) {
+                break;
+            }
+            buffer[size++] = (byte) c;
+        }
+        if (i == length) {
+            return;
+        }
+
+        ensureCapacity((length - i) * 6); // Worst case is &quot; for every character
+        for ( ; i < length ; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escape[c]) {
+                    appendEntity(c);
+                } else {
+                    buffer[size++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[size++] = '?'; // Same as the UTF-8 encoder in Java for unpaired surrogates
+                }
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void appendEntity(char c) {
+        final String entity;
+        switch (c) {
+            case '<': entity = "&lt;"; break;
+            case '>': entity = "&gt;"; break;
+            case '&': entity = "&amp;"; break;
+            case '"': entity = "&quot;"; break;
+            default: throw new IllegalArgumentException("No entity for '" + c + "'");
+        }
+        for (int i = 0 ; i < entity.length() ; i++) {
+            buffer[size++] = (byte) entity.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes {@link FieldMapper.FieldValues} as Solr XML documents, all wrapped in a single {@code <add>} element.
+ * Writing is synchronized, so a single writer can be shared between threads.
+ */
+public class XMLDocumentWriter implements DocumentWriter {
+    private static final Logger log = LoggerFactory.getLogger(XMLDocumentWriter.class);
+
+    static final String NEWLINE = SolrXMLSerializer.NEWLINE;
+    private static final byte[] START = (
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + NEWLINE + "<add>" + NEWLINE).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = ("</add>" + NEWLINE).getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+    private final SolrXMLSerializer serializer = new SolrXMLSerializer();
+    private long documentCount = 0;
+    private long byteCount;
+
+    /**
+     * Creates a writer and writes the XML header and the start of the {@code <add>} element.
+     * @param out the destination for the XML. This will be closed when the writer is closed.
+     * @throws IOException if the start of the XML could not be written.
+     */
+    public XMLDocumentWriter(OutputStream out) throws IOException {
+        this(out, 0);
+    }
+
+    /**
+     * Creates a writer that either starts a new XML document or continues an existing one.
+     * @param out           the destination for the XML. This will be closed when the writer is closed.
+     * @param existingBytes if 0, the XML header and the start of the {@code <add>} element are written.
+     *                      If above 0, out is expected to be appended to a document with this number of bytes,
+     *                      ending with a complete {@code </doc>}, as done when resuming a previous export.
+     * @throws IOException if the start of the XML could not be written.
+     */
+    public XMLDocumentWriter(OutputStream out, long existingBytes) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.byteCount = existingBytes;
+        if (existingBytes == 0) {
+            this.out.write(START);
+            byteCount += START.length;
+        }
+    }
+
+    /**
+     * Writes the given fieldValues as a {@code <doc>} element.
+     * @param fieldValues the content of a single Solr document.
+     */
+    @Override
+    public synchronized void write(FieldMapper.FieldValues fieldValues) {
+        serializer.serialize(fieldValues);
+        try {
+            serializer.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write XML document", e);
+        }
+        byteCount += serializer.size();
+        documentCount++;
+    }
+
+    @Override
+    public synchronized long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Flushes all written documents to the underlying stream.
+     * @return the number of bytes in the document after flushing, including existing bytes when continuing a
+     *         document.
+     * @throws IOException if the content could not be flushed.
+     */
+    @Override
+    public synchronized long flush() throws IOException {
+        out.flush();
+        return byteCount;
+    }
+
+    /**
+     * @return the number of bytes in the document, including bytes not yet flushed.
+     */
+    @Override
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Ends the {@code <add>} element and closes the underlying stream.
+     * @throws IOException if the end of the XML could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.write(END);
+            byteCount += END.length;
+        } finally {
+            out.close();
+        }
+        log.debug("Closed XML output after writing {} documents", documentCount);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.snapshot;
+
+import dk.kb.ds.cumulus.export.MapRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the records in a snapshot written by {@link RecordSnapshotWriter} as {@link MapRecord}s.
+ *
+ * The file is memory mapped in windows of {@link #WINDOW_SIZE} bytes and read sequentially, so reading costs
+ * little more than the sequential I/O. Records from other catalogs are skipped using the entry length, without
+ * decoding their values. An incomplete entry at the end of the file, as left by a crash, is ignored.
+ *
+ * Each call to {@link #records(String)} is an independent pass, so several streams can be used at the same time.
+ */
+public class RecordSnapshotReader implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(RecordSnapshotReader.class);
+
+    static final long WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int ENTRY_HEADER_SIZE = 1 + Integer.BYTES;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long size;
+    private Summary summary = null;
+
+    /**
+     * @param file a snapshot file.
+     * @throws IOException if the file could not be opened or is not a snapshot.
+     */
+    public RecordSnapshotReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(RecordSnapshotWriter.HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Keep reading
+        }
+        header.flip();
+        final byte[] magic = new byte[RecordSnapshotWriter.MAGIC.length];
+        if (header.remaining() < RecordSnapshotWriter.HEADER_SIZE ||
+            !Arrays.equals(RecordSnapshotWriter.MAGIC, readBytes(header, magic)) ||
+            header.getInt() != RecordSnapshotWriter.VERSION) {
+            channel.close();
+            throw new IOException("The file " + file + " is not a record snapshot of version " +
+                                  RecordSnapshotWriter.VERSION);
+        }
+    }
+
+    /**
+     * Reads the records from the given catalog, in the order they were written.
+     * @param catalog a Cumulus catalog. If null, records from all catalogs are read.
+     * @return a lazily read stream of the records.
+     */
+    public Stream<MapRecord> records(String catalog) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            new RecordIterator(catalog), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * @param catalog a Cumulus catalog. If null, the records from all catalogs are counted.
+     * @return the number of records in the snapshot from the catalog.
+     * @throws IOException if the snapshot could not be read.
+     */
+    public long getRecordCount(String catalog) throws IOException {
+        final Summary summary = getSummary();
+        if (catalog == null) {
+            return summary.catalogCounts.values().stream().mapToLong(Long::longValue).sum();
+        }
+        return summary.catalogCounts.getOrDefault(catalog, 0L);
+    }
+
+    /**
+     * @return the catalogs in the snapshot, in order of first occurrence.
+     * @throws IOException if the snapshot could not be read.
+     */
+    public List<String> getCatalogs() throws IOException {
+        return getSummary().catalogs;
+    }
+
+    /**
+     * @return the fields in the snapshot, in order of first occurrence.
+     * @throws IOException if the snapshot could not be read.
+     */
+    public List<String> getFields() throws IOException {
+        return getSummary().fields;
+    }
+
+    /**
+     * @return the offset after the last complete entry.
+     * @throws IOException if the snapshot could not be read.
+     */
+    long getValidEnd() throws IOException {
+        return getSummary().validEnd;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Scans the dictionary entries and counts the records without decoding them.
+     */
+    private synchronized Summary getSummary() throws IOException {
+        if (summary != null) {
+            return summary;
+        }
+        final Summary scanned = new Summary();
+        final Cursor cursor = new Cursor();
+        try {
+            while (cursor.next()) {
+                switch (cursor.type) {
+                    case RecordSnapshotWriter.FIELD: {
+                        scanned.fields.add(cursor.readString());
+                        break;
+                    }
+                    case RecordSnapshotWriter.CATALOG: {
+                        scanned.catalogs.add(cursor.readString());
+                        break;
+                    }
+                    case RecordSnapshotWriter.RECORD: {
+                        scanned.catalogCounts.merge(scanned.catalogs.get(cursor.entry.getInt()), 1L, Long::sum);
+                        break;
+                    }
+                    default: // Unknown entries are skipped
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        scanned.validEnd = cursor.position;
+        summary = scanned;
+        return summary;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, byte[] destination) {
+        buffer.get(destination);
+        return destination;
+    }
+
+    private static class Summary {
+        final List<String> fields = new ArrayList<>();
+        final List<String> catalogs = new ArrayList<>();
+        final Map<String, Long> catalogCounts = new LinkedHashMap<>();
+        long validEnd;
+    }
+
+    /**
+     * Sequential access to the entries in the file through a moving memory mapped window.
+     */
+    private class Cursor {
+        long position = RecordSnapshotWriter.HEADER_SIZE; // Start of the current entry
+        long next = RecordSnapshotWriter.HEADER_SIZE;     // Start of the next entry
+        byte type;
+        ByteBuffer entry;                                 // Payload of the current entry
+
+        private MappedByteBuffer window = null;
+        private long windowStart = 0;
+
+        /**
+         * Moves to the next entry.
+         * @return false if there are no more complete entries.
+         */
+        boolean next() {
+            position = next;
+            if (position + ENTRY_HEADER_SIZE > size) {
+                return false;
+            }
+            ensure(position, ENTRY_HEADER_SIZE);
+            final int offset = (int) (position - windowStart);
+            type = window.get(offset);
+            final int length = window.getInt(offset + 1);
+            if (length < 0 || position + ENTRY_HEADER_SIZE + length > size) {
+                log.warn("Ignoring incomplete entry at offset {} in snapshot {}", position, file);
+                return false;
+            }
+            ensure(position, ENTRY_HEADER_SIZE + length);
+            final int start = (int) (position - windowStart) + ENTRY_HEADER_SIZE;
+            entry = window.duplicate();
+            entry.position(start).limit(start + length);
+            entry = entry.slice();
+            next = position + ENTRY_HEADER_SIZE + length;
+            return true;
+        }
+
+        String readString() {
+            final byte[] utf8 = new byte[entry.getInt()];
+            entry.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Maps a new window if the given range is not inside the current one.
+         */
+        private void ensure(long start, int length) {
+            if (window != null && start >= windowStart && start + length <= windowStart + window.capacity()) {
+                return;
+            }
+            final long mapSize = Math.min(size - start, Math.max(WINDOW_SIZE, length));
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, mapSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to map offset " + start + " of snapshot " + file, e);
+            }
+            windowStart = start;
+        }
+    }
+
+    /**
+     * Decodes the records from a single catalog, maintaining the dictionaries along the way.
+     */
+    private class RecordIterator implements Iterator<MapRecord> {
+        private final String catalog;
+        private final Cursor cursor = new Cursor();
+        private final List<String> fields = new ArrayList<>();
+        private final Map<String, String> dataTypes = new ConcurrentHashMap<>(); // Shared by the records
+        private final List<String> catalogs = new ArrayList<>();
+        private int catalogNumber = -1;
+        private MapRecord record = null;
+        private boolean done = false;
+
+        RecordIterator(String catalog) {
+            this.catalog = catalog;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (record == null && !done) {
+                if (!cursor.next()) {
+                    done = true;
+                    break;
+                }
+                switch (cursor.type) {
+                    case RecordSnapshotWriter.FIELD: {
+                        final String field = cursor.readString();
+                        final String dataType = cursor.readString();
+                        fields.add(field);
+                        if (!dataType.isEmpty()) {
+                            dataTypes.put(field, dataType);
+                        }
+                        break;
+                    }
+                    case RecordSnapshotWriter.CATALOG: {
+                        final String name = cursor.readString();
+                        if (name.equals(catalog)) {
+                            catalogNumber = catalogs.size();
+                        }
+                        catalogs.add(name);
+                        break;
+                    }
+                    case RecordSnapshotWriter.RECORD: {
+                        final int number = cursor.entry.getInt();
+                        if (catalog == null || number == catalogNumber) {
+                            record = decodeRecord();
+                        }
+                        break;
+                    }
+                    default: // Unknown entries are skipped
+                }
+            }
+            return record != null;
+        }
+
+        @Override
+        public MapRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final MapRecord next = record;
+            record = null;
+            return next;
+        }
+
+        private MapRecord decodeRecord() {
+            final String uuid = cursor.readString();
+            final int valueCount = cursor.entry.getInt();
+            final Map<String, String> values = new HashMap<>(valueCount * 2);
+            for (int i = 0 ; i < valueCount ; i++) {
+                final String field = fields.get(cursor.entry.getInt());
+                values.put(field, cursor.readString());
+            }
+            final int renditionCount = cursor.entry.getInt();
+            final Map<String, String> renditions = renditionCount == 0 ? Map.of() : new HashMap<>();
+            for (int i = 0 ; i < renditionCount ; i++) {
+                final String field = fields.get(cursor.entry.getInt());
+                renditions.put(field, cursor.readString());
+            }
+            return new MapRecord(uuid.isEmpty() ? null : uuid, values, dataTypes, renditions);
+        }
+    }
+}
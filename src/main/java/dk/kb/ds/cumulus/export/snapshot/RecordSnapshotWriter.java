@@ -0,0 +1,258 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.snapshot;
+
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.MapRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Appends the raw field values of Cumulus records to a local snapshot file, so that the records can later be
+ * converted again with {@link RecordSnapshotReader} without requesting them from Cumulus.
+ *
+ * The file starts with the magic bytes {@code CSNP} and a version. It is followed by entries, each being a type
+ * byte, the length of the payload as an int and the payload. Field and catalog names are only written the first
+ * time they are used, as dictionary entries, and referenced by their number in order of appearance afterwards:
+ * <ul>
+ *   <li>{@link #FIELD}: name, data type</li>
+ *   <li>{@link #CATALOG}: name</li>
+ *   <li>{@link #RECORD}: catalog number, GUID, number of values, (field number, value)*,
+ *       number of renditions, (field number, rendition)*</li>
+ * </ul>
+ * Strings are an int length followed by UTF-8 bytes.
+ *
+ * The writer is thread safe. The field values are requested from the record before the writer is locked.
+ * Entries are buffered until {@link #flush()} or {@link #close()}, see {@link dk.kb.ds.cumulus.export.Checkpoint}.
+ */
+public class RecordSnapshotWriter implements Closeable, Flushable {
+    private static final Logger log = LoggerFactory.getLogger(RecordSnapshotWriter.class);
+
+    static final byte[] MAGIC = {'C', 'S', 'N', 'P'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + Integer.BYTES;
+    static final byte FIELD = 1;
+    static final byte CATALOG = 2;
+    static final byte RECORD = 3;
+
+    private static final ThreadLocal<XMLInputFactory> xmlInputFactory = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory;
+    });
+
+    private final Path file;
+    private final DataOutputStream out;
+    private final Map<String, Integer> fieldNumbers = new HashMap<>();
+    private final Map<String, Integer> catalogNumbers = new HashMap<>();
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private long records = 0;
+
+    /**
+     * @param file   the snapshot file.
+     * @param append if true and the file exists, records are appended to it. An incomplete entry at the end of the
+     *               file, as left by a crash, is removed first. If false, any existing file is overwritten.
+     * @throws IOException if the file could not be opened or is not a snapshot.
+     */
+    public RecordSnapshotWriter(Path file, boolean append) throws IOException {
+        this.file = file;
+        final boolean existing = append && Files.exists(file) && Files.size(file) > 0;
+        long previous = 0;
+        if (existing) {
+            try (RecordSnapshotReader reader = new RecordSnapshotReader(file)) {
+                reader.getFields().forEach(field -> fieldNumbers.put(field, fieldNumbers.size()));
+                reader.getCatalogs().forEach(catalog -> catalogNumbers.put(catalog, catalogNumbers.size()));
+                previous = reader.getRecordCount(null);
+                final long validEnd = reader.getValidEnd();
+                if (validEnd < Files.size(file)) {
+                    log.warn("Removing incomplete entry at the end of snapshot {} from offset {}", file, validEnd);
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(validEnd);
+                    }
+                }
+            }
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(existing ?
+            FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND) :
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING)), 65536));
+        if (!existing) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+        }
+        log.info("{} snapshot {} with {} records", existing ? "Appending to" : "Creating", file, previous);
+    }
+
+    /**
+     * Requests all field values from the record and adds them to the snapshot.
+     * @param catalog    the catalog holding the record.
+     * @param record     the record to add.
+     * @param renditions source field to the display string of the rendition, for asset reference sources.
+     * @throws IOException if the field values could not be requested or the snapshot could not be written.
+     */
+    public void add(String catalog, CumulusRecord record, Map<String, String> renditions) throws IOException {
+        final Map<String, String> values = new LinkedHashMap<>();
+        final Map<String, String> dataTypes = new HashMap<>();
+        if (record instanceof MapRecord) {
+            final MapRecord mapRecord = (MapRecord) record;
+            values.putAll(mapRecord.getValues());
+            values.keySet().forEach(field -> dataTypes.put(field, mapRecord.getDataType(field)));
+        } else {
+            getFieldTypes(record).forEach((field, dataType) -> {
+                final String value = record.getFieldValueForNonStringField(field);
+                if (value != null) {
+                    values.put(field, value);
+                    dataTypes.put(field, dataType);
+                }
+            });
+        }
+        write(catalog, record.getUUID(), values, dataTypes, renditions);
+    }
+
+    /**
+     * @return the number of records added by this writer.
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Writes the buffered entries to the file, so that they survive if the process is killed.
+     * @throws IOException if the entries could not be written.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        log.info("Closed snapshot {} after adding {} records", file, records);
+    }
+
+    private synchronized void write(String catalog, String uuid, Map<String, String> values,
+                                    Map<String, String> dataTypes, Map<String, String> renditions)
+        throws IOException {
+        final int catalogNumber = getCatalogNumber(catalog == null ? "" : catalog);
+        payloadBytes.reset();
+        payload.writeInt(catalogNumber);
+        writeString(payload, uuid == null ? "" : uuid);
+        payload.writeInt(values.size());
+        for (Map.Entry<String, String> entry: values.entrySet()) {
+            payload.writeInt(getFieldNumber(entry.getKey(), dataTypes.get(entry.getKey())));
+            writeString(payload, entry.getValue());
+        }
+        payload.writeInt(renditions.size());
+        for (Map.Entry<String, String> entry: renditions.entrySet()) {
+            payload.writeInt(getFieldNumber(entry.getKey(), null));
+            writeString(payload, entry.getValue());
+        }
+        writeEntry(RECORD);
+        records++;
+    }
+
+    private int getFieldNumber(String field, String dataType) throws IOException {
+        Integer number = fieldNumbers.get(field);
+        if (number == null) {
+            number = fieldNumbers.size();
+            fieldNumbers.put(field, number);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream entry = new DataOutputStream(bytes);
+            writeString(entry, field);
+            writeString(entry, dataType == null ? "" : dataType);
+            writeEntry(FIELD, bytes);
+        }
+        return number;
+    }
+
+    private int getCatalogNumber(String catalog) throws IOException {
+        Integer number = catalogNumbers.get(catalog);
+        if (number == null) {
+            number = catalogNumbers.size();
+            catalogNumbers.put(catalog, number);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeString(new DataOutputStream(bytes), catalog);
+            writeEntry(CATALOG, bytes);
+        }
+        return number;
+    }
+
+    private void writeEntry(byte type) throws IOException {
+        writeEntry(type, payloadBytes);
+    }
+
+    private void writeEntry(byte type, ByteArrayOutputStream bytes) throws IOException {
+        out.writeByte(type);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /**
+     * The record has no method for listing its fields, so they are extracted from the field metadata.
+     * @return field name to data type for all fields in the record.
+     */
+    private static Map<String, String> getFieldTypes(CumulusRecord record) throws IOException {
+        final Map<String, String> fields = new LinkedHashMap<>();
+        try (ByteArrayOutputStream metadata = new ByteArrayOutputStream()) {
+            record.writeFieldMetadata(metadata);
+            try (InputStream in = new ByteArrayInputStream(metadata.toByteArray())) {
+                XMLStreamReader reader = xmlInputFactory.get().createXMLStreamReader(in);
+                while (reader.hasNext()) {
+                    reader.next();
+                    if (reader.isStartElement() && "field".equals(reader.getLocalName())) {
+                        final String name = reader.getAttributeValue("", "name");
+                        if (name != null && !name.isEmpty()) {
+                            fields.put(name, reader.getAttributeValue("", "data-type"));
+                        }
+                    }
+                }
+            }
+        } catch (XMLStreamException | ParserConfigurationException | TransformerException e) {
+            throw new IOException("Unable to extract the fields of record " + record.getUUID(), e);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.source;
+
+import dk.kb.cumulus.CumulusQuery;
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.cumulus.CumulusRecordCollection;
+import dk.kb.ds.cumulus.export.CumulusQueries;
+import dk.kb.ds.cumulus.export.CumulusSessionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.StreamSupport;
+
+/**
+ * Requests records from Cumulus. Each {@link Records} holds a session from the pool until it is closed, as the
+ * records are read through the session that requested them.
+ *
+ * An expired session is replaced when a request fails, but not while the records are being read. See
+ * {@link CumulusSessionPool} for this limitation.
+ */
+public class CumulusRecordSource implements RecordSource {
+    private static final Logger log = LoggerFactory.getLogger(CumulusRecordSource.class);
+
+    private final CumulusSessionPool sessionPool;
+    private final String deltaField;
+
+    /**
+     * @param sessionPool the sessions to request records with. The pool is closed with the source.
+     * @param deltaField  the date field used for {@code modifiedSince}.
+     */
+    public CumulusRecordSource(CumulusSessionPool sessionPool, String deltaField) {
+        this.sessionPool = sessionPool;
+        this.deltaField = deltaField;
+    }
+
+    @Override
+    public Records getRecords(String catalog, List<CumulusQueries.Condition> conditions, Instant modifiedSince)
+        throws IOException {
+        final CumulusQuery query = modifiedSince == null ?
+            CumulusQueries.getQueryForCatalog(catalog, conditions) :
+            CumulusQueries.getQueryForModifiedSince(catalog, conditions, deltaField, modifiedSince);
+        final CumulusSessionPool.Session session = borrow();
+        try {
+            log.debug("Requesting catalog '{}' with query '{}' from server", catalog, query);
+            final CumulusRecordCollection collection = session.getItems(catalog, query);
+            return new Records(collection.getCount(),
+                               StreamSupport.stream(collection.spliterator(), false).onClose(session::close));
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Records getRecords(String catalog, Collection<String> guids) throws IOException {
+        final CumulusSessionPool.Session session = borrow();
+        return new Records(Records.UNKNOWN_SIZE, guids.stream().
+            map(guid -> getRecord(session, catalog, guid)).
+            filter(Objects::nonNull).
+            onClose(session::close));
+    }
+
+    /**
+     * @return true, as Cumulus evaluates the conditions.
+     */
+    @Override
+    public boolean isQueryable() {
+        return true;
+    }
+
+    /**
+     * Closes the session pool.
+     */
+    @Override
+    public void close() {
+        sessionPool.close();
+    }
+
+    private CumulusRecord getRecord(CumulusSessionPool.Session session, String catalog, String guid) {
+        final Iterator<CumulusRecord> records =
+            session.getItems(catalog, CumulusQueries.getQueryForGUID(catalog, guid)).iterator();
+        if (!records.hasNext()) {
+            log.warn("The record '{}' is not in catalog '{}'", guid, catalog);
+            return null;
+        }
+        return records.next();
+    }
+
+    private CumulusSessionPool.Session borrow() throws IOException {
+        try {
+            return sessionPool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a Cumulus session");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.source;
+
+import dk.kb.cumulus.CumulusServer;
+import dk.kb.ds.cumulus.export.Configuration;
+import dk.kb.ds.cumulus.export.CumulusQueries;
+import dk.kb.ds.cumulus.export.CumulusSessionPool;
+import dk.kb.ds.cumulus.export.snapshot.RecordSnapshotReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Delivers the records to export or analyze, so that the export pipeline does not depend on a live Cumulus server.
+ *
+ * Implementations are {@link CumulusRecordSource} for a Cumulus server, {@link SnapshotRecordSource} for a local
+ * snapshot and {@link SyntheticRecordSource} for generated records, e.g. for benchmarking.
+ */
+public interface RecordSource extends Closeable {
+    /** Requests records from Cumulus. */
+    String CUMULUS = "cumulus";
+    /** Reads records from the snapshot given by {@link Configuration#getSnapshotReadFile()}. */
+    String SNAPSHOT = "snapshot";
+    /** Generates records as specified by {@link Configuration#getSyntheticConf()}. */
+    String SYNTHETIC = "synthetic";
+
+    /**
+     * Delivers the records in the catalog matching the conditions.
+     * @param catalog       the catalog.
+     * @param conditions    conditions for the records, combined left to right before the catalog condition.
+     *                      Ignored if the source is not {@link #isQueryable()}.
+     * @param modifiedSince if not null, only records modified after this are delivered.
+     *                      Ignored if the source is not {@link #isQueryable()}.
+     * @return the matching records, which must be closed after use.
+     * @throws IOException if the records could not be requested.
+     */
+    Records getRecords(String catalog, List<CumulusQueries.Condition> conditions, Instant modifiedSince)
+        throws IOException;
+
+    /**
+     * Delivers the records with the given GUIDs. GUIDs that are not in the catalog are ignored.
+     * @param catalog the catalog.
+     * @param guids   the GUIDs of the records, as given by {@link dk.kb.cumulus.CumulusRecord#getUUID()}.
+     * @return the records that were found, which must be closed after use.
+     * @throws IOException if the records could not be requested.
+     */
+    Records getRecords(String catalog, Collection<String> guids) throws IOException;
+
+    /**
+     * @return true if the conditions given to {@link #getRecords(String, List, Instant)} are used. Partitioning
+     *         requires this.
+     */
+    boolean isQueryable();
+
+    /**
+     * Counts the records in the catalog matching the conditions.
+     * @see #getRecords(String, List, Instant)
+     * @return the number of matching records.
+     * @throws IOException if the records could not be counted.
+     */
+    default long count(String catalog, List<CumulusQueries.Condition> conditions, Instant modifiedSince)
+        throws IOException {
+        try (Records records = getRecords(catalog, conditions, modifiedSince)) {
+            return records.size();
+        }
+    }
+
+    /**
+     * Creates the source stated by {@link Configuration#getSource()}.
+     * @return a source ready for use.
+     * @throws IOException if the source could not be opened.
+     */
+    static RecordSource fromConfiguration() throws IOException {
+        switch (Configuration.getSource()) {
+            case SNAPSHOT:
+                return new SnapshotRecordSource(new RecordSnapshotReader(Configuration.getSnapshotReadFile()));
+            case SYNTHETIC:
+                return new SyntheticRecordSource(Configuration.getSyntheticConf());
+            case CUMULUS:
+                return new CumulusRecordSource(
+                    new CumulusSessionPool(Configuration.getSessionPoolSize(),
+                                           () -> new CumulusServer(Configuration.getCumulusConf()),
+                                           Configuration.getSessionMaxIdle(), Configuration.getSessionRetries()),
+                    Configuration.getDeltaField());
+            default: throw new IllegalArgumentException("Unknown record source '" + Configuration.getSource() + "'");
+        }
+    }
+}
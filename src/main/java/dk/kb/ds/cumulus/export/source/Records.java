@@ -0,0 +1,60 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.source;
+
+import dk.kb.cumulus.CumulusRecord;
+
+import java.io.Closeable;
+import java.util.stream.Stream;
+
+/**
+ * The records delivered by a {@link RecordSource}. Closing releases the resources held for delivering them, such
+ * as a Cumulus session.
+ */
+public class Records implements Closeable {
+    /** The size when the number of records is not known in advance. */
+    public static final long UNKNOWN_SIZE = -1;
+
+    private final long size;
+    private final Stream<CumulusRecord> stream;
+
+    /**
+     * @param size   the number of records or {@link #UNKNOWN_SIZE}.
+     * @param stream the records. Resources are released with {@link Stream#onClose(Runnable)}.
+     */
+    public Records(long size, Stream<CumulusRecord> stream) {
+        this.size = size;
+        this.stream = stream;
+    }
+
+    /**
+     * @return the number of records or {@link #UNKNOWN_SIZE}.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the records, which can only be consumed once.
+     */
+    public Stream<CumulusRecord> stream() {
+        return stream;
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
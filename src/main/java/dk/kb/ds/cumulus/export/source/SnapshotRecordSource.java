@@ -0,0 +1,73 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.source;
+
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.CumulusQueries;
+import dk.kb.ds.cumulus.export.snapshot.RecordSnapshotReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads records from a local snapshot. The snapshot holds the records as they were requested, so conditions and
+ * modification times are ignored.
+ */
+public class SnapshotRecordSource implements RecordSource {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotRecordSource.class);
+
+    private final RecordSnapshotReader reader;
+
+    /**
+     * @param reader the snapshot. It is closed with the source.
+     */
+    public SnapshotRecordSource(RecordSnapshotReader reader) {
+        this.reader = reader;
+        log.info("Reading records from a snapshot instead of Cumulus. Queries and delta are ignored");
+    }
+
+    @Override
+    public Records getRecords(String catalog, List<CumulusQueries.Condition> conditions, Instant modifiedSince)
+        throws IOException {
+        return new Records(reader.getRecordCount(catalog), reader.records(catalog).map(CumulusRecord.class::cast));
+    }
+
+    @Override
+    public Records getRecords(String catalog, Collection<String> guids) {
+        final Set<String> wanted = new HashSet<>(guids);
+        return new Records(Records.UNKNOWN_SIZE, reader.records(catalog).
+            filter(record -> wanted.contains(record.getUUID())).
+            map(CumulusRecord.class::cast));
+    }
+
+    /**
+     * @return false, as the snapshot cannot evaluate conditions.
+     */
+    @Override
+    public boolean isQueryable() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
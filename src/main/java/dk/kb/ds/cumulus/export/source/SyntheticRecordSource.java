@@ -0,0 +1,293 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.source;
+
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.CumulusQueries;
+import dk.kb.ds.cumulus.export.MapRecord;
+import dk.kb.ds.cumulus.export.YAML;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+/**
+ * Generates records with configurable fields and value distributions, for measuring the throughput of the export
+ * without a Cumulus server.
+ *
+ * Record number {@code n} in a catalog is generated from a random generator seeded by the seed, the catalog and
+ * {@code n}, so the records are the same for every run and can be generated in any order. Sample setup:
+ * <pre>
+ * synthetic:
+ *   records: 1000000
+ *   seed: 87
+ *   fields:
+ *     - name: guid
+ *       type: template
+ *       template: "Uid:dk:kb:doms:2007-01/{guid}"
+ *     - name: Titel
+ *       type: text
+ *       min: 1
+ *       max: 8
+ *     - name: Materialebetegnelse
+ *       type: choice
+ *       values: [Fotografi, Tegning, Postkort]
+ *       weights: [6, 3, 1]
+ *       presence: 0.9
+ * </pre>
+ * The field types are
+ * <ul>
+ *   <li>{@code id}: the record number, starting at 1.</li>
+ *   <li>{@code text}: between min and max (default 1 and 8) words.</li>
+ *   <li>{@code integer}: a number between min and max (default 0 and 10000), both inclusive.</li>
+ *   <li>{@code date}: a time between the years min and max (default 1850 and 2020), formatted like Cumulus.</li>
+ *   <li>{@code choice}: one of the values, optionally weighted.</li>
+ *   <li>{@code template}: the template with {@code {id}}, {@code {guid}} and {@code {catalog}} replaced.</li>
+ *   <li>{@code rendition}: as template, but delivered as the rendition for an {@code assetReference} source.</li>
+ * </ul>
+ */
+public class SyntheticRecordSource implements RecordSource {
+    private static final Logger log = LoggerFactory.getLogger(SyntheticRecordSource.class);
+
+    /** The number of records in each catalog. */
+    public static final String CONF_RECORDS = "records";
+    public static final int DEFAULT_RECORDS = 10000;
+    public static final String CONF_SEED = "seed";
+    public static final int DEFAULT_SEED = 87;
+    public static final String CONF_FIELDS = "fields";
+    public static final String CONF_FIELD_NAME = "name";
+    public static final String CONF_FIELD_TYPE = "type";
+    /** The probability from 0.0 to 1.0 that a record has the field. Default is 1.0. */
+    public static final String CONF_FIELD_PRESENCE = "presence";
+    public static final String CONF_FIELD_MIN = "min";
+    public static final String CONF_FIELD_MAX = "max";
+    public static final String CONF_FIELD_VALUES = "values";
+    public static final String CONF_FIELD_WEIGHTS = "weights";
+    public static final String CONF_FIELD_TEMPLATE = "template";
+
+    /** Same format as Cumulus uses for dates, see {@link dk.kb.ds.cumulus.export.CalendarUtils}. */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.
+        ofPattern("ccc LLL dd HH:mm:ss zzz yyyy", Locale.UK).
+        withZone(ZoneId.of("Europe/Copenhagen"));
+    private static final String[] WORDS = {
+        "København", "havn", "skib", "portræt", "kirke", "gade", "slot", "mølle", "strand", "bro", "torv",
+        "familie", "bryllup", "konge", "dronning", "soldat", "fisker", "bonde", "gård", "skov", "sø", "å",
+        "vinter", "sommer", "udsigt", "interiør", "postkort", "tegning", "akvarel", "kort", "Aarhus", "Odense",
+        "Ålborg", "Helsingør", "Roskilde", "Ribe", "Skagen", "Bornholm", "Frederiksberg", "Christianshavn"};
+
+    private final long records;
+    private final long seed;
+    private final List<FieldGenerator> generators = new ArrayList<>();
+    private final Map<String, String> dataTypes = new HashMap<>();
+
+    /**
+     * @param conf the setup for the records, see the class documentation.
+     * @throws IllegalArgumentException if the setup is not valid.
+     */
+    public SyntheticRecordSource(YAML conf) {
+        this.records = conf.getInteger(CONF_RECORDS, DEFAULT_RECORDS);
+        this.seed = conf.getInteger(CONF_SEED, DEFAULT_SEED);
+        final List<YAML> fields = conf.getYAMLList(CONF_FIELDS);
+        for (YAML field: fields == null ? Collections.<YAML>emptyList() : fields) {
+            final FieldGenerator generator = new FieldGenerator(field);
+            generators.add(generator);
+            if (!generator.isRendition()) {
+                dataTypes.put(generator.name, generator.getDataType());
+            }
+        }
+        log.info("Generating {} records per catalog with {} fields", records, generators.size());
+    }
+
+    @Override
+    public Records getRecords(String catalog, List<CumulusQueries.Condition> conditions, Instant modifiedSince) {
+        return new Records(records, LongStream.range(0, records).mapToObj(index -> generate(catalog, index)));
+    }
+
+    @Override
+    public Records getRecords(String catalog, Collection<String> guids) {
+        final Set<String> wanted = new HashSet<>(guids);
+        return new Records(Records.UNKNOWN_SIZE, LongStream.range(0, records).
+            mapToObj(index -> generate(catalog, index)).
+            filter(record -> wanted.contains(record.getUUID())));
+    }
+
+    /**
+     * @return false, as conditions are not evaluated for the generated records.
+     */
+    @Override
+    public boolean isQueryable() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * @param catalog the catalog that the record belongs to.
+     * @param index   the number of the record in the catalog, starting at 0.
+     * @return the generated record. The same catalog and index always gives the same record.
+     */
+    CumulusRecord generate(String catalog, long index) {
+        final SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L ^ catalog.hashCode() * 31L ^
+                                                             index * 0xBF58476D1CE4E5B9L);
+        final String guid = new UUID(random.nextLong(), random.nextLong()).toString();
+        final Map<String, String> values = new LinkedHashMap<>();
+        Map<String, String> renditions = Map.of();
+        for (FieldGenerator generator: generators) {
+            if (generator.presence < 1.0 && random.nextDouble() >= generator.presence) {
+                continue;
+            }
+            final String value = generator.generate(random, catalog, index + 1, guid);
+            if (generator.isRendition()) {
+                if (renditions.isEmpty()) {
+                    renditions = new HashMap<>();
+                }
+                renditions.put(generator.name, value);
+            } else {
+                values.put(generator.name, value);
+            }
+        }
+        return new MapRecord(guid, values, dataTypes, renditions);
+    }
+
+    /**
+     * Generates the values for a single field.
+     */
+    private static class FieldGenerator {
+        final String name;
+        final String type;
+        final double presence;
+        final long min;
+        final long max;
+        final List<String> values;
+        final double[] cumulativeWeights;
+        final String template;
+
+        FieldGenerator(YAML conf) {
+            this.name = conf.getString(CONF_FIELD_NAME, null);
+            this.type = conf.getString(CONF_FIELD_TYPE, "text");
+            if (name == null) {
+                throw new IllegalArgumentException("A synthetic field must have a " + CONF_FIELD_NAME);
+            }
+            this.presence = Double.parseDouble(conf.getString(CONF_FIELD_PRESENCE, "1.0"));
+            final long defaultMin;
+            final long defaultMax;
+            switch (type) {
+                case "text":    defaultMin = 1;    defaultMax = 8;     break;
+                case "date":    defaultMin = 1850; defaultMax = 2020;  break;
+                default:        defaultMin = 0;    defaultMax = 10000;
+            }
+            this.min = Long.parseLong(conf.getString(CONF_FIELD_MIN, Long.toString(defaultMin)));
+            this.max = Long.parseLong(conf.getString(CONF_FIELD_MAX, Long.toString(defaultMax)));
+            if (min > max) {
+                throw new IllegalArgumentException(
+                    "The synthetic field '" + name + "' has min " + min + " above max " + max);
+            }
+            final List<Object> values = conf.getList(CONF_FIELD_VALUES);
+            this.values = new ArrayList<>();
+            if (values != null) {
+                values.forEach(value -> this.values.add(String.valueOf(value)));
+            }
+            this.cumulativeWeights = new double[this.values.size()];
+            final List<Object> weights = conf.getList(CONF_FIELD_WEIGHTS);
+            double sum = 0;
+            for (int i = 0 ; i < cumulativeWeights.length ; i++) {
+                sum += weights == null ? 1.0 : Double.parseDouble(String.valueOf(weights.get(i)));
+                cumulativeWeights[i] = sum;
+            }
+            this.template = conf.getString(CONF_FIELD_TEMPLATE, "{guid}");
+            switch (type) {
+                case "id": case "text": case "integer": case "date": case "template": case "rendition": break;
+                case "choice": {
+                    if (this.values.isEmpty() || (weights != null && weights.size() != this.values.size())) {
+                        throw new IllegalArgumentException(
+                            "The synthetic choice field '" + name + "' must have values and the same number of " +
+                            "weights, if weights are given");
+                    }
+                    break;
+                }
+                default: throw new IllegalArgumentException(
+                    "Unknown type '" + type + "' for synthetic field '" + name + "'");
+            }
+        }
+
+        /**
+         * @return the Cumulus data type for the generated values, as stated by {@link MapRecord#getDataType}.
+         */
+        String getDataType() {
+            switch (type) {
+                case "id": case "integer": return "integer";
+                case "date": return "date";
+                default: return "string";
+            }
+        }
+
+        boolean isRendition() {
+            return "rendition".equals(type);
+        }
+
+        String generate(SplittableRandom random, String catalog, long id, String guid) {
+            switch (type) {
+                case "id": return Long.toString(id);
+                case "integer": return Long.toString(random.nextLong(min, max + 1));
+                case "text": {
+                    final StringBuilder sb = new StringBuilder();
+                    for (long words = random.nextLong(min, max + 1) ; words > 0 ; words--) {
+                        if (sb.length() > 0) {
+                            sb.append(' ');
+                        }
+                        sb.append(WORDS[random.nextInt(WORDS.length)]);
+                    }
+                    return sb.toString();
+                }
+                case "date": {
+                    final long from = Instant.parse(min + "-01-01T00:00:00Z").getEpochSecond();
+                    final long to = Instant.parse((max + 1) + "-01-01T00:00:00Z").getEpochSecond();
+                    return DATE_FORMATTER.format(Instant.ofEpochSecond(random.nextLong(from, to)));
+                }
+                case "choice": {
+                    final double pick = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+                    for (int i = 0 ; i < cumulativeWeights.length ; i++) {
+                        if (pick < cumulativeWeights[i]) {
+                            return values.get(i);
+                        }
+                    }
+                    return values.get(values.size() - 1);
+                }
+                default: return template.
+                    replace("{id}", Long.toString(id)).
+                    replace("{guid}", guid).
+                    replace("{catalog}", catalog);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogPartitionerTest {
+
+    @Test
+    void testBalanced() {
+        // Skewed IDs: A dense block followed by a sparse tail
+        final long[] ids = LongStream.concat(
+            LongStream.range(1, 9001),
+            new Random(87).longs(1000, 9001, 5000000).distinct()).sorted().toArray();
+        final AtomicInteger counts = new AtomicInteger(0);
+        final CatalogPartitioner partitioner = new CatalogPartitioner("ID", conditions -> {
+            counts.incrementAndGet();
+            return count(ids, conditions);
+        });
+
+        final List<Long> bounds = partitioner.findBounds(4);
+        assertEquals(3, bounds.size(), "There should be a boundary between each of the 4 partitions");
+        final List<CatalogPartitioner.Partition> partitions = CatalogPartitioner.getPartitions("ID", bounds);
+        assertEquals(4, partitions.size(), "There should be 4 partitions");
+        assertNull(partitions.get(0).from, "The first partition should be open ended");
+        assertNull(partitions.get(3).to, "The last partition should be open ended");
+
+        long total = 0;
+        for (CatalogPartitioner.Partition partition: partitions) {
+            final long count = count(ids, partition.getConditions());
+            assertTrue(Math.abs(count - ids.length / 4) <= 1,
+                       "Partition " + partition + " should hold about a quarter of " + ids.length + " records but " +
+                       "held " + count);
+            total += count;
+        }
+        assertEquals(ids.length, total, "The partitions should cover all records exactly once");
+        assertTrue(counts.get() < 200, "Partitioning should need few counts, but used " + counts.get());
+    }
+
+    @Test
+    void testSmallCatalog() {
+        final long[] ids = {5, 7};
+        final CatalogPartitioner partitioner = new CatalogPartitioner("ID", conditions -> count(ids, conditions));
+        assertTrue(partitioner.findBounds(4).isEmpty(), "A catalog with fewer records than partitions should not " +
+                                                        "be partitioned");
+        assertEquals(1, CatalogPartitioner.getPartitions("ID", List.of()).size(),
+                     "No bounds should give a single partition");
+        assertTrue(CatalogPartitioner.getPartitions("ID", List.of()).get(0).getConditions().isEmpty(),
+                   "A single partition should not restrict the query");
+    }
+
+    @Test
+    void testConditions() {
+        final CatalogPartitioner.Partition partition = CatalogPartitioner.getPartitions("ID", List.of(10L, 20L)).get(1);
+        assertEquals("[and\tID\tis greater than\t9, and\tID\tis less than\t20]",
+                     partition.getConditions().toString(), "The middle partition should be bounded at both ends");
+        assertEquals("Samlingsbilleder#1", partition.getKey("Samlingsbilleder"), "The key should hold the index");
+    }
+
+    /**
+     * Evaluates the conditions produced by {@link CatalogPartitioner} like Cumulus would.
+     */
+    private static long count(long[] ids, List<CumulusQueries.Condition> conditions) {
+        return LongStream.of(ids).filter(id -> conditions.stream().allMatch(condition -> {
+            final long value = Long.parseLong(condition.value);
+            switch (condition.operator) {
+                case CatalogPartitioner.GREATER_THAN: return id > value;
+                case CatalogPartitioner.LESS_THAN: return id < value;
+                default: throw new IllegalArgumentException("Unsupported operator " + condition.operator);
+            }
+        })).count();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import dk.kb.ds.cumulus.export.output.XMLDocumentWriter;
+import dk.kb.ds.cumulus.export.snapshot.RecordSnapshotReader;
+import dk.kb.ds.cumulus.export.snapshot.RecordSnapshotWriter;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static dk.kb.ds.cumulus.export.DSAsserts.createDoc;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTest {
+
+    @Test
+    public void testResume() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path outputFile = dir.resolve("export.xml");
+        try {
+            // Write 5 documents with a checkpoint for every 2 and "crash" in the middle of a document
+            Checkpoint checkpoint = new Checkpoint(outputFile, 2);
+            XMLDocumentWriter writer = new XMLDocumentWriter(new FileOutputStream(outputFile.toFile()));
+            for (int i = 0 ; i < 5 ; i++) {
+                writer.write(createDoc(i));
+                checkpoint.advance("cat1", writer, "id" + i);
+            }
+            writer.flush();
+            Files.write(outputFile, "    <doc><field name=\"id\">partial".getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.APPEND);
+
+            // Resume from the checkpoint after the 4th document
+            Checkpoint loaded = new Checkpoint(outputFile, 2);
+            assertTrue(loaded.load(), "The checkpoint should be loaded");
+            assertEquals(4, loaded.getPosition("cat1"), "The position should be after the last stored checkpoint");
+            assertFalse(loaded.isDone("cat1"), "The catalog should not be marked as done");
+            assertEquals("id3", loaded.getLastHandled("cat1"), "The last handled record should be stored");
+            try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+                channel.truncate(loaded.getOffset());
+            }
+            try (XMLDocumentWriter resumed = new XMLDocumentWriter(
+                new FileOutputStream(outputFile.toFile(), true), loaded.getOffset())) {
+                for (int i = (int)loaded.getPosition("cat1") ; i < 5 ; i++) {
+                    resumed.write(createDoc(i));
+                }
+            }
+
+            org.w3c.dom.Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().
+                parse(outputFile.toFile());
+            assertEquals(5, dom.getElementsByTagName("doc").getLength(),
+                         "The resumed output should be valid XML with all documents exactly once");
+        } finally {
+            Files.deleteIfExists(outputFile);
+            Files.deleteIfExists(dir.resolve("export.xml" + Checkpoint.CHECKPOINT_SUFFIX));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path outputFile = dir.resolve("export.xml");
+        try {
+            Checkpoint checkpoint = new Checkpoint(outputFile, 0);
+            assertNull(checkpoint.getBounds("cat1"), "There should be no bounds before they are set");
+            checkpoint.setBounds("cat1", List.of(100L, 2000L));
+            checkpoint.setBounds("cat2", List.of());
+            try (XMLDocumentWriter writer = new XMLDocumentWriter(new FileOutputStream(outputFile.toFile()))) {
+                checkpoint.markDone("cat1#0", writer);
+            }
+
+            Checkpoint loaded = new Checkpoint(outputFile, 0);
+            assertTrue(loaded.load(), "The checkpoint should be loaded");
+            assertEquals(List.of(100L, 2000L), loaded.getBounds("cat1"), "The bounds should be stored");
+            assertEquals(List.of(), loaded.getBounds("cat2"), "Empty bounds should be stored");
+            assertTrue(loaded.isDone("cat1#0"), "The partition should be marked as done");
+        } finally {
+            Files.deleteIfExists(outputFile);
+            Files.deleteIfExists(dir.resolve("export.xml" + Checkpoint.CHECKPOINT_SUFFIX));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testSnapshotFlush() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path outputFile = dir.resolve("export.xml");
+        Path snapshotFile = dir.resolve("snapshot.bin");
+        RecordSnapshotWriter snapshot = new RecordSnapshotWriter(snapshotFile, false);
+        try (XMLDocumentWriter writer = new XMLDocumentWriter(new FileOutputStream(outputFile.toFile()))) {
+            Checkpoint checkpoint = new Checkpoint(outputFile, 1);
+            checkpoint.setSnapshot(snapshot);
+            snapshot.add("cat1", new MapRecord("guid1", Map.of("Titel", "myTitle"), Map.of("Titel", "string"),
+                                               Map.of()), Map.of());
+            writer.write(createDoc(1));
+            checkpoint.advance("cat1", writer, "guid1");
+
+            // The snapshot is not closed, as if the process was killed after the checkpoint was stored
+            try (RecordSnapshotReader reader = new RecordSnapshotReader(snapshotFile)) {
+                assertEquals(1, reader.getRecordCount("cat1"),
+                             "The records handled before the checkpoint should be in the snapshot");
+            }
+        } finally {
+            snapshot.close();
+            Files.deleteIfExists(outputFile);
+            Files.deleteIfExists(snapshotFile);
+            Files.deleteIfExists(dir.resolve("export.xml" + Checkpoint.CHECKPOINT_SUFFIX));
+            Files.deleteIfExists(dir);
+        }
+    }
+}
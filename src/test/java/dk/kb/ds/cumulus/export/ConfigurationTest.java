@@ -5,6 +5,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Map;
+
 class ConfigurationTest {
 
     @Test
@@ -18,4 +21,20 @@ class ConfigurationTest {
         assertNotNull(Configuration.getCumulusConf(), "The cumulus configuration should exist");
     }
 
+    @Test
+    public void testQueryPresetNames() {
+        List<Map<String, Object>> conditions = List.of(Map.of("field", "Publiceret", "value", "true"));
+        assertEquals(1, Configuration.loadQueryConditions(new YAML(Map.of(
+            "preset", "published", "presets", Map.of("published", conditions)))).size(),
+                     "The conditions from the preset should be used");
+        assertThrows(IllegalArgumentException.class, () -> Configuration.loadQueryConditions(new YAML(Map.of(
+            "preset", "published", "presets", Map.of("pub.lished", conditions)))),
+                     "A preset name with a dot should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> Configuration.loadQueryConditions(new YAML(Map.of(
+            "preset", "pub.lished"))),
+                     "A selected preset name with a dot should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> Configuration.loadQueryConditions(new YAML(Map.of(
+            "presets", Map.of("all", conditions)))),
+                     "A preset named 'all' should be rejected");
+    }
 }
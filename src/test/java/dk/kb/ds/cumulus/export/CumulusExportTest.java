@@ -2,8 +2,12 @@ package dk.kb.ds.cumulus.export;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import dk.kb.cumulus.CumulusRecord;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 public class CumulusExportTest {
 
     @Test
@@ -25,4 +29,34 @@ public class CumulusExportTest {
         String configType = CumulusExport.getConfigurationType();
         assertEquals("image", configType);
     }
+
+    @Test
+    public void testGetCatalogOutputFile() {
+        assertEquals("indexThisInSolr-Samlingsbilleder.xml",
+                     CumulusExport.getCatalogOutputFile("indexThisInSolr.xml", "Samlingsbilleder"));
+        assertEquals("/tmp/out.d/export-Foo_Bar",
+                     CumulusExport.getCatalogOutputFile("/tmp/out.d/export", "Foo Bar"));
+        assertEquals("export-Samlingsbilleder.xml.gz",
+                     CumulusExport.getCatalogOutputFile("export.xml.gz", "Samlingsbilleder"));
+    }
+
+    @Test
+    public void testGetReplayOutputFile() {
+        assertEquals("indexThisInSolr-replay.xml", CumulusExport.getReplayOutputFile("indexThisInSolr.xml"));
+    }
+
+    @Test
+    public void testSkipHandled() {
+        final List<CumulusRecord> records = List.of(
+            new CumulusRecordMock("GUID", "a"), new CumulusRecordMock("GUID", "b"), new CumulusRecordMock("GUID", "c"));
+        assertEquals(List.of("c"), CumulusExport.skipHandled(records.stream(), "cat", 2, "b").
+                         map(CumulusRecord::getUUID).collect(Collectors.toList()),
+                     "The handled records should be skipped");
+        assertEquals(List.of("c"), CumulusExport.skipHandled(records.stream(), "cat", 2, null).
+                         map(CumulusRecord::getUUID).collect(Collectors.toList()),
+                     "The handled records should be skipped without a last handled record");
+        assertThrows(IllegalStateException.class,
+                     () -> CumulusExport.skipHandled(records.stream(), "cat", 2, "a").count(),
+                     "A changed order of the records should stop the resume");
+    }
 }
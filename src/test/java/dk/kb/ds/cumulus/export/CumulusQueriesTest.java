@@ -0,0 +1,60 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CumulusQueriesTest {
+
+    @Test
+    public void testConditions() {
+        List<CumulusQueries.Condition> conditions = List.of(
+            new CumulusQueries.Condition("and", "Publiceret", "is", "true"),
+            new CumulusQueries.Condition("or", "Categories", "contains", "toys"));
+        assertEquals("Publiceret\tis\ttrue\nor\tCategories\tcontains\ttoys\nand\tCatalog Name\tis\tcat1",
+                     CumulusQueries.getQueryForCatalog("cat1", conditions).getQuery(),
+                     "The catalog condition should follow the conditions, so that it applies to all of them");
+        assertEquals("Catalog Name\tis\tcat1", CumulusQueries.getQueryForCatalog("cat1", List.of()).getQuery(),
+                     "Without conditions, the query should match the whole catalog");
+        assertEquals("Publiceret\tis\ttrue\nand\tRecord Modification Date\tis after\t2019-11-11 11:15:30\n" +
+                     "and\tCatalog Name\tis\tcat1",
+                     CumulusQueries.getQueryForModifiedSince(
+                         "cat1", conditions.subList(0, 1), "Record Modification Date",
+                         Instant.parse("2019-11-11T10:15:30Z")).getQuery(),
+                     "The delta condition should be added after the configured conditions");
+    }
+
+    @Test
+    public void testInvalidCondition() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new CumulusQueries.Condition("xor", "Publiceret", "is", "true"),
+                     "Only 'and' and 'or' should be allowed for combining conditions");
+        assertThrows(IllegalArgumentException.class,
+                     () -> new CumulusQueries.Condition("and", "Publiceret", "is", null),
+                     "A condition should require a value");
+    }
+
+    @Test
+    public void testGUIDQuery() {
+        assertEquals("Catalog Name\tis\tcat1\nand\tGUID\tis\tguid1",
+                     CumulusQueries.getQueryForGUID("cat1", "guid1").getQuery(),
+                     "The query should match the catalog and the GUID");
+    }
+}
@@ -70,7 +70,8 @@ public class CumulusRecordMock extends CumulusRecord {
     }
 
     /**
-     * Add images for the record with this method. they are used for {@link Converter#getRenditionAssetReference}.
+     * Add images for the record with this method. they are used for
+     * {@link dk.kb.ds.cumulus.export.converters.RecordContext#getRenditionAssetReference}.
      * @param asset
      */
     public void addAsset(String asset) {
@@ -0,0 +1,239 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import dk.kb.cumulus.CumulusQuery;
+import dk.kb.cumulus.CumulusRecordCollection;
+import dk.kb.cumulus.CumulusServer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+class CumulusSessionPoolTest {
+
+    @Test
+    void testReuse() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(2, () -> newServer(servers), Duration.ofHours(1), 1)) {
+            CumulusServer first;
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                first = session.getServer();
+            }
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertSame(first, session.getServer(), "A released session should be reused");
+            }
+            assertEquals(1, pool.getLogins(), "Only one login should be needed for sequential use");
+        }
+        verify(servers.get(0)).close();
+    }
+
+    @Test
+    void testSize() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        final AtomicInteger concurrent = new AtomicInteger(0);
+        final AtomicInteger maxConcurrent = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(6);
+        try (CumulusSessionPool pool = new CumulusSessionPool(3, () -> newServer(servers), Duration.ofHours(1), 1)) {
+            List<Future<?>> jobs = new ArrayList<>();
+            for (int i = 0 ; i < 12 ; i++) {
+                jobs.add(executor.submit(() -> {
+                    try (CumulusSessionPool.Session session = pool.borrow()) {
+                        assertNotNull(session.getServer(), "A borrowed session should be logged in");
+                        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                        Thread.sleep(10);
+                        concurrent.decrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> job: jobs) {
+                job.get(10, TimeUnit.SECONDS);
+            }
+            assertTrue(maxConcurrent.get() <= 3, "At most 3 sessions should be in use, but there was " +
+                                                 maxConcurrent.get());
+            assertTrue(pool.getLogins() <= 3, "At most 3 logins should be made, but there was " + pool.getLogins());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testReloginOnFailure() throws Exception {
+        final CumulusRecordCollection records = mock(CumulusRecordCollection.class);
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(1, () -> {
+            CumulusServer server = newServer(servers);
+            if (servers.size() == 1) {
+                when(server.getItems(anyString(), any(CumulusQuery.class))).
+                    thenThrow(new IllegalStateException("Session expired"));
+            } else {
+                when(server.getItems(anyString(), any(CumulusQuery.class))).thenReturn(records);
+            }
+            return server;
+        }, Duration.ofHours(1), 1)) {
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertSame(records, session.getItems("Samlingsbilleder", mock(CumulusQuery.class)),
+                           "The request should succeed after a new login");
+            }
+            assertEquals(2, pool.getLogins(), "The failed session should be replaced by a new login");
+            verify(servers.get(0)).close();
+        }
+    }
+
+    @Test
+    void testRetriesExhausted() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(1, () -> {
+            CumulusServer server = newServer(servers);
+            when(server.getItems(anyString(), any(CumulusQuery.class))).
+                thenThrow(new IllegalStateException("Server down"));
+            return server;
+        }, Duration.ofHours(1), 2)) {
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertThrows(IllegalStateException.class,
+                             () -> session.getItems("Samlingsbilleder", mock(CumulusQuery.class)),
+                             "The failure should be passed on when the retries are exhausted");
+            }
+            assertEquals(3, pool.getLogins(), "There should be a login for the first attempt and each retry");
+        }
+    }
+
+    @Test
+    void testExpiredIdle() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(1, () -> newServer(servers), Duration.ZERO, 1)) {
+            pool.borrow().close();
+            Thread.sleep(5);
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertSame(servers.get(1), session.getServer(), "An expired session should be replaced");
+            }
+            verify(servers.get(0)).close();
+        }
+    }
+
+    @Test
+    void testFailedLogin() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        final AtomicInteger attempts = new AtomicInteger(0);
+        try (CumulusSessionPool pool = new CumulusSessionPool(2, () -> {
+            if (attempts.incrementAndGet() <= 3) {
+                throw new IllegalStateException("Login failed");
+            }
+            return newServer(servers);
+        }, Duration.ZERO, 1)) {
+            for (int i = 0 ; i < 3 ; i++) {
+                assertThrows(IllegalStateException.class, pool::borrow, "The failed login should be passed on");
+            }
+            // A lost capacity would make this wait forever
+            final CumulusSessionPool.Session first = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.borrow();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            first.close();
+
+            Thread.sleep(5);
+            attempts.set(0); // The re-login of the expired session fails
+            assertThrows(IllegalStateException.class, pool::borrow, "The failed re-login should be passed on");
+            assertThrows(IllegalStateException.class, pool::borrow, "The failed login should be passed on");
+            assertThrows(IllegalStateException.class, pool::borrow, "The failed login should be passed on");
+            try (CumulusSessionPool.Session a = pool.borrow(); CumulusSessionPool.Session b = pool.borrow()) {
+                assertNotSame(a, b, "The full capacity should be available after failed logins");
+            }
+        }
+    }
+
+    @Test
+    void testFailedRelogin() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(1, () -> {
+            if (servers.size() == 1) {
+                servers.add(null); // The re-login fails once
+                throw new IllegalStateException("Login failed");
+            }
+            CumulusServer server = newServer(servers);
+            when(server.getItems(anyString(), any(CumulusQuery.class))).
+                thenThrow(new IllegalStateException("Session expired"));
+            return server;
+        }, Duration.ofHours(1), 1)) {
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertThrows(IllegalStateException.class,
+                             () -> session.getItems("Samlingsbilleder", mock(CumulusQuery.class)),
+                             "The failed re-login should be passed on");
+            }
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertSame(servers.get(2), session.getServer(),
+                           "The session with the failed re-login should be replaced by a new login");
+            }
+            verify(servers.get(0)).close();
+        }
+    }
+
+    @Test
+    void testFailedWithoutRetries() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(1, () -> {
+            CumulusServer server = newServer(servers);
+            when(server.getItems(anyString(), any(CumulusQuery.class))).
+                thenThrow(new IllegalStateException("Session expired"));
+            return server;
+        }, Duration.ofHours(1), 0)) {
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertThrows(IllegalStateException.class,
+                             () -> session.getItems("Samlingsbilleder", mock(CumulusQuery.class)),
+                             "The failure should be passed on without retries");
+            }
+            verify(servers.get(0)).close();
+            try (CumulusSessionPool.Session session = pool.borrow()) {
+                assertSame(servers.get(1), session.getServer(), "The failed session should not be reused");
+            }
+        }
+    }
+
+    @Test
+    void testDoubleClose() throws Exception {
+        final List<CumulusServer> servers = new ArrayList<>();
+        try (CumulusSessionPool pool = new CumulusSessionPool(2, () -> newServer(servers), Duration.ofHours(1), 1)) {
+            final CumulusSessionPool.Session session = pool.borrow();
+            session.close();
+            session.close();
+            try (CumulusSessionPool.Session a = pool.borrow(); CumulusSessionPool.Session b = pool.borrow()) {
+                assertNotSame(a.getServer(), b.getServer(), "A session closed twice should only be returned once");
+            }
+        }
+    }
+
+    private static CumulusServer newServer(List<CumulusServer> servers) {
+        final CumulusServer server = mock(CumulusServer.class);
+        synchronized (servers) {
+            servers.add(server);
+        }
+        return server;
+    }
+}
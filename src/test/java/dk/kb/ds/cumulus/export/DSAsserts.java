@@ -21,10 +21,21 @@ import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
- * custom assertions for easier unit testing.
+ * custom assertions and test documents for easier unit testing.
  */
 public class DSAsserts {
 
+    /**
+     * @param id the number of the document.
+     * @return a document with the id {@code doc_<id>} and a title that needs escaping in XML.
+     */
+    public static FieldMapper.FieldValues createDoc(int id) {
+        FieldMapper.FieldValues doc = new FieldMapper.FieldValues();
+        doc.add(new FieldMapper.FieldValue("id", "doc_" + id));
+        doc.add(new FieldMapper.FieldValue("title", "Title <" + id + ">"));
+        return doc;
+    }
+
     /**
      * Helper for checking that conversion yielded the expected result.
      * @param fieldValues the converted key-values.
@@ -0,0 +1,56 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import dk.kb.cumulus.CumulusQuery;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaStateTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path stateFile = Files.createTempDirectory("delta").resolve("export.delta");
+        try {
+            DeltaState state = new DeltaState(stateFile);
+            assertNull(state.getWatermark("cat1"), "There should be no watermark before the first export");
+
+            Instant watermark = Instant.parse("2019-11-11T10:15:30Z");
+            state.setWatermark("cat1", watermark);
+            state.store();
+
+            DeltaState loaded = new DeltaState(stateFile);
+            assertEquals(watermark, loaded.getWatermark("cat1"), "The stored watermark should be loaded");
+            assertNull(loaded.getWatermark("cat2"), "There should be no watermark for an unknown catalog");
+        } finally {
+            Files.deleteIfExists(stateFile);
+            Files.deleteIfExists(stateFile.getParent());
+        }
+    }
+
+    @Test
+    public void testModifiedSinceQuery() {
+        CumulusQuery query = CumulusQueries.getQueryForModifiedSince(
+            "cat1", "Record Modification Date", Instant.parse("2019-11-11T10:15:30Z"));
+        assertEquals("Record Modification Date\tis after\t2019-11-11 11:15:30\nand\tCatalog Name\tis\tcat1",
+                     query.getQuery(), "The query should use local time for the Cumulus server");
+    }
+}
@@ -14,10 +14,13 @@
  */
 package dk.kb.ds.cumulus.export;
 
+import dk.kb.ds.cumulus.export.converters.ConversionPlan;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 class FieldMapperTest {
 
@@ -75,4 +78,28 @@ class FieldMapperTest {
         );
     }
 
+    @Test
+    public void testRejectListener() throws IOException {
+        CumulusRecordMock record = new CumulusRecordMock("GUID", "b29e6d60", "Titel", "myTitle");
+        FieldMapper mapper = new FieldMapper();
+        List<String> rejects = new ArrayList<>();
+        FieldMapper.FieldValues fieldValues = mapper.apply(
+            record, (r, converter, cause) -> rejects.add(r.getUUID() + " " + converter.source));
+        Assertions.assertNull(fieldValues, "The record without the required guid should be rejected");
+        Assertions.assertEquals(List.of("b29e6d60 guid"), rejects,
+                                "The listener should be called with the record and the failing converter");
+    }
+
+    @Test
+    public void testPlan() throws IOException {
+        ConversionPlan plan = new FieldMapper().getPlan();
+        Assertions.assertEquals("guid", plan.getSteps().get(0).converter.source,
+                                "The plain fields should be converted first");
+        Assertions.assertEquals("image_preview", plan.getSteps().stream().
+                                    filter(step -> step.phase == ConversionPlan.Phase.CHECKS).
+                                    findFirst().orElseThrow().converter.destination,
+                                "The verified image_preview should be among the last converters");
+        Assertions.assertEquals(ConversionPlan.Phase.CHECKS, plan.getSteps().get(plan.size() - 1).phase,
+                                "The converters verifying URLs should be run last");
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelProcessorTest {
+
+    // Random delays makes the workers finish out of order
+    private static final Function<Integer, Integer> SLOW_DOUBLER = i -> {
+        try {
+            Thread.sleep(new Random(i).nextInt(5));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return i * 2;
+    };
+
+    @Test
+    public void testOrdered() {
+        List<Integer> results = new ArrayList<>();
+        long processed = new ParallelProcessor<Integer, Integer>(4, 8, true).process(
+            IntStream.range(0, 200).boxed(), SLOW_DOUBLER, results::add);
+
+        assertEquals(200, processed, "All elements should be processed");
+        assertEquals(IntStream.range(0, 200).map(i -> i*2).boxed().collect(Collectors.toList()), results,
+                     "The results should be in source order");
+    }
+
+    @Test
+    public void testUnordered() {
+        List<Integer> results = new ArrayList<>();
+        long processed = new ParallelProcessor<Integer, Integer>(4, 8, false).process(
+            IntStream.range(0, 200).boxed(), SLOW_DOUBLER, results::add);
+
+        assertEquals(200, processed, "All elements should be processed");
+        assertEquals(IntStream.range(0, 200).map(i -> i*2).boxed().collect(Collectors.toList()),
+                     results.stream().sorted().collect(Collectors.toList()),
+                     "All results should be delivered");
+    }
+
+    @Test
+    public void testSingleThreaded() {
+        List<Integer> results = new ArrayList<>();
+        final Thread caller = Thread.currentThread();
+        new ParallelProcessor<Integer, Integer>(1, 1, true).process(
+            IntStream.range(0, 10).boxed(),
+            i -> {
+                assertSame(caller, Thread.currentThread(), "The mapping should be done by the calling thread");
+                return i;
+            },
+            results::add);
+        assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), results,
+                     "The results should be in source order");
+    }
+
+    @Test
+    public void testNullResults() {
+        List<Integer> results = new ArrayList<>();
+        long processed = new ParallelProcessor<Integer, Integer>(2, 4, true).process(
+            IntStream.range(0, 10).boxed(), i -> i % 2 == 0 ? null : i, results::add);
+        assertEquals(10, processed, "All elements should be processed");
+        assertEquals(10, results.size(), "Null results should also be delivered");
+    }
+
+    @Test
+    public void testException() {
+        assertThrows(IllegalStateException.class, () ->
+            new ParallelProcessor<Integer, Integer>(2, 4, true).process(
+                IntStream.range(0, 10).boxed(),
+                i -> {
+                    if (i == 5) {
+                        throw new IllegalStateException("Fail on 5");
+                    }
+                    return i;
+                },
+                i -> {}));
+    }
+
+    @Test
+    public void testAsync() {
+        // Futures completed by other threads, as with asynchronous network requests
+        final AtomicInteger pending = new AtomicInteger(0);
+        final AtomicInteger maxPending = new AtomicInteger(0);
+        final Function<Integer, CompletableFuture<Integer>> delayed = i -> {
+            maxPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                pending.decrementAndGet();
+                return SLOW_DOUBLER.apply(i);
+            }, CompletableFuture.delayedExecutor(new Random(i).nextInt(5), TimeUnit.MILLISECONDS));
+        };
+        for (boolean ordered: new boolean[]{true, false}) {
+            List<Integer> results = new ArrayList<>();
+            maxPending.set(0);
+            long processed = new ParallelProcessor<Integer, Integer>(1, 8, ordered).processAsync(
+                IntStream.range(0, 100).boxed(), delayed, results::add);
+
+            assertEquals(100, processed, "All elements should be processed with ordered=" + ordered);
+            assertEquals(IntStream.range(0, 100).map(i -> i*2).boxed().collect(Collectors.toList()),
+                         ordered ? results : results.stream().sorted().collect(Collectors.toList()),
+                         "All results should be delivered with ordered=" + ordered);
+            assertTrue(maxPending.get() > 1, "The futures should be pending concurrently with ordered=" + ordered);
+            assertTrue(maxPending.get() <= 8, "At most queueSize futures should be pending with ordered=" + ordered +
+                                              ", but there were " + maxPending.get());
+        }
+    }
+}
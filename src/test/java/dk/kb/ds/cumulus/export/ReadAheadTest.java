@@ -0,0 +1,106 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadAheadTest {
+
+    @Test
+    void testAll() {
+        try (ReadAhead<Integer> readAhead = new ReadAhead<>(IntStream.range(0, 1000).iterator(), 10)) {
+            assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()),
+                         readAhead.stream().collect(Collectors.toList()),
+                         "All elements should be delivered in order");
+            assertEquals(1000, readAhead.getDelivered(), "All elements should be counted");
+        }
+    }
+
+    @Test
+    void testSlowSource() {
+        final Iterator<Integer> slow = IntStream.range(0, 5).peek(i -> sleep(20)).iterator();
+        try (ReadAhead<Integer> readAhead = new ReadAhead<>(slow, 10)) {
+            assertEquals(5, readAhead.stream().count(), "All elements should be delivered");
+            assertTrue(readAhead.getWaits() >= 1, "The consumer should have waited for the slow source");
+            assertTrue(readAhead.getWaitNanos() > 0, "The time spent waiting should be measured");
+        }
+    }
+
+    @Test
+    void testReadsAhead() {
+        final AtomicInteger read = new AtomicInteger(0);
+        final Iterator<Integer> source = IntStream.range(0, 100).peek(i -> read.incrementAndGet()).iterator();
+        try (ReadAhead<Integer> readAhead = new ReadAhead<>(source, 5)) {
+            assertEquals(0, readAhead.next(), "The first element should be delivered");
+            for (int i = 0 ; i < 100 && read.get() < 6 ; i++) {
+                sleep(5);
+            }
+            sleep(20);
+            final int readBeforeConsuming = read.get();
+            assertTrue(readBeforeConsuming >= 6, "Elements should be read ahead, but only " + readBeforeConsuming +
+                                                 " were read");
+            assertTrue(readBeforeConsuming <= 7,
+                       "At most size elements should be read ahead, but " + readBeforeConsuming + " were read");
+        }
+    }
+
+    @Test
+    void testFailure() {
+        final Iterator<Integer> failing = IntStream.range(0, 10).
+            peek(i -> {
+                if (i == 5) {
+                    throw new IllegalStateException("Source failed");
+                }
+            }).iterator();
+        try (ReadAhead<Integer> readAhead = new ReadAhead<>(failing, 3)) {
+            for (int i = 0 ; i < 5 ; i++) {
+                assertEquals(i, readAhead.next(), "The elements before the failure should be delivered");
+            }
+            final IllegalStateException e = assertThrows(IllegalStateException.class, readAhead::hasNext,
+                                                         "The exception from the source should be thrown");
+            assertEquals("Source failed", e.getMessage(), "The original exception should be thrown");
+        }
+    }
+
+    @Test
+    void testEarlyClose() {
+        final AtomicInteger read = new AtomicInteger(0);
+        final Iterator<Integer> source = IntStream.range(0, 1000000).peek(i -> read.incrementAndGet()).iterator();
+        final ReadAhead<Integer> readAhead = new ReadAhead<>(source, 5);
+        assertEquals(List.of(0, 1), readAhead.stream().limit(2).collect(Collectors.toList()),
+                     "The requested elements should be delivered");
+        readAhead.close();
+        final int readAtClose = read.get();
+        sleep(50);
+        assertEquals(readAtClose, read.get(), "Nothing should be read after close");
+        assertTrue(readAtClose < 100, "Reading should stop at close, but " + readAtClose + " elements were read");
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RejectLogTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path rejectFile = Files.createTempFile("export_", ".rejects");
+        try {
+            try (RejectLog rejects = new RejectLog(rejectFile, false)) {
+                rejects.add("cat1", "guid1", "URLConverter(a -> b)", "Unable to\tverify\nURL");
+                rejects.add("cat1", null, "StringConverter(c -> d)", "No id");
+            }
+            // Resuming appends without a new header and duplicates are merged
+            try (RejectLog rejects = new RejectLog(rejectFile, true)) {
+                rejects.add("cat2", "guid2", "StringConverter(c -> d)", null);
+                rejects.add("cat1", "guid1", "URLConverter(a -> b)", "Still failing");
+                assertEquals(2, rejects.getRejectCount(), "The rejects since opening should be counted");
+            }
+
+            List<String> lines = Files.readAllLines(rejectFile, StandardCharsets.UTF_8);
+            assertEquals(RejectLog.HEADER, lines.get(0), "The log should start with a header");
+            assertEquals("cat1\tguid1\tURLConverter(a -> b)\tUnable to verify URL", lines.get(1),
+                         "Tabs and line breaks in the reason should be replaced");
+            assertEquals(5, lines.size(), "The appended log should have a single header");
+
+            Map<String, Set<String>> ids = RejectLog.load(rejectFile);
+            assertEquals("{cat1=[guid1], cat2=[guid2]}", ids.toString(),
+                         "Each rejected id should be loaded once, skipping entries without id");
+        } finally {
+            Files.deleteIfExists(rejectFile);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import com.canto.cumulus.GUID;
+import dk.kb.ds.cumulus.export.CumulusRecordMock;
+import dk.kb.ds.cumulus.export.DSAsserts;
+import dk.kb.ds.cumulus.export.FieldMapper;
+import dk.kb.ds.cumulus.export.YAML;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogLayoutTest {
+
+    @Test
+    public void testResolve() {
+        Converter title = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Titel", Converter.CONF_DEST, "title")));
+        Converter missing = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Missing", Converter.CONF_DEST, "missing")));
+        Converter required = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Missing", Converter.CONF_DEST, "id", Converter.CONF_REQUIRED, true)));
+
+        CumulusRecordMock record = new LayoutRecordMock("Titel", "myTitle");
+        CatalogLayout layout = CatalogLayout.resolve("cat1", record, List.of(title, missing, required));
+        assertEquals(Set.of("Missing"), layout.getUnknown(), "Only the field not in the layout should be unknown");
+        assertNotNull(layout.getGUID("Titel"), "The known field should have a GUID");
+        assertTrue(layout.isComplete(), "All sources should be resolved");
+
+        RecordContext context = new RecordContext(record, layout);
+        FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+        title.convert(context, fieldValues);
+        missing.convert(context, fieldValues);
+        DSAsserts.assertFieldValues(fieldValues, "title", "myTitle");
+        assertEquals(1, fieldValues.size(), "The unknown optional field should be skipped");
+
+        IllegalStateException e = assertThrows(
+            IllegalStateException.class, () -> required.convert(context, new FieldMapper.FieldValues()),
+            "An unknown required field should fail conversion");
+        assertTrue(e.getMessage().contains("layout of catalog 'cat1'"),
+                   "The message should state that the field is not in the catalog, but was " + e.getMessage());
+    }
+
+    @Test
+    public void testResolveFailure() {
+        Converter title = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Titel", Converter.CONF_DEST, "title")));
+        Converter broken = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Broken", Converter.CONF_DEST, "broken")));
+
+        CumulusRecordMock record = new LayoutRecordMock("Titel", "myTitle", "Broken", "myBroken") {
+            @Override
+            public GUID getGUID(String fieldname) {
+                if ("Broken".equals(fieldname)) {
+                    throw new IllegalStateException("Connection lost");
+                }
+                return super.getGUID(fieldname);
+            }
+        };
+        CatalogLayout layout = CatalogLayout.resolve("cat1", record, List.of(title, broken));
+        assertFalse(layout.isComplete(), "A source failing to resolve should make the layout incomplete");
+        assertFalse(layout.isUnknown("Broken"), "A source failing to resolve should not be marked unknown");
+        assertNotNull(layout.getGUID("Titel"), "The other sources should still be resolved");
+
+        RecordContext context = new RecordContext(record, layout);
+        FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+        broken.convert(context, fieldValues);
+        DSAsserts.assertFieldValues(fieldValues, "broken", "myBroken");
+    }
+
+    /**
+     * Only knows the GUIDs for fields with content.
+     */
+    private static class LayoutRecordMock extends CumulusRecordMock {
+        LayoutRecordMock(String... keyValues) {
+            super(keyValues);
+        }
+
+        @Override
+        public GUID getGUID(String fieldname) {
+            return content.containsKey(fieldname) ? super.getGUID(fieldname) : null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import dk.kb.ds.cumulus.export.YAML;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionPlanTest {
+
+    @Test
+    void testOrder() {
+        final URLVerifier verifier = new URLVerifier(1);
+        final List<Converter> converters = List.of(
+            new URLConverter(conf("Renditions Manager", "assetReference", "image_preview", true), verifier),
+            new URLConverter(conf("Renditions Manager", "assetReference", "image_full", false), verifier),
+            new StringConverter(conf("Titel", null, "title", null)),
+            new URLConverter(conf("URL", null, "related_url", true), verifier),
+            new StringConverter(conf("guid", null, "id", null)),
+            new StringConverter(conf("Titel", null, "title_sort", null)));
+        final ConversionPlan plan = new ConversionPlan(converters);
+
+        assertEquals(List.of("title", "title_sort", "id", "image_full", "image_preview", "related_url"),
+                     plan.getSteps().stream().map(step -> step.converter.destination).collect(Collectors.toList()),
+                     "The steps should be ordered by phase and grouped by source");
+        assertEquals(List.of(2, 5, 4, 1, 0, 3),
+                     plan.getSteps().stream().map(step -> step.position).collect(Collectors.toList()),
+                     "The steps should know the setup positions of their converters");
+        assertEquals(List.of(ConversionPlan.Phase.FIELDS, ConversionPlan.Phase.FIELDS, ConversionPlan.Phase.FIELDS,
+                             ConversionPlan.Phase.RENDITIONS, ConversionPlan.Phase.CHECKS,
+                             ConversionPlan.Phase.CHECKS),
+                     plan.getSteps().stream().map(step -> step.phase).collect(Collectors.toList()),
+                     "The steps should have the expected phases");
+        assertEquals(converters, plan.getConverters(), "The converters should be kept in setup order");
+
+        final String description = plan.describe();
+        assertTrue(description.contains("Titel (string)") &&
+                   description.contains("Renditions Manager (assetReference)"),
+                   "The description should list the source groups, but was\n" + description);
+        assertTrue(description.indexOf("FIELDS") < description.indexOf("RENDITIONS") &&
+                   description.indexOf("RENDITIONS") < description.indexOf("CHECKS"),
+                   "The description should list the phases in order, but was\n" + description);
+    }
+
+    @Test
+    void testEmpty() {
+        final ConversionPlan plan = new ConversionPlan(List.of());
+        assertEquals(0, plan.size(), "An empty plan should have no steps");
+        assertEquals("Conversion plan with 0 converters:", plan.describe(), "An empty plan should have no phases");
+    }
+
+    private static YAML conf(String source, String sourceType, String dest, Boolean verifyURL) {
+        final Map<String, Object> conf = new LinkedHashMap<>();
+        conf.put(Converter.CONF_SOURCE, source);
+        if (sourceType != null) {
+            conf.put(Converter.CONF_SOURCE_TYPE, sourceType);
+        }
+        conf.put(Converter.CONF_DEST, dest);
+        if (verifyURL != null) {
+            conf.put(URLConverter.CONF_VERIFY_URL, verifyURL);
+        }
+        return new YAML(conf);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathManifestTest {
+
+    @Test
+    void testUnsorted() throws IOException {
+        final Path dir = Files.createTempDirectory("manifest");
+        final Path file = dir.resolve("listing.txt");
+        try {
+            Files.writeString(file, "/Depot/DAMJP2/b/picture.jp2\r\n/Depot/DAMJP2/a/picture.jp2\r\n\r\n" +
+                                    "/Depot/DAMJP2/æøå/billede.jp2\r\n/Depot/DAMJP2/a/picture.jp2",
+                              StandardCharsets.UTF_8);
+            assertFalse(PathManifest.isSorted(file), "The listing should not be sorted");
+
+            final PathManifest manifest = new PathManifest(file);
+            assertEquals(3, manifest.size(), "Empty and duplicate lines should be ignored");
+            assertTrue(manifest.contains("/Depot/DAMJP2/a/picture.jp2"), "The first path should be found");
+            assertTrue(manifest.contains("/Depot/DAMJP2/b/picture.jp2"), "The second path should be found");
+            assertTrue(manifest.contains("/Depot/DAMJP2/æøå/billede.jp2"), "Non-ASCII paths should be found");
+            assertFalse(manifest.contains("/Depot/DAMJP2/c/picture.jp2"), "A missing path should not be found");
+            assertFalse(manifest.contains("/Depot/DAMJP2/a/picture"), "A prefix should not be found");
+            assertFalse(manifest.contains(""), "The empty path should not be found");
+
+            final Path sorted = dir.resolve("listing.txt" + PathManifest.SORTED_SUFFIX);
+            assertTrue(PathManifest.isSorted(sorted), "The sorted copy should be sorted");
+            Files.writeString(sorted, "/reused\n", StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(
+                sorted, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+            assertTrue(new PathManifest(file).contains("/reused"), "A newer sorted copy should be reused");
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path path: (Iterable<Path>) files::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testMany() throws IOException {
+        final Path file = Files.createTempFile("manifest", ".txt");
+        final Random random = new Random(87);
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0 ; i < 20000 ; i++) {
+            paths.add("/Depot/DAMJP2/" + random.nextInt(1000) + "/" + i + ".jp2");
+        }
+        Collections.sort(paths); // ASCII, so the same order as UTF-8 bytes
+        try {
+            Files.write(file, paths, StandardCharsets.UTF_8);
+            assertTrue(PathManifest.isSorted(file), "The listing should be usable without sorting");
+
+            final PathManifest manifest = new PathManifest(file);
+            assertEquals(paths.size(), manifest.size(), "All paths should be loaded");
+            for (String path: paths) {
+                assertTrue(manifest.contains(path), "The path '" + path + "' should be found");
+            }
+            final int misses = 20000;
+            for (int i = 0 ; i < misses ; i++) {
+                assertFalse(manifest.contains("/Depot/DAMJP2/missing/" + i + ".jp2"),
+                            "Missing paths should not be found");
+            }
+            assertTrue(manifest.getBloomRejects() > misses * 0.9,
+                       "Most missing paths should be rejected by the Bloom filter, but only " +
+                       manifest.getBloomRejects() + " were");
+            assertEquals(paths.size(), manifest.getFound(), "All existing paths should be counted as found");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        final Path file = Files.createTempFile("manifest", ".txt");
+        try {
+            final PathManifest manifest = new PathManifest(file);
+            assertEquals(0, manifest.size(), "An empty manifest should have no paths");
+            assertFalse(manifest.contains("/Depot/DAMJP2/a.jp2"), "Nothing should be found in an empty manifest");
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
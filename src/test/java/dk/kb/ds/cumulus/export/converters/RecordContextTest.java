@@ -0,0 +1,98 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import com.canto.cumulus.GUID;
+import com.canto.cumulus.ItemCollection;
+import dk.kb.ds.cumulus.export.CumulusRecordMock;
+import dk.kb.ds.cumulus.export.DSAsserts;
+import dk.kb.ds.cumulus.export.FieldMapper;
+import dk.kb.ds.cumulus.export.YAML;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordContextTest {
+
+    @Test
+    public void testSharedRendition() {
+        Converter preview = ConverterFactory.buildConverter(assetConf("image_preview"));
+        Converter full = ConverterFactory.buildConverter(assetConf("image_full"));
+        CountingRecordMock record = new CountingRecordMock();
+        record.addAsset("foo");
+
+        RecordContext context = new RecordContext(
+            record, CatalogLayout.resolve("cat1", record, List.of(preview, full)));
+        FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+        preview.convert(context, fieldValues);
+        full.convert(context, fieldValues);
+
+        DSAsserts.assertFieldValues(fieldValues, "image_preview", "foo", "image_full", "foo");
+        assertEquals(1, record.tableLookups, "The renditions should only be searched once per record");
+    }
+
+    @Test
+    public void testCachedRenditionQuery() {
+        CumulusRecordMock record = new CumulusRecordMock();
+        Converter preview = ConverterFactory.buildConverter(assetConf("image_preview"));
+        CatalogLayout layout = CatalogLayout.resolve("cat1", record, List.of(preview));
+
+        String query = layout.getRenditionQuery(record.getTableValue(GUID.UID_REC_ASSET_REFERENCE));
+        assertTrue(query.contains("JPEG2000"), "The query should be for the JPEG2000 rendition, but was " + query);
+        assertSame(query, layout.getRenditionQuery(null),
+                   "The query should be reused without inspecting the rendition table again");
+    }
+
+    @Test
+    public void testMemoizedValues() {
+        Converter display = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Titel", Converter.CONF_DEST, "title")));
+        Converter facet = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "Titel", Converter.CONF_DEST, "title_facet")));
+        Converter year = ConverterFactory.buildConverter(new YAML(Map.of(
+            Converter.CONF_SOURCE, "År", Converter.CONF_DEST, "year", Converter.CONF_DEST_TYPE, "integer")));
+        CumulusRecordMock record = new CumulusRecordMock("Titel", "myTitle", "År", "2019");
+
+        RecordContext context = new RecordContext(record, null);
+        FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+        display.convert(context, fieldValues);
+        facet.convert(context, fieldValues);
+        year.convert(context, fieldValues);
+
+        DSAsserts.assertFieldValues(fieldValues, "title", "myTitle", "title_facet", "myTitle", "year", "2019");
+        assertEquals(2, context.getFetches(), "Each source and source type should be requested once");
+        assertEquals(1, context.getReuses(), "The second converter on the same source should reuse the value");
+    }
+
+    private YAML assetConf(String destination) {
+        return new YAML(Map.of(
+            Converter.CONF_SOURCE, "Renditions Manager",
+            Converter.CONF_SOURCE_TYPE, Converter.SOURCE_TYPE.assetReference.toString(),
+            Converter.CONF_DEST, destination));
+    }
+
+    private static class CountingRecordMock extends CumulusRecordMock {
+        int tableLookups = 0;
+
+        @Override
+        public ItemCollection getTableValue(GUID guid) {
+            tableLookups++;
+            return super.getTableValue(guid);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class URLCacheTest {
+    private static final Instant NOW = Instant.parse("2020-01-01T12:00:00Z");
+    private static final Duration POSITIVE_TTL = Duration.ofHours(24);
+    private static final Duration NEGATIVE_TTL = Duration.ofHours(1);
+
+    @Test
+    void testPersistence() throws IOException {
+        final Path file = Files.createTempFile("urlcache", ".bin");
+        try {
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW))) {
+                assertNull(cache.get("http://example.com/a.jpg"), "An unknown URL should not be cached");
+                cache.put("http://example.com/a.jpg", true);
+                cache.put("http://example.com/b.jpg", false);
+                assertEquals(true, cache.get("http://example.com/a.jpg"), "A passed URL should be cached");
+                assertEquals(false, cache.get("http://example.com/b.jpg"), "A failed URL should be cached");
+                assertEquals(2, cache.getHits(), "The hits should be counted");
+                assertEquals(1, cache.getMisses(), "The misses should be counted");
+            }
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW.plusSeconds(60)))) {
+                assertEquals(2, cache.size(), "The entries should survive a reopen");
+                assertEquals(true, cache.get("http://example.com/a.jpg"), "The passed URL should still be cached");
+                assertEquals(false, cache.get("http://example.com/b.jpg"), "The failed URL should still be cached");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testTTL() throws IOException {
+        final Path file = Files.createTempFile("urlcache", ".bin");
+        try {
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW))) {
+                cache.put("http://example.com/a.jpg", true);
+                cache.put("http://example.com/b.jpg", false);
+            }
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW.plus(Duration.ofHours(2))))) {
+                assertEquals(true, cache.get("http://example.com/a.jpg"), "The passed URL should still be valid");
+                assertNull(cache.get("http://example.com/b.jpg"), "The failed URL should have expired");
+            }
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW.plus(Duration.ofHours(25))))) {
+                assertNull(cache.get("http://example.com/a.jpg"), "The passed URL should have expired");
+                cache.put("http://example.com/a.jpg", false);
+                assertEquals(false, cache.get("http://example.com/a.jpg"), "The entry should be updated");
+                assertEquals(2, cache.size(), "Updating should not add an entry");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testGrow() throws IOException {
+        final Path file = Files.createTempFile("urlcache", ".bin");
+        final int urls = URLCache.MIN_CAPACITY * 5;
+        try {
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW))) {
+                for (int i = 0 ; i < urls ; i++) {
+                    cache.put("http://example.com/" + i + ".jpg", i % 3 != 0);
+                }
+                assertEquals(urls, cache.size(), "All URLs should be added");
+            }
+            assertTrue(Files.size(file) >= URLCache.HEADER_SIZE + (long) urls * URLCache.SLOT_SIZE,
+                       "The file should have grown");
+            try (URLCache cache = new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL, at(NOW))) {
+                for (int i = 0 ; i < urls ; i++) {
+                    assertEquals(i % 3 != 0, cache.get("http://example.com/" + i + ".jpg"),
+                                 "The outcome for URL " + i + " should be kept");
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testInvalidFile() throws IOException {
+        final Path file = Files.createTempFile("urlcache", ".bin");
+        try {
+            Files.writeString(file, "Not a cache, but long enough to hold a header");
+            assertThrows(IOException.class, () -> new URLCache(file, POSITIVE_TTL, NEGATIVE_TTL),
+                         "A file that is not a URL cache should be rejected");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Clock at(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+}
@@ -1,11 +1,18 @@
 package dk.kb.ds.cumulus.export.converters;
 
+import com.sun.net.httpserver.HttpServer;
 import dk.kb.ds.cumulus.export.CumulusRecordMock;
 import dk.kb.ds.cumulus.export.DSAsserts;
 import dk.kb.ds.cumulus.export.FieldMapper;
 import dk.kb.ds.cumulus.export.YAML;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -76,4 +83,81 @@ class URLConverterTest {
 
         }
     }
+
+    @Test
+    public void testVerifyLocal() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath().contains("missing") ? 404 : 200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            final String base = "http://localhost:" + server.getAddress().getPort();
+            final URLVerifier verifier = new URLVerifier(2);
+            Map<String, Object> conf = new LinkedHashMap<>();
+            conf.put(Converter.CONF_SOURCE, "mySource");
+            conf.put(Converter.CONF_DEST, "myURL");
+            conf.put(Converter.CONF_DEST_TYPE, "url");
+            conf.put(Converter.CONF_FALLBACK_DEST, "myFallback");
+
+            {
+                Converter converter = new URLConverter(new YAML(conf), verifier);
+                FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+                converter.convert(new CumulusRecordMock("mySource", base + "/ok.jpg"), fieldValues);
+                DSAsserts.assertFieldValues(fieldValues, "myURL", base + "/ok.jpg");
+            }
+
+            {
+                Converter converter = new URLConverter(new YAML(conf), verifier);
+                FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+                converter.convert(new CumulusRecordMock("mySource", base + "/missing.jpg"), fieldValues);
+                assertEquals(1, fieldValues.size(), "Only the fallback should be produced, but got " + fieldValues);
+                DSAsserts.assertFieldValues(fieldValues, "myFallback", base + "/missing.jpg");
+            }
+
+            conf.put(Converter.CONF_REQUIRED, true);
+            {
+                Converter converter = new URLConverter(new YAML(conf), verifier);
+                assertThrows(IllegalStateException.class, () -> converter.convert(
+                    new CumulusRecordMock("mySource", base + "/missing.jpg"), new FieldMapper.FieldValues()),
+                             "A required URL that does not resolve should fail the record");
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testVerifyManifest() throws IOException {
+        final Path listing = Files.createTempFile("damjp2", ".txt");
+        try {
+            Files.writeString(listing, "/Depot/DAMJP2/ad1/present.jp2\n", StandardCharsets.UTF_8);
+            Map<String, Object> conf = new LinkedHashMap<>();
+            conf.put(Converter.CONF_SOURCE, "mySource");
+            conf.put(Converter.CONF_DEST, "myURL");
+            conf.put(Converter.CONF_DEST_TYPE, "url");
+            conf.put(Converter.CONF_REQUIRED, true);
+            conf.put(URLConverter.CONF_PATTERN, "^.*:/Depot/DAMJP2/(.*).jp2");
+            conf.put(URLConverter.CONF_REPLACEMENT, "https://kb-images.kb.dk/DAMJP2/$1/full/!345,2555/0/native.jpg");
+            conf.put(URLConverter.CONF_VERIFY_PATTERN, "^https?://kb-images.kb.dk/DAMJP2/(.*)/full/.*");
+            conf.put(URLConverter.CONF_VERIFY_REPLACEMENT, "/Depot/DAMJP2/$1.jp2");
+            conf.put(URLConverter.CONF_VERIFY_MANIFEST, listing.toString());
+            // No verifier, so a HTTP request would fail with a NullPointerException
+            Converter converter = new URLConverter(new YAML(conf), null);
+
+            FieldMapper.FieldValues fieldValues = new FieldMapper.FieldValues();
+            converter.convert(new CumulusRecordMock("mySource", "cumulus-core-01:/Depot/DAMJP2/ad1/present.jp2"),
+                              fieldValues);
+            DSAsserts.assertFieldValues(
+                fieldValues, "myURL", "https://kb-images.kb.dk/DAMJP2/ad1/present/full/!345,2555/0/native.jpg");
+
+            assertThrows(IllegalStateException.class, () -> converter.convert(
+                new CumulusRecordMock("mySource", "cumulus-core-01:/Depot/DAMJP2/ad1/missing.jp2"),
+                new FieldMapper.FieldValues()),
+                         "A required URL that is not in the manifest should fail the record");
+        } finally {
+            Files.delete(listing);
+        }
+    }
 }
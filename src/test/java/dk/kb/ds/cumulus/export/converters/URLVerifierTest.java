@@ -0,0 +1,186 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.converters;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class URLVerifierTest {
+    private HttpServer server;
+    private String base;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger maxInFlight = new AtomicInteger(0);
+    private final AtomicInteger firstSlow = new AtomicInteger(0);
+    private final AtomicInteger status = new AtomicInteger(503);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                final String path = exchange.getRequestURI().getPath();
+                Thread.sleep(path.startsWith("/slow") ? 20 :
+                             path.startsWith("/hang") ? 2000 :
+                             path.startsWith("/firstslow") && firstSlow.getAndIncrement() == 0 ? 2000 : 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            final String path = exchange.getRequestURI().getPath();
+            final int code = path.contains("missing") ? 404 : path.startsWith("/error") ? status.get() : 200;
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newFixedThreadPool(20));
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void testVerify() {
+        final URLVerifier verifier = new URLVerifier(4);
+        assertTrue(verifier.verify(base + "/ok.jpg").join(), "A URL answered with HTTP 200 should pass");
+        assertFalse(verifier.verify(base + "/missing.jpg").join(), "A URL answered with HTTP 404 should fail");
+        assertFalse(verifier.verify("http://localhost:1/nothing").join(), "An unreachable URL should fail");
+        assertFalse(verifier.verify("not a url").join(), "An invalid URL should fail");
+        assertEquals(3, verifier.getFailures(), "The failures should be counted");
+    }
+
+    @Test
+    void testConcurrency() {
+        final URLVerifier verifier = new URLVerifier(3);
+        final List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0 ; i < 30 ; i++) {
+            results.add(verifier.verify(base + "/slow" + i + ".jpg"));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).orTimeout(10, TimeUnit.SECONDS).join();
+        assertTrue(results.stream().allMatch(CompletableFuture::join), "All URLs should pass");
+        assertEquals(30, verifier.getRequests(), "All requests should be sent");
+        assertTrue(maxInFlight.get() <= 3, "At most 3 requests should be in flight, but there was " + maxInFlight);
+        assertTrue(maxInFlight.get() >= 2, "Requests should be sent concurrently, but at most " + maxInFlight +
+                                           " were in flight");
+    }
+
+    @Test
+    void testCache() throws IOException {
+        final Path file = Files.createTempFile("urlcache", ".bin");
+        try {
+            try (URLCache cache = new URLCache(file, Duration.ofHours(1), Duration.ofHours(1))) {
+                final URLVerifier verifier = new URLVerifier(2, cache);
+                assertTrue(verifier.verify(base + "/ok.jpg").join(), "The URL should pass");
+                assertFalse(verifier.verify(base + "/missing.jpg").join(), "The URL should fail");
+                assertFalse(verifier.verify("http://localhost:1/nothing").join(), "An unreachable URL should fail");
+                assertEquals(3, verifier.getRequests(), "All URLs should be requested the first time");
+
+                assertTrue(verifier.verify(base + "/ok.jpg").join(), "The cached URL should pass");
+                assertFalse(verifier.verify(base + "/missing.jpg").join(), "The cached URL should fail");
+                assertEquals(3, verifier.getRequests(), "Cached URLs should not be requested again");
+                assertFalse(verifier.verify("http://localhost:1/nothing").join(), "An unreachable URL should fail");
+                assertEquals(4, verifier.getRequests(), "Network errors should not be cached");
+
+                assertFalse(verifier.verify(base + "/error/1.jpg").join(), "HTTP 503 should fail");
+                assertFalse(verifier.verify(base + "/error/1.jpg").join(), "HTTP 503 should fail again");
+                assertEquals(6, verifier.getRequests(), "Server errors should not be cached");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testTimeout() {
+        final URLVerifier verifier = new URLVerifier(
+            2, null, Duration.ofSeconds(1), Duration.ofMillis(200), null, 0, Duration.ofSeconds(1));
+        final long start = System.nanoTime();
+        assertFalse(verifier.verify(base + "/hang.jpg").join(), "A URL that does not respond in time should fail");
+        assertTrue(System.nanoTime() - start < 1500 * 1000000L, "The timeout should stop the wait for the response");
+    }
+
+    @Test
+    void testHedge() {
+        final URLVerifier verifier = new URLVerifier(
+            2, null, Duration.ofSeconds(1), Duration.ofSeconds(5), Duration.ofMillis(100), 0, Duration.ofSeconds(1));
+        final long start = System.nanoTime();
+        assertTrue(verifier.verify(base + "/firstslow.jpg").join(), "The hedged request should pass");
+        assertTrue(System.nanoTime() - start < 1500 * 1000000L, "The hedged response should be used");
+        assertEquals(1, verifier.getHedges(), "A single hedged request should be sent");
+        assertEquals(2, verifier.getRequests(), "Both requests should be counted");
+
+        assertTrue(verifier.verify(base + "/ok.jpg").join(), "A fast URL should pass");
+        assertEquals(1, verifier.getHedges(), "A fast request should not be hedged");
+    }
+
+    @Test
+    void testBreaker() throws InterruptedException {
+        final URLVerifier verifier = new URLVerifier(
+            2, null, Duration.ofSeconds(1), Duration.ofSeconds(1), null, 2, Duration.ofMillis(300));
+        assertFalse(verifier.verify(base + "/error/1.jpg").join(), "HTTP 503 should fail");
+        assertFalse(verifier.verify(base + "/error/2.jpg").join(), "HTTP 503 should fail");
+        assertEquals(2, verifier.getRequests(), "The URLs should be requested until the breaker opens");
+
+        assertFalse(verifier.verify(base + "/ok.jpg").join(), "URLs should fail while the breaker is open");
+        assertFalse(verifier.verify(base + "/ok2.jpg").join(), "URLs should fail while the breaker is open");
+        assertEquals(2, verifier.getRequests(), "No requests should be sent while the breaker is open");
+        assertEquals(2, verifier.getRejected(), "The rejected URLs should be counted");
+        assertEquals(URLVerifier.Result.REJECTED, verifier.check(base + "/ok3.jpg").join(),
+                     "The rejection should be reported as such");
+
+        final RecordContext record1 = new RecordContext(null, null);
+        verifier.addAffectedRecord(record1, base + "/ok.jpg");
+        verifier.addAffectedRecord(record1, base + "/ok2.jpg");
+        verifier.addAffectedRecord(new RecordContext(null, null), base + "/ok3.jpg");
+        assertEquals(2, verifier.getAffectedRecords(), "A record with several rejected URLs should be counted once");
+        assertEquals(2L, verifier.getAffectedRecordsByHost().get("localhost:" + server.getAddress().getPort()),
+                     "The affected records should be counted for the host");
+        assertFalse(verifier.verify("http://127.0.0.1:1/nothing").join(), "An unreachable URL should fail");
+        assertEquals(3, verifier.getRequests(), "Other hosts should still be requested");
+
+        Thread.sleep(400);
+        assertFalse(verifier.verify(base + "/error/3.jpg").join(), "The failed trial request should fail");
+        assertEquals(4, verifier.getRequests(), "A trial request should be sent after the pause");
+        assertFalse(verifier.verify(base + "/ok.jpg").join(), "The breaker should open again after a failed trial");
+        assertEquals(4, verifier.getRequests(), "No requests should be sent after a failed trial");
+
+        Thread.sleep(400);
+        status.set(200);
+        assertTrue(verifier.verify(base + "/error/4.jpg").join(), "The trial request should pass");
+        assertTrue(verifier.verify(base + "/ok.jpg").join(), "URLs should pass when the breaker has closed");
+        assertEquals(6, verifier.getRequests(), "Requests should be sent when the breaker has closed");
+        assertEquals(4, verifier.getRejected(), "The rejected URLs should be counted in total");
+    }
+}
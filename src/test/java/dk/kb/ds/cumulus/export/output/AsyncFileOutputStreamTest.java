@@ -0,0 +1,73 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncFileOutputStreamTest {
+
+    @Test
+    public void testWriteAndFlush() throws IOException {
+        byte[] input = new byte[10000];
+        new Random(87).nextBytes(input);
+        Path file = Files.createTempFile("async_", ".bin");
+        try {
+            try (AsyncFileOutputStream out = new AsyncFileOutputStream(
+                file, false, 2, 1024, AsyncFileOutputStream.FsyncPolicy.FLUSH)) {
+                out.write(input, 0, 3000);
+                out.flush();
+                assertEquals(3000, Files.size(file), "All bytes should be in the file after flush");
+                for (int i = 3000 ; i < 4000 ; i++) {
+                    out.write(input[i]);
+                }
+                out.write(input, 4000, input.length - 4000);
+            }
+            assertArrayEquals(input, Files.readAllBytes(file), "The file should contain the input");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        Path file = Files.createTempFile("async_", ".bin");
+        try {
+            Files.write(file, new byte[]{1, 2, 3});
+            try (AsyncFileOutputStream out = new AsyncFileOutputStream(
+                file, true, 3, 2, AsyncFileOutputStream.FsyncPolicy.NONE)) {
+                out.write(new byte[]{4, 5, 6, 7, 8});
+            }
+            assertEquals("[1, 2, 3, 4, 5, 6, 7, 8]", Arrays.toString(Files.readAllBytes(file)),
+                         "The bytes should be appended to the existing content");
+
+            try (AsyncFileOutputStream out = new AsyncFileOutputStream(
+                file, false, 2, 16, AsyncFileOutputStream.FsyncPolicy.ALWAYS)) {
+                out.write(9);
+            }
+            assertEquals("[9]", Arrays.toString(Files.readAllBytes(file)),
+                         "The existing content should be overwritten without append");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
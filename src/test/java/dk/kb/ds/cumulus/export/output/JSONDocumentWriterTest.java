@@ -0,0 +1,78 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JSONDocumentWriterTest {
+
+    @Test
+    public void testArray() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JSONDocumentWriter writer = new JSONDocumentWriter(out, false, 0)) {
+            writer.write(createDoc("a"));
+            writer.write(createDoc("b"));
+        }
+        assertEquals("[\n" +
+                     "{\"id\":\"a\",\"title\":\"Quote \\\" and\\nnewline\",\"keyword\":[\"k1\",\"k2\\u0001\"]},\n" +
+                     "{\"id\":\"b\",\"title\":\"Quote \\\" and\\nnewline\",\"keyword\":[\"k1\",\"k2\\u0001\"]}\n" +
+                     "]\n",
+                     out.toString(StandardCharsets.UTF_8),
+                     "The documents should be written as a JSON array with escaped values");
+    }
+
+    @Test
+    public void testNDJSON() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JSONDocumentWriter writer = new JSONDocumentWriter(out, true, 0)) {
+            writer.write(createDoc("a"));
+            writer.write(createDoc("b"));
+        }
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length, "There should be a line for each document");
+        assertTrue(lines[1].startsWith("{\"id\":\"b\""), "The second line should be the second document");
+    }
+
+    @Test
+    public void testContinue() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONDocumentWriter writer = new JSONDocumentWriter(out, false, 0);
+        writer.write(createDoc("a"));
+        long offset = writer.flush();
+
+        try (JSONDocumentWriter continued = new JSONDocumentWriter(out, false, offset)) {
+            continued.write(createDoc("b"));
+        }
+        String json = out.toString(StandardCharsets.UTF_8);
+        assertTrue(json.contains("},\n{\"id\":\"b\""), "The continued document should be separated by a comma");
+        assertTrue(json.endsWith("}\n]\n"), "The array should be ended");
+    }
+
+    private FieldMapper.FieldValues createDoc(String id) {
+        FieldMapper.FieldValues doc = new FieldMapper.FieldValues();
+        doc.add(new FieldMapper.FieldValue("id", id));
+        doc.add(new FieldMapper.FieldValue("title", "Quote \" and\nnewline"));
+        doc.add(new FieldMapper.FieldValue("keyword", "k1"));
+        doc.add(new FieldMapper.FieldValue("keyword", "k2\u0001"));
+        return doc;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JavaBinDocumentWriterTest {
+
+    @Test
+    public void testEncoding() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JavaBinDocumentWriter writer = new JavaBinDocumentWriter(out)) {
+            FieldMapper.FieldValues doc1 = new FieldMapper.FieldValues();
+            doc1.add(new FieldMapper.FieldValue("id", "a"));
+            doc1.add(new FieldMapper.FieldValue("t", "x"));
+            doc1.add(new FieldMapper.FieldValue("t", "y"));
+            writer.write(doc1);
+            FieldMapper.FieldValues doc2 = new FieldMapper.FieldValues();
+            doc2.add(new FieldMapper.FieldValue("id", "b"));
+            writer.write(doc2);
+        }
+
+        byte[] expected = new byte[]{
+            2,                                           // version
+            (byte) 0xC2,                                 // named list with 2 entries
+            (byte) 0xE0, 0x26, 'p', 'a', 'r', 'a', 'm', 's', // new extern string #1
+            (byte) 0xC0,                                 // empty named list
+            (byte) 0xE0, 0x24, 'd', 'o', 'c', 's',       // new extern string #2
+            14,                                          // iterator
+            16, 2, 8, 0x3F, (byte) 0x80, 0, 0,           // input document with 2 fields and boost 1.0
+            (byte) 0xE0, 0x22, 'i', 'd', 0x21, 'a',      // new extern string #3 with string value
+            (byte) 0xE0, 0x21, 't', (byte) 0x82, 0x21, 'x', 0x21, 'y', // new extern string #4 with array
+            16, 1, 8, 0x3F, (byte) 0x80, 0, 0,           // input document with 1 field
+            (byte) 0xE3, 0x21, 'b',                      // extern string #3 reference
+            15                                           // end
+        };
+        assertArrayEquals(expected, out.toByteArray(), "The output should be a JavaBin update request");
+    }
+
+    @Test
+    public void testLongString() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JavaBinDocumentWriter writer = new JavaBinDocumentWriter(out)) {
+            FieldMapper.FieldValues doc = new FieldMapper.FieldValues();
+            doc.add(new FieldMapper.FieldValue("id", "x".repeat(300)));
+            writer.write(doc);
+        }
+        byte[] bytes = out.toByteArray();
+        // Header is 18 bytes, document start 7 bytes and field name 4 bytes
+        assertEquals((byte) 0x3F, bytes[29], "The string tag should signal that the length follows");
+        assertEquals((byte) (0x80 | ((300 - 31) & 0x7F)), bytes[30], "The length should be a VInt of length - 31");
+        assertEquals((byte) ((300 - 31) >> 7), bytes[31], "The length should be a VInt of length - 31");
+    }
+}
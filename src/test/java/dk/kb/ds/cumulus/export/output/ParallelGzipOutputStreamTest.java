@@ -0,0 +1,68 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        // Repetitive content with some randomness, spanning multiple blocks
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(87);
+        for (int i = 0 ; i < 20000 ; i++) {
+            sb.append("<field name=\"id\">doc_").append(random.nextInt()).append("</field>\n");
+        }
+        byte[] input = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, 4, 32 * 1024, 6)) {
+            gzip.write(input, 0, 1000);
+            gzip.flush();
+            for (int i = 1000 ; i < 2000 ; i++) {
+                gzip.write(input[i]);
+            }
+            gzip.write(input, 2000, input.length - 2000);
+        }
+
+        assertTrue(compressed.size() < input.length / 2, "The content should be compressed");
+        assertArrayEquals(input, gunzip(compressed.toByteArray()),
+                          "The decompressed content should be equal to the input");
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, 2, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, 6).close();
+        assertEquals(0, gunzip(compressed.toByteArray()).length, "The empty stream should be valid gzip");
+    }
+
+    private byte[] gunzip(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
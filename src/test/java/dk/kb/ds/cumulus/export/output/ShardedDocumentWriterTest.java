@@ -0,0 +1,173 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static dk.kb.ds.cumulus.export.DSAsserts.createDoc;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedDocumentWriterTest {
+    private static final ShardedDocumentWriter.WriterFactory XML_FACTORY =
+        file -> new XMLDocumentWriter(new FileOutputStream(file.toFile()));
+
+    @Test
+    public void testShardFileNames() {
+        assertEquals(Path.of("/tmp/export-00012.xml"),
+                     ShardedDocumentWriter.getShardFile(Path.of("/tmp/export.xml"), 12),
+                     "The shard number should be inserted before the extension");
+        assertEquals(Path.of("/tmp/export-manifest.tsv"),
+                     ShardedDocumentWriter.getManifestFile(Path.of("/tmp/export.xml")),
+                     "The manifest should be named from the output file");
+        assertEquals(Path.of("/tmp/export-00001.xml.gz"),
+                     ShardedDocumentWriter.getShardFile(Path.of("/tmp/export.xml.gz"), 1),
+                     "The shard number should be inserted before the .xml.gz extension");
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        Path dir = Files.createTempDirectory("shards");
+        try {
+            Path outputFile = dir.resolve("export.xml");
+            try (ShardedDocumentWriter writer = new ShardedDocumentWriter(
+                outputFile, 3, 10, 0, XML_FACTORY)) {
+                for (int i = 0 ; i < 95 ; i++) {
+                    writer.write(createDoc(i));
+                }
+            }
+
+            List<String> manifest = Files.readAllLines(
+                ShardedDocumentWriter.getManifestFile(outputFile), StandardCharsets.UTF_8);
+            Set<String> ids = new HashSet<>();
+            long manifestDocs = 0;
+            for (String line: manifest.subList(1, manifest.size())) {
+                String[] tokens = line.split("\t");
+                Path shard = dir.resolve(tokens[0]);
+                assertEquals(Files.size(shard), Long.parseLong(tokens[2]), "The manifest should state the uncompressed shard size");
+                NodeList docs = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(shard.toFile()).
+                    getElementsByTagName("doc");
+                assertEquals(Long.parseLong(tokens[1]), docs.getLength(),
+                             "The manifest should state the number of documents in " + shard);
+                assertTrue(docs.getLength() <= 10, "There should be at most 10 documents in " + shard);
+                for (int i = 0 ; i < docs.getLength() ; i++) {
+                    ids.add(docs.item(i).getFirstChild().getNextSibling().getTextContent());
+                }
+                manifestDocs += docs.getLength();
+            }
+            assertEquals(95, manifestDocs, "The shards should hold all documents");
+            assertEquals(95, ids.size(), "All documents should be written exactly once");
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file: files.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        Path dir = Files.createTempDirectory("shards");
+        try {
+            Path outputFile = dir.resolve("export.xml");
+            try (ShardedDocumentWriter writer = new ShardedDocumentWriter(
+                outputFile, 1, 0, 1000, XML_FACTORY)) {
+                for (int i = 0 ; i < 50 ; i++) {
+                    writer.write(createDoc(i));
+                }
+            }
+            assertTrue(Files.exists(ShardedDocumentWriter.getShardFile(outputFile, 2)),
+                       "The byte limit should cause multiple shards");
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file: files.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testCloseAfterFailure() throws Exception {
+        Path dir = Files.createTempDirectory("shards");
+        final AtomicInteger closed = new AtomicInteger(0);
+        try {
+            Path outputFile = dir.resolve("export.xml");
+            ShardedDocumentWriter writer = new ShardedDocumentWriter(outputFile, 1, 100, 0, file -> {
+                final DocumentWriter delegate = XML_FACTORY.open(file);
+                return new DocumentWriter() {
+                    @Override
+                    public void write(FieldMapper.FieldValues fieldValues) {
+                        if (delegate.getDocumentCount() == 2) {
+                            throw new IllegalStateException("Disk full");
+                        }
+                        delegate.write(fieldValues);
+                    }
+                    @Override
+                    public long flush() throws IOException {
+                        return delegate.flush();
+                    }
+                    @Override
+                    public long getDocumentCount() {
+                        return delegate.getDocumentCount();
+                    }
+                    @Override
+                    public long getByteCount() {
+                        return delegate.getByteCount();
+                    }
+                    @Override
+                    public void close() throws IOException {
+                        closed.incrementAndGet();
+                        delegate.close();
+                    }
+                };
+            });
+            for (int i = 0 ; i < 5 ; i++) {
+                try {
+                    writer.write(createDoc(i));
+                } catch (UncheckedIOException e) {
+                    break; // The failure is reported when writing after it
+                }
+            }
+            assertThrows(IOException.class, writer::close, "The failure should be reported when closing");
+            assertEquals(1, closed.get(), "The shard open at the failure should be closed");
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file: files.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dk.kb.ds.cumulus.export.DSAsserts.createDoc;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolrUpdateWriterTest {
+    private HttpServer server;
+    private URI updateURI;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final AtomicInteger commits = new AtomicInteger(0);
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicInteger maxActive = new AtomicInteger(0);
+    private volatile int status = 200;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/solr/ds/update", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try (InputStream in = exchange.getRequestBody()) {
+                if ("GET".equals(exchange.getRequestMethod())) {
+                    commits.incrementAndGet();
+                } else {
+                    bodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                    Thread.sleep(20); // Simulate a slow Solr
+                }
+                exchange.sendResponseHeaders(status, -1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        updateURI = URI.create("http://localhost:" + server.getAddress().getPort() + "/solr/ds/update");
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatches() throws IOException {
+        try (SolrUpdateWriter writer = new SolrUpdateWriter(
+            updateURI, OutputFormat.JSON, 10, 1024 * 1024, 2, true, Duration.ofSeconds(10))) {
+            for (int i = 0 ; i < 25 ; i++) {
+                writer.write(createDoc(i));
+            }
+        }
+        assertEquals(3, bodies.size(), "25 documents in batches of 10 should give 3 requests");
+        assertTrue(bodies.get(2).startsWith("[\n{\"id\":\"doc_2"), "Each request should be a JSON array");
+        assertEquals(1, commits.get(), "A commit should be sent when the writer is closed");
+        assertTrue(maxActive.get() <= 2, "At most 2 requests should be in flight, but there was " + maxActive.get());
+    }
+
+    @Test
+    public void testByteLimit() throws IOException {
+        try (SolrUpdateWriter writer = new SolrUpdateWriter(
+            updateURI, OutputFormat.NDJSON, 1000, 100, 1, false, Duration.ofSeconds(10))) {
+            for (int i = 0 ; i < 10 ; i++) {
+                writer.write(createDoc(i));
+            }
+        }
+        assertTrue(bodies.size() > 1, "The byte limit should split the documents into multiple requests");
+        assertEquals(10, bodies.stream().mapToLong(body -> body.split("\n").length).sum(),
+                     "All documents should be sent");
+        assertEquals(0, commits.get(), "No commit should be sent when disabled");
+    }
+
+    @Test
+    public void testFailure() {
+        status = 500;
+        assertThrows(IOException.class, () -> {
+            try (SolrUpdateWriter writer = new SolrUpdateWriter(
+                updateURI, OutputFormat.XML, 10, 1024 * 1024, 1, true, Duration.ofSeconds(10))) {
+                writer.write(createDoc(1));
+            }
+        }, "An error from Solr should be reported when closing");
+        assertEquals(0, commits.get(), "No commit should be sent after a failure");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SolrXMLSerializer} with the previous serialization using {@link XMLStreamWriter}.
+ * Both write to a discarding stream, so only the serialization is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolrXMLSerializerBenchmark {
+    private static final int DOCUMENTS = 1000;
+
+    private final List<FieldMapper.FieldValues> docs = new ArrayList<>(DOCUMENTS);
+    private final OutputStream sink = OutputStream.nullOutputStream();
+    private XMLStreamWriter xml;
+    private SolrXMLSerializer serializer;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws XMLStreamException {
+        // Documents resembling the default mapping: Mostly ASCII, some Danish characters and a few escapes
+        final Random random = new Random(87);
+        final FieldMapper.FieldValue collection = new FieldMapper.FieldValue("collection", "Samlingsbilleder", true);
+        final FieldMapper.FieldValue type = new FieldMapper.FieldValue("type", "image", true);
+        for (int i = 0 ; i < DOCUMENTS ; i++) {
+            FieldMapper.FieldValues doc = new FieldMapper.FieldValues();
+            doc.add(new FieldMapper.FieldValue("id", "ds_" + random.nextInt(1000000)));
+            doc.add(new FieldMapper.FieldValue("title", "Udsigt over Københavns havn " + i));
+            doc.add(new FieldMapper.FieldValue("creator_general", "Hansen, Peter & Søn"));
+            doc.add(new FieldMapper.FieldValue("created_date", "1897-05-12T00:00:00Z"));
+            doc.add(new FieldMapper.FieldValue(
+                "image_preview", "https://example.org/iiif/" + i + "/full/!512,512/0/default.jpg"));
+            doc.add(new FieldMapper.FieldValue("license", "http://creativecommons.org/publicdomain/mark/1.0/"));
+            for (int k = 0 ; k < 8 ; k++) {
+                doc.add(new FieldMapper.FieldValue("keyword", "keyword" + random.nextInt(500)));
+            }
+            doc.add(new FieldMapper.FieldValue(
+                "description", "Fotografi af skibe ved kajen. Se også <billede " + i + "> i samme serie."));
+            doc.add(collection);
+            doc.add(type);
+            docs.add(doc);
+        }
+        xml = XMLOutputFactory.newFactory().createXMLStreamWriter(sink, "utf-8");
+        serializer = new SolrXMLSerializer();
+    }
+
+    @Benchmark
+    public void xmlStreamWriter() throws XMLStreamException {
+        final FieldMapper.FieldValues doc = nextDoc();
+        xml.writeCharacters("    ");
+        xml.writeStartElement("doc");
+        xml.writeCharacters("\n");
+        for (FieldMapper.FieldValue fv: doc) {
+            xml.writeCharacters("    ");
+            xml.writeCharacters("    ");
+            xml.writeStartElement("field");
+            xml.writeAttribute("name", fv.field);
+            xml.writeCharacters(fv.value);
+            xml.writeEndElement(); // field
+            xml.writeCharacters("\n");
+        }
+        xml.writeCharacters("    ");
+        xml.writeEndElement(); // doc
+        xml.writeCharacters("\n");
+    }
+
+    @Benchmark
+    public void solrXMLSerializer() throws IOException {
+        serializer.serialize(nextDoc());
+        serializer.writeTo(sink);
+    }
+
+    private FieldMapper.FieldValues nextDoc() {
+        final FieldMapper.FieldValues doc = docs.get(next);
+        next = (next + 1) % DOCUMENTS;
+        return doc;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SolrXMLSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
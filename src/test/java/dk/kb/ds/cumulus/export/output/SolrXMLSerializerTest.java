@@ -0,0 +1,107 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.output;
+
+import dk.kb.ds.cumulus.export.FieldMapper;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolrXMLSerializerTest {
+    static final FieldMapper.FieldValue COLLECTION = new FieldMapper.FieldValue("collection", "Saml & billeder", true);
+
+    @Test
+    public void testSerialize() throws IOException {
+        SolrXMLSerializer serializer = new SolrXMLSerializer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(createDoc("a", "Plain ASCII"));
+        serializer.writeTo(out);
+        assertEquals("    <doc>\n" +
+                     "        <field name=\"id\">a</field>\n" +
+                     "        <field name=\"title\">Plain ASCII</field>\n" +
+                     "        <field name=\"collection\">Saml &amp; billeder</field>\n" +
+                     "    </doc>\n",
+                     out.toString(StandardCharsets.UTF_8), "The document should be serialized as Solr XML");
+    }
+
+    @Test
+    public void testSameAsXMLStreamWriter() throws Exception {
+        SolrXMLSerializer serializer = new SolrXMLSerializer();
+        String[] titles = new String[]{
+            "Plain ASCII", "<b>Bold</b> & \"quoted\" 'single'", "Æblegrød på ÆØÅ", "Euro € and emoji 😀",
+            "Tabs\tand\nnewlines", ""};
+        for (String title: titles) {
+            FieldMapper.FieldValues doc = createDoc("id_" + title.length(), title);
+            doc.add(new FieldMapper.FieldValue("weird\"<name>", "value"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            serializer.serialize(doc);
+            serializer.writeTo(out);
+            assertEquals(serializeWithXMLStreamWriter(doc), out.toString(StandardCharsets.UTF_8),
+                         "The output should be the same as with XMLStreamWriter for '" + title + "'");
+            assertEquals(out.size(), serializer.size(), "The size should match the written bytes");
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogate() throws IOException {
+        // XMLStreamWriter garbles the following character in this case, so it is not used for comparison
+        SolrXMLSerializer serializer = new SolrXMLSerializer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(createDoc("a", "A\uD83DB"));
+        serializer.writeTo(out);
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains(">A?B<"),
+                   "An unpaired surrogate should be written as '?'");
+    }
+
+    /**
+     * The previous implementation, based on XMLStreamWriter.
+     */
+    static String serializeWithXMLStreamWriter(FieldMapper.FieldValues doc) throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "utf-8");
+        xml.writeCharacters("    ");
+        xml.writeStartElement("doc");
+        xml.writeCharacters("\n");
+        for (FieldMapper.FieldValue fv: doc) {
+            xml.writeCharacters("    ");
+            xml.writeCharacters("    ");
+            xml.writeStartElement("field");
+            xml.writeAttribute("name", fv.field);
+            xml.writeCharacters(fv.value);
+            xml.writeEndElement(); // field
+            xml.writeCharacters("\n");
+        }
+        xml.writeCharacters("    ");
+        xml.writeEndElement(); // doc
+        xml.writeCharacters("\n");
+        xml.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    static FieldMapper.FieldValues createDoc(String id, String title) {
+        FieldMapper.FieldValues doc = new FieldMapper.FieldValues();
+        doc.add(new FieldMapper.FieldValue("id", id));
+        doc.add(new FieldMapper.FieldValue("title", title));
+        doc.add(COLLECTION);
+        return doc;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.snapshot;
+
+import dk.kb.ds.cumulus.export.MapRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordSnapshotTest {
+
+    @Test
+    void testRoundTrip() throws IOException {
+        final Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            try (RecordSnapshotWriter writer = new RecordSnapshotWriter(file, false)) {
+                writer.add("cat1", record("guid1", "Titel", "Første æble"), Map.of("Renditions", "/Depot/1.jp2"));
+                writer.add("cat2", record("guid2", "Titel", "Other", "ID", "42"), Map.of());
+                writer.add("cat1", record("guid3", "ID", "87"), Map.of());
+                assertEquals(3, writer.getRecordCount(), "All records should be counted");
+            }
+
+            try (RecordSnapshotReader reader = new RecordSnapshotReader(file)) {
+                assertEquals(List.of("cat1", "cat2"), reader.getCatalogs(), "The catalogs should be listed");
+                assertEquals(List.of("Titel", "Renditions", "ID"), reader.getFields(),
+                             "The fields should be listed in order of first occurrence");
+                assertEquals(2, reader.getRecordCount("cat1"), "The records in cat1 should be counted");
+                assertEquals(3, reader.getRecordCount(null), "All records should be counted");
+
+                List<MapRecord> cat1 = reader.records("cat1").collect(Collectors.toList());
+                assertEquals(List.of("guid1", "guid3"),
+                             cat1.stream().map(MapRecord::getUUID).collect(Collectors.toList()),
+                             "Only the records from cat1 should be read, in order");
+                assertEquals("Første æble", cat1.get(0).getFieldValue("Titel"), "Non-ASCII should survive");
+                assertEquals("/Depot/1.jp2", cat1.get(0).getRendition("Renditions"), "The rendition should be read");
+                assertEquals("string", cat1.get(0).getDataType("Titel"), "The data type should be read");
+                assertEquals(87, cat1.get(1).getFieldIntValue("ID"), "Numbers should be parsed");
+                assertNull(cat1.get(1).getFieldValue("Titel"), "Missing fields should be null");
+
+                assertEquals(3, reader.records(null).count(), "All records should be read without catalog");
+                assertEquals(0, reader.records("unknown").count(), "No records should be read for unknown catalogs");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testAppendAfterCrash() throws IOException {
+        final Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            try (RecordSnapshotWriter writer = new RecordSnapshotWriter(file, false)) {
+                writer.add("cat1", record("guid1", "Titel", "First"), Map.of());
+                writer.add("cat1", record("guid2", "Titel", "Second"), Map.of());
+            }
+            // Simulate a crash in the middle of the last record
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+            try (RecordSnapshotReader reader = new RecordSnapshotReader(file)) {
+                assertEquals(1, reader.records("cat1").count(), "The incomplete record should be ignored");
+            }
+
+            try (RecordSnapshotWriter writer = new RecordSnapshotWriter(file, true)) {
+                writer.add("cat1", record("guid3", "Titel", "Third", "Beskrivelse", "New field"), Map.of());
+                writer.add("cat2", record("guid4", "Titel", "Fourth"), Map.of());
+            }
+            try (RecordSnapshotReader reader = new RecordSnapshotReader(file)) {
+                assertEquals(List.of("guid1", "guid3", "guid4"),
+                             reader.records(null).map(MapRecord::getUUID).collect(Collectors.toList()),
+                             "The appended records should follow the complete ones");
+                assertEquals("New field", reader.records("cat1").skip(1).findFirst().orElseThrow().
+                             getFieldValue("Beskrivelse"), "A field added when appending should be read");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testNotSnapshot() throws IOException {
+        final Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            Files.writeString(file, "<add></add>");
+            assertThrows(IOException.class, () -> new RecordSnapshotReader(file),
+                         "A file that is not a snapshot should be rejected");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static MapRecord record(String guid, String... keyValues) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        final Map<String, String> dataTypes = new HashMap<>();
+        for (int i = 0 ; i < keyValues.length ; i += 2) {
+            values.put(keyValues[i], keyValues[i + 1]);
+            dataTypes.put(keyValues[i], "ID".equals(keyValues[i]) ? "integer" : "string");
+        }
+        return new MapRecord(guid, values, dataTypes, Map.of());
+    }
+}
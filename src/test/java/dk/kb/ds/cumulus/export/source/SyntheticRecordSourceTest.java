@@ -0,0 +1,124 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.ds.cumulus.export.source;
+
+import dk.kb.cumulus.CumulusRecord;
+import dk.kb.ds.cumulus.export.CalendarUtils;
+import dk.kb.ds.cumulus.export.MapRecord;
+import dk.kb.ds.cumulus.export.YAML;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticRecordSourceTest {
+
+    @Test
+    void testGenerate() throws Exception {
+        try (SyntheticRecordSource source = new SyntheticRecordSource(conf(100, 0.5))) {
+            List<CumulusRecord> records;
+            try (Records delivered = source.getRecords("cat1", List.of(), null)) {
+                assertEquals(100, delivered.size(), "The size should be the configured number of records");
+                records = delivered.stream().collect(Collectors.toList());
+            }
+            assertEquals(100, records.size(), "All records should be delivered");
+
+            final MapRecord first = (MapRecord) records.get(0);
+            assertEquals("1", first.getFieldValue("ID"), "The first record should have ID 1");
+            assertEquals("Uid:dk:kb:doms:2007-01/" + first.getUUID(), first.getFieldValue("guid"),
+                         "The template should be expanded with the GUID");
+            assertEquals("Depot:/Depot/DAMJP2/cat1-1.jp2", first.getRendition("Renditions Manager"),
+                         "The rendition should be expanded with catalog and ID");
+            assertNull(first.getValues().get("Renditions Manager"), "The rendition should not be a field value");
+            assertEquals("integer", first.getDataType("ID"), "The data type should be the field type");
+
+            for (CumulusRecord record: records) {
+                final MapRecord mapRecord = (MapRecord) record;
+                final String title = mapRecord.getFieldValue("Titel");
+                final int words = title.split(" ").length;
+                assertTrue(words >= 2 && words <= 4, "The title '" + title + "' should have 2-4 words");
+                final int year = mapRecord.getFieldIntValue("År");
+                assertTrue(year >= 1900 && year <= 1910, "The year " + year + " should be within the range");
+                assertTrue(List.of("Foto", "Tegning").contains(mapRecord.getFieldValue("Materialebetegnelse")),
+                           "The choice should be one of the values");
+                assertNotNull(CalendarUtils.getUTCTime(mapRecord.getFieldValue("Item Creation Date")),
+                              "The date should be parsable as a Cumulus date");
+            }
+            final long withEmneord = records.stream().
+                filter(record -> ((MapRecord) record).getValues().containsKey("Emneord")).count();
+            assertTrue(withEmneord > 20 && withEmneord < 80,
+                       "About half of the records should have Emneord, but there were " + withEmneord);
+        }
+    }
+
+    @Test
+    void testDeterministic() throws Exception {
+        try (SyntheticRecordSource source1 = new SyntheticRecordSource(conf(10, 0.5));
+             SyntheticRecordSource source2 = new SyntheticRecordSource(conf(10, 0.5))) {
+            for (int i = 0 ; i < 10 ; i++) {
+                final MapRecord record1 = (MapRecord) source1.generate("cat1", i);
+                final MapRecord record2 = (MapRecord) source2.generate("cat1", i);
+                assertEquals(record1.getUUID(), record2.getUUID(), "The GUID for record " + i + " should be the same");
+                assertEquals(record1.getValues(), record2.getValues(),
+                             "The values for record " + i + " should be the same");
+            }
+            assertNotEquals(((MapRecord) source1.generate("cat1", 0)).getUUID(),
+                            ((MapRecord) source1.generate("cat2", 0)).getUUID(),
+                            "Records in different catalogs should differ");
+        }
+    }
+
+    @Test
+    void testGUIDs() throws Exception {
+        try (SyntheticRecordSource source = new SyntheticRecordSource(conf(20, 1.0))) {
+            final String guid5 = source.generate("cat1", 5).getUUID();
+            final String guid7 = source.generate("cat1", 7).getUUID();
+            try (Records records = source.getRecords("cat1", List.of(guid7, guid5, "unknown"))) {
+                assertEquals(List.of(guid5, guid7),
+                             records.stream().map(CumulusRecord::getUUID).collect(Collectors.toList()),
+                             "Only the known GUIDs should be delivered");
+            }
+        }
+    }
+
+    @Test
+    void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new SyntheticRecordSource(new YAML(Map.of(
+            SyntheticRecordSource.CONF_FIELDS, List.of(Map.of("name", "foo", "type", "unknown"))))),
+                     "An unknown type should fail");
+        assertThrows(IllegalArgumentException.class, () -> new SyntheticRecordSource(new YAML(Map.of(
+            SyntheticRecordSource.CONF_FIELDS, List.of(Map.of("name", "foo", "type", "choice"))))),
+                     "A choice without values should fail");
+    }
+
+    private static YAML conf(int records, double presence) {
+        return new YAML(Map.of(
+            SyntheticRecordSource.CONF_RECORDS, records,
+            SyntheticRecordSource.CONF_FIELDS, List.of(
+                Map.of("name", "guid", "type", "template", "template", "Uid:dk:kb:doms:2007-01/{guid}"),
+                Map.of("name", "ID", "type", "id"),
+                Map.of("name", "Titel", "type", "text", "min", 2, "max", 4),
+                Map.of("name", "År", "type", "integer", "min", 1900, "max", 1910),
+                Map.of("name", "Item Creation Date", "type", "date"),
+                Map.of("name", "Emneord", "type", "text", "presence", presence),
+                Map.of("name", "Materialebetegnelse", "type", "choice",
+                       "values", List.of("Foto", "Tegning"), "weights", List.of(3, 1)),
+                Map.of("name", "Renditions Manager", "type", "rendition",
+                       "template", "Depot:/Depot/DAMJP2/{catalog}-{id}.jp2"))));
+    }
+}